@@ -0,0 +1,97 @@
+package benchmark;
+
+import client.Base64PacketCodec;
+import client.TransmitFrame;
+import client.Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Compares the cost of decoding PACKET lines and encoding TRANSMIT lines with {@link Base64PacketCodec} against
+ * the String-based path the client used before: splitting the message, decoding into a new array and widening
+ * it into an Integer[], and building the reply by String concatenation. Lines are encoded as the client does it,
+ * through the {@link TransmitFrame} of a packet, once for a new frame and for free when a frame is sent again.
+ *
+ * Usage: java benchmark.Base64CodecBenchmark [payload size=256] [iterations=200000]
+ */
+public class Base64CodecBenchmark {
+	private static final String PREFIX = "RDTCHALLENGE/3.0 ";
+
+	// keeps the results alive so the JIT cannot remove the work
+	private static long sink;
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		byte[] payload = new byte[size];
+		new Random(1).nextBytes(payload);
+		byte[] packetLine = (PREFIX + "PACKET " + Base64.getEncoder().encodeToString(payload))
+				.getBytes(StandardCharsets.US_ASCII);
+
+		byte[] transmitPrefix = (PREFIX + "TRANSMIT ").getBytes(StandardCharsets.US_ASCII);
+		TransmitFrame resent = new TransmitFrame(payload);
+		byte[] expectedLine = encodeStrings(payload).getBytes(StandardCharsets.US_ASCII);
+		if (!Arrays.equals(payload, decodeCodec(packetLine))
+				|| !Arrays.equals(payload, Utils.toBytes(decodeStrings(packetLine)))
+				|| !Arrays.equals(expectedLine, Base64PacketCodec.encodeLine(transmitPrefix, payload))
+				|| !Arrays.equals(expectedLine, resent.getLine())) {
+			throw new IllegalStateException("Codec results differ");
+		}
+
+		System.out.printf("Payload of %d bytes, %d iterations%n", size, iterations);
+		for (int round = 0; round < 3; round++) {
+			System.out.printf("Round %d%n", round + 1);
+			report("decode, strings", iterations, measure(iterations, () -> sink += decodeStrings(packetLine).length));
+			report("decode, codec", iterations, measure(iterations, () -> sink += decodeCodec(packetLine).length));
+			report("encode, strings", iterations, measure(iterations, () -> sink += encodeStrings(payload).length()));
+			report("encode, frame", iterations,
+					measure(iterations, () -> sink += new TransmitFrame(payload).getLine().length));
+			report("encode, resent", iterations, measure(iterations, () -> sink += resent.getLine().length));
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * The previous receive path, with java.util.Base64 in place of DatatypeConverter
+	 */
+	private static Integer[] decodeStrings(byte[] line) {
+		String message = new String(line, StandardCharsets.US_ASCII).substring(PREFIX.length());
+		String[] splitMessage = message.split(" ");
+		if (message.split(" ")[0].startsWith("PACKET")) {
+			return Utils.toIntegers(splitMessage.length > 1 ? Base64.getDecoder().decode(splitMessage[1]) : new byte[0]);
+		}
+		return null;
+	}
+
+	private static byte[] decodeCodec(byte[] line) {
+		ByteBuffer buffer = ByteBuffer.wrap(line);
+		buffer.position(PREFIX.length() + "PACKET ".length());
+		return Base64PacketCodec.decode(buffer);
+	}
+
+	/**
+	 * The previous send path, with java.util.Base64 in place of DatatypeConverter
+	 */
+	private static String encodeStrings(byte[] payload) {
+		return PREFIX + "TRANSMIT " + Base64.getEncoder().encodeToString(payload);
+	}
+
+	private static long measure(int iterations, Runnable operation) {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			operation.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String name, int iterations, long nanos) {
+		System.out.printf("  %-16s %8.1f ns/op%n", name, (double) nanos / iterations);
+	}
+}
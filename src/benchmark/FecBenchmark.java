@@ -0,0 +1,123 @@
+package benchmark;
+
+import client.FecNetworkLayer;
+import protocol.IRDTProtocol;
+import server.ChannelModel;
+import server.Simulation;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Measures the goodput of a protocol over the simulated channel of {@link Simulation} at several loss rates, without
+ * forward error correction and with a {@link FecNetworkLayer} of fixed and of adaptive parity. Goodput is the size of
+ * the file divided by the virtual time of the transfer, averaged over several channel seeds. The output of the
+ * protocols is discarded.
+ *
+ * Usage: java benchmark.FecBenchmark [protocol=SlidingWindowDataTransferProtocol] [file=5] [runs=5]
+ * [losses=0,0.05,0.1,0.2,0.3] [k=8] [seed=0] [other channel model options]
+ */
+public class FecBenchmark {
+	public static void main(String[] args) throws Exception {
+		String protocolName = "SlidingWindowDataTransferProtocol";
+		int fileId = 5;
+		int runs = 5;
+		String[] losses = {"0", "0.05", "0.1", "0.2", "0.3"};
+		int blockSize = FecNetworkLayer.DEFAULT_BLOCK_SIZE;
+		long seed = 0;
+		List<String> channelArgs = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("protocol=")) {
+				protocolName = arg.substring(9);
+			} else if (arg.startsWith("file=")) {
+				fileId = Integer.parseInt(arg.substring(5));
+			} else if (arg.startsWith("runs=")) {
+				runs = Integer.parseInt(arg.substring(5));
+			} else if (arg.startsWith("losses=")) {
+				losses = arg.substring(7).split(",");
+			} else if (arg.startsWith("k=")) {
+				blockSize = Integer.parseInt(arg.substring(2));
+			} else if (arg.startsWith("seed=")) {
+				seed = Long.parseLong(arg.substring(5));
+			} else if (!arg.startsWith("loss=")) {
+				channelArgs.add(arg);
+			}
+		}
+		Supplier<IRDTProtocol> protocolFactory = Simulation.protocolFactory(protocolName);
+
+		// the parity packets per block, -1 for adaptive and null for no forward error correction at all
+		Map<String, Integer> modes = new LinkedHashMap<>();
+		modes.put("none", null);
+		modes.put("XOR m=1", 1);
+		modes.put("RS m=2", 2);
+		modes.put("adaptive", -1);
+
+		PrintStream out = System.out;
+		PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		long size = new File(String.format("rdtcInput%d.png", fileId)).length();
+		out.printf("%s, file %d (%d bytes), k=%d%n", protocolName, fileId, size, blockSize);
+		out.printf("%-6s %-9s %12s %14s %9s %9s %10s%n", "loss", "FEC", "virtual ms", "goodput KB/s", "packets",
+				"parity", "recovered");
+		for (String loss : losses) {
+			for (Map.Entry<String, Integer> mode : modes.entrySet()) {
+				Integer parity = mode.getValue();
+				long virtualMillis = 0;
+				long packets = 0;
+				long parityPackets = 0;
+				long recovered = 0;
+				int failed = 0;
+				for (int run = 0; run < runs; run++) {
+					List<String> runArgs = new ArrayList<>(channelArgs);
+					runArgs.add("loss=" + loss);
+					ChannelModel model = ChannelModel.parse(runArgs.toArray(new String[0]));
+					model.setSeed(seed + run);
+					Simulation simulation = new Simulation(protocolFactory, model, fileId, 600000);
+					List<FecNetworkLayer> fecLayers = new ArrayList<>();
+					if (parity != null) {
+						int k = blockSize;
+						simulation.setNetworkLayerDecorator(networkLayer -> {
+							FecNetworkLayer fecLayer = new FecNetworkLayer(networkLayer, k, parity);
+							fecLayers.add(fecLayer);
+							return fecLayer;
+						});
+					}
+					System.setOut(discard);
+					Simulation.Result result;
+					try {
+						result = simulation.run();
+					} finally {
+						System.setOut(out);
+					}
+					if (!result.correct) {
+						failed++;
+					}
+					virtualMillis += result.virtualMillis;
+					packets += result.packetsTransmitted;
+					for (FecNetworkLayer fecLayer : fecLayers) {
+						parityPackets += fecLayer.getParityPacketsSent();
+						recovered += fecLayer.getPacketsRecovered();
+					}
+				}
+				double meanMillis = (double) virtualMillis / runs;
+				out.printf("%-6s %-9s %12.1f %14.1f %9.1f %9.1f %10.1f%s%n", loss, mode.getKey(), meanMillis,
+						size / 1024.0 / (meanMillis / 1000), (double) packets / runs, (double) parityPackets / runs,
+						(double) recovered / runs, failed > 0 ? "  (" + failed + " failed)" : "");
+			}
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,71 @@
+package benchmark;
+
+import client.SegmentSource;
+import client.Utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Compares the time until the first packet can be built from the file to transmit: reading it one byte at a time
+ * into an Integer[], as Utils.getFileContents did before, reading it with {@link Utils#getFileContents(int)}, and
+ * mapping it with a {@link SegmentSource}.
+ *
+ * Usage: java benchmark.FileSourceBenchmark [file=5] [rounds=10]
+ */
+public class FileSourceBenchmark {
+	private static final int SEGMENT_SIZE = 512;
+
+	// keeps the results alive so the JIT cannot remove the work
+	private static long sink;
+
+	public static void main(String[] args) throws Exception {
+		int fileId = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		System.out.printf("File %d of %d bytes, %d rounds%n", fileId, Utils.getInputFile(fileId).length(), rounds);
+		for (int round = 0; round < 3; round++) {
+			System.out.printf("Round %d%n", round + 1);
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				sink += readBytewise(Utils.getInputFile(fileId)).length;
+			}
+			report("byte by byte", start, rounds);
+
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				sink += Utils.getFileContents(fileId).length;
+			}
+			report("getFileContents", start, rounds);
+
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				try (SegmentSource source = SegmentSource.open(fileId, SEGMENT_SIZE)) {
+					sink += source.getSegment(0).remaining();
+				}
+			}
+			report("SegmentSource", start, rounds);
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * The previous Utils.getFileContents
+	 */
+	private static Integer[] readBytewise(File file) throws IOException {
+		try (FileInputStream fileStream = new FileInputStream(file)) {
+			Integer[] fileContents = new Integer[(int) file.length()];
+			for (int i = 0; i < fileContents.length; i++) {
+				fileContents[i] = fileStream.read();
+			}
+			return fileContents;
+		}
+	}
+
+	private static void report(String name, long start, int rounds) {
+		System.out.printf("%-16s %10.3f ms per file%n", name, (System.nanoTime() - start) / 1e6 / rounds);
+	}
+}
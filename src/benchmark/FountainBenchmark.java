@@ -0,0 +1,102 @@
+package benchmark;
+
+import protocol.FountainDataTransferProtocol;
+import protocol.IRDTProtocol;
+import protocol.SlidingWindowDataTransferProtocol;
+import server.ChannelModel;
+import server.Simulation;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Compares the rateless {@link FountainDataTransferProtocol} with {@link SlidingWindowDataTransferProtocol} on the
+ * simulated channel of {@link Simulation}, for every input file at several loss rates. Goodput is the size of the
+ * file divided by the virtual time of the transfer, averaged over several channel seeds. The packets the receiver
+ * sends show how much of the reverse channel each protocol uses. The output of the protocols is discarded.
+ *
+ * Usage: java benchmark.FountainBenchmark [files=1,2,3,4,5] [runs=5] [losses=0,0.1,0.2,0.3] [seed=0]
+ * [other channel model options]
+ */
+public class FountainBenchmark {
+	public static void main(String[] args) throws Exception {
+		String[] files = {"1", "2", "3", "4", "5"};
+		int runs = 5;
+		String[] losses = {"0", "0.1", "0.2", "0.3"};
+		long seed = 0;
+		List<String> channelArgs = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("files=")) {
+				files = arg.substring(6).split(",");
+			} else if (arg.startsWith("runs=")) {
+				runs = Integer.parseInt(arg.substring(5));
+			} else if (arg.startsWith("losses=")) {
+				losses = arg.substring(7).split(",");
+			} else if (arg.startsWith("seed=")) {
+				seed = Long.parseLong(arg.substring(5));
+			} else if (!arg.startsWith("loss=")) {
+				channelArgs.add(arg);
+			}
+		}
+
+		Map<String, Supplier<IRDTProtocol>> protocols = new LinkedHashMap<>();
+		protocols.put("sliding window", SlidingWindowDataTransferProtocol::new);
+		protocols.put("fountain", FountainDataTransferProtocol::new);
+
+		PrintStream out = System.out;
+		PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		out.printf("%-5s %9s %-5s %-15s %12s %14s %9s %9s%n", "file", "bytes", "loss", "protocol", "virtual ms",
+				"goodput KB/s", "packets", "reverse");
+		for (String file : files) {
+			int fileId = Integer.parseInt(file);
+			long size = new File(String.format("rdtcInput%d.png", fileId)).length();
+			for (String loss : losses) {
+				for (Map.Entry<String, Supplier<IRDTProtocol>> protocol : protocols.entrySet()) {
+					long virtualMillis = 0;
+					long packets = 0;
+					long reverse = 0;
+					int failed = 0;
+					for (int run = 0; run < runs; run++) {
+						List<String> runArgs = new ArrayList<>(channelArgs);
+						runArgs.add("loss=" + loss);
+						ChannelModel model = ChannelModel.parse(runArgs.toArray(new String[0]));
+						model.setSeed(seed + run);
+						Simulation simulation = new Simulation(protocol.getValue(), model, fileId, 600000);
+						System.setOut(discard);
+						Simulation.Result result;
+						try {
+							result = simulation.run();
+						} finally {
+							System.setOut(out);
+						}
+						if (!result.correct) {
+							failed++;
+						}
+						virtualMillis += result.virtualMillis;
+						packets += result.packetsTransmitted;
+						reverse += result.receiverPackets;
+					}
+					double meanMillis = (double) virtualMillis / runs;
+					out.printf("%-5d %9d %-5s %-15s %12.1f %14.1f %9.1f %9.1f%s%n", fileId, size, loss,
+							protocol.getKey(), meanMillis, size / 1024.0 / (meanMillis / 1000), (double) packets / runs,
+							(double) reverse / runs, failed > 0 ? "  (" + failed + " failed)" : "");
+				}
+			}
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,104 @@
+package benchmark;
+
+import protocol.IRDTProtocol;
+import protocol.SlidingWindowDataTransferProtocol;
+import server.ChannelModel;
+import server.Simulation;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Compares {@link SlidingWindowDataTransferProtocol} with and without per-packet checksums on the simulated channel
+ * of {@link Simulation}, for every input file at several corruption rates. Without checksums a corrupted packet is
+ * trusted, so the output is only correct if no packet was corrupted; with them it is dropped and requested again at
+ * once with a NACK. Times are averaged over several channel seeds, the output of the protocol is discarded.
+ *
+ * Usage: java benchmark.PacketChecksumBenchmark [files=1,2,3,4,5] [runs=5] [corrupts=0,0.01,0.05] [seed=0]
+ * [other channel model options]
+ */
+public class PacketChecksumBenchmark {
+	public static void main(String[] args) throws Exception {
+		String[] files = {"1", "2", "3", "4", "5"};
+		int runs = 5;
+		String[] corrupts = {"0", "0.01", "0.05"};
+		long seed = 0;
+		List<String> channelArgs = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("files=")) {
+				files = arg.substring(6).split(",");
+			} else if (arg.startsWith("runs=")) {
+				runs = Integer.parseInt(arg.substring(5));
+			} else if (arg.startsWith("corrupts=")) {
+				corrupts = arg.substring(9).split(",");
+			} else if (arg.startsWith("seed=")) {
+				seed = Long.parseLong(arg.substring(5));
+			} else if (!arg.startsWith("corrupt=")) {
+				channelArgs.add(arg);
+			}
+		}
+
+		Map<String, Supplier<IRDTProtocol>> protocols = new LinkedHashMap<>();
+		protocols.put("no checksum", SlidingWindowDataTransferProtocol::new);
+		protocols.put("checksum", () -> {
+			SlidingWindowDataTransferProtocol protocol = new SlidingWindowDataTransferProtocol();
+			protocol.setPacketChecksum(true);
+			return protocol;
+		});
+
+		PrintStream out = System.out;
+		PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		out.printf("%-5s %9s %-7s %-12s %12s %9s %10s %8s%n", "file", "bytes", "corrupt", "protocol", "virtual ms",
+				"packets", "corrupted", "correct");
+		for (String file : files) {
+			int fileId = Integer.parseInt(file);
+			long size = new File(String.format("rdtcInput%d.png", fileId)).length();
+			for (String corrupt : corrupts) {
+				for (Map.Entry<String, Supplier<IRDTProtocol>> protocol : protocols.entrySet()) {
+					long virtualMillis = 0;
+					long packets = 0;
+					long corrupted = 0;
+					int correct = 0;
+					for (int run = 0; run < runs; run++) {
+						List<String> runArgs = new ArrayList<>(channelArgs);
+						runArgs.add("corrupt=" + corrupt);
+						ChannelModel model = ChannelModel.parse(runArgs.toArray(new String[0]));
+						model.setSeed(seed + run);
+						Simulation simulation = new Simulation(protocol.getValue(), model, fileId, 600000);
+						System.setOut(discard);
+						Simulation.Result result;
+						try {
+							result = simulation.run();
+						} finally {
+							System.setOut(out);
+						}
+						if (result.correct) {
+							correct++;
+						}
+						virtualMillis += result.virtualMillis;
+						packets += result.packetsTransmitted;
+						corrupted += result.packetsCorrupted;
+					}
+					out.printf("%-5d %9d %-7s %-12s %12.1f %9.1f %10.1f %5d/%d%n", fileId, size, corrupt,
+							protocol.getKey(), (double) virtualMillis / runs, (double) packets / runs,
+							(double) corrupted / runs, correct, runs);
+				}
+			}
+		}
+		System.exit(0);
+	}
+}
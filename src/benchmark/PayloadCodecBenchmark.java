@@ -0,0 +1,132 @@
+package benchmark;
+
+import protocol.ChunkedPayloadEncoder;
+import protocol.DeflatePayloadCodec;
+import protocol.IPayloadCodec;
+import protocol.SlidingWindowDataTransferProtocol;
+import server.ChannelModel;
+import server.Simulation;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the codec stage of {@link SlidingWindowDataTransferProtocol}: how much {@link ChunkedPayloadEncoder}
+ * shrinks each input file and how long encoding takes on one thread and on the common ForkJoin pool, and the virtual
+ * time of the transfer over the simulated channel of {@link Simulation} with raw and with deflated payloads, averaged
+ * over several channel seeds. The output of the protocols is discarded.
+ *
+ * Usage: java benchmark.PayloadCodecBenchmark [files=1,2,3,4,5] [runs=5] [losses=0,0.1] [seed=0]
+ * [other channel model options]
+ */
+public class PayloadCodecBenchmark {
+	private static final int ENCODE_ROUNDS = 20;
+
+	public static void main(String[] args) throws Exception {
+		String[] files = {"1", "2", "3", "4", "5"};
+		int runs = 5;
+		String[] losses = {"0", "0.1"};
+		long seed = 0;
+		List<String> channelArgs = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("files=")) {
+				files = arg.substring(6).split(",");
+			} else if (arg.startsWith("runs=")) {
+				runs = Integer.parseInt(arg.substring(5));
+			} else if (arg.startsWith("losses=")) {
+				losses = arg.substring(7).split(",");
+			} else if (arg.startsWith("seed=")) {
+				seed = Long.parseLong(arg.substring(5));
+			} else if (!arg.startsWith("loss=")) {
+				channelArgs.add(arg);
+			}
+		}
+
+		PrintStream out = System.out;
+		PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		ChunkedPayloadEncoder encoder = new ChunkedPayloadEncoder(new DeflatePayloadCodec());
+		ForkJoinPool single = new ForkJoinPool(1);
+		out.printf("Encoding with %d-byte chunks, %d threads in the common pool%n", encoder.getChunkSize(),
+				ForkJoinPool.getCommonPoolParallelism());
+		out.printf("%-5s %9s %9s %9s %14s %14s%n", "file", "bytes", "encoded", "segments", "1 thread ms",
+				"pool ms");
+		for (String file : files) {
+			byte[] contents = Files.readAllBytes(Paths.get(String.format("rdtcInput%s.png", file)));
+			List<ChunkedPayloadEncoder.Segment> segments = encoder.submit(contents, single).join();
+			int encoded = 0;
+			for (ChunkedPayloadEncoder.Segment segment : segments) {
+				encoded += segment.getData().length;
+			}
+			out.printf("%-5s %9d %9d %9d %14.3f %14.3f%n", file, contents.length, encoded, segments.size(),
+					measure(encoder, contents, single), measure(encoder, contents, ForkJoinPool.commonPool()));
+		}
+		single.shutdown();
+
+		out.println();
+		out.printf("%-5s %-5s %-8s %12s %9s%n", "file", "loss", "payload", "virtual ms", "packets");
+		for (String file : files) {
+			int fileId = Integer.parseInt(file);
+			for (String loss : losses) {
+				for (IPayloadCodec codec : new IPayloadCodec[] {null, new DeflatePayloadCodec()}) {
+					long virtualMillis = 0;
+					long packets = 0;
+					int failed = 0;
+					for (int run = 0; run < runs; run++) {
+						List<String> runArgs = new ArrayList<>(channelArgs);
+						runArgs.add("loss=" + loss);
+						ChannelModel model = ChannelModel.parse(runArgs.toArray(new String[0]));
+						model.setSeed(seed + run);
+						Simulation simulation = new Simulation(() -> {
+							SlidingWindowDataTransferProtocol protocol = new SlidingWindowDataTransferProtocol();
+							protocol.setPayloadCodec(codec);
+							return protocol;
+						}, model, fileId, 600000);
+						System.setOut(discard);
+						Simulation.Result result;
+						try {
+							result = simulation.run();
+						} finally {
+							System.setOut(out);
+						}
+						if (!result.correct) {
+							failed++;
+						}
+						virtualMillis += result.virtualMillis;
+						packets += result.packetsTransmitted;
+					}
+					out.printf("%-5d %-5s %-8s %12.1f %9.1f%s%n", fileId, loss, codec == null ? "raw" : "deflate",
+							(double) virtualMillis / runs, (double) packets / runs,
+							failed > 0 ? "  (" + failed + " failed)" : "");
+				}
+			}
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * @return the mean wall-clock time of encoding the file, in milliseconds, after a warm-up
+	 */
+	private static double measure(ChunkedPayloadEncoder encoder, byte[] contents, ForkJoinPool pool) {
+		for (int round = 0; round < ENCODE_ROUNDS; round++) {
+			encoder.submit(contents, pool).join();
+		}
+		long start = System.nanoTime();
+		for (int round = 0; round < ENCODE_ROUNDS; round++) {
+			encoder.submit(contents, pool).join();
+		}
+		return (System.nanoTime() - start) / 1e6 / ENCODE_ROUNDS;
+	}
+}
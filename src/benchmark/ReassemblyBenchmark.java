@@ -0,0 +1,80 @@
+package benchmark;
+
+import client.ReassemblySink;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares reassembling a file from packets of Integers by growing an array with Arrays.copyOf for every packet, as
+ * the receivers did before, with writing every packet at its offset into a {@link ReassemblySink}, in order and in
+ * random order.
+ *
+ * Usage: java benchmark.ReassemblyBenchmark [file size in bytes=1048576] [payload size=512]
+ */
+public class ReassemblyBenchmark {
+	public static void main(String[] args) throws Exception {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+
+		Random random = new Random(1);
+		List<Integer[]> packets = new ArrayList<>();
+		for (int offset = 0; offset < size; offset += payloadSize) {
+			Integer[] packet = new Integer[Math.min(payloadSize, size - offset)];
+			for (int i = 0; i < packet.length; i++) {
+				packet[i] = random.nextInt(256);
+			}
+			packets.add(packet);
+		}
+		List<Integer> shuffled = new ArrayList<>();
+		for (int i = 0; i < packets.size(); i++) {
+			shuffled.add(i);
+		}
+		Collections.shuffle(shuffled, random);
+		File output = File.createTempFile("reassembly", ".bin");
+		output.deleteOnExit();
+
+		System.out.printf("File of %d bytes in %d packets%n", size, packets.size());
+		for (int round = 0; round < 3; round++) {
+			System.out.printf("Round %d%n", round + 1);
+			long start = System.nanoTime();
+			Integer[] fileContents = new Integer[0];
+			for (Integer[] packet : packets) {
+				int oldlength = fileContents.length;
+				fileContents = Arrays.copyOf(fileContents, oldlength + packet.length);
+				System.arraycopy(packet, 0, fileContents, oldlength, packet.length);
+			}
+			report("Arrays.copyOf", start, fileContents.length);
+
+			start = System.nanoTime();
+			try (ReassemblySink sink = new ReassemblySink(output.toPath())) {
+				long offset = 0;
+				for (Integer[] packet : packets) {
+					sink.write(offset, packet, 0, packet.length);
+					offset += packet.length;
+				}
+				report("sink, in order", start, sink.getContiguousLength());
+			}
+
+			start = System.nanoTime();
+			try (ReassemblySink sink = new ReassemblySink(output.toPath())) {
+				sink.setLength(size);
+				for (int index : shuffled) {
+					sink.write((long) index * payloadSize, packets.get(index), 0, packets.get(index).length);
+				}
+				if (!sink.isComplete()) {
+					throw new IllegalStateException("Sink not complete: " + sink);
+				}
+				report("sink, random order", start, sink.getContiguousLength());
+			}
+		}
+	}
+
+	private static void report(String name, long start, long length) {
+		System.out.printf("%-20s %10.1f ms %9d bytes%n", name, (System.nanoTime() - start) / 1e6, length);
+	}
+}
@@ -0,0 +1,81 @@
+package benchmark;
+
+import client.RingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares the packet buffers of the client: an ArrayList drained with remove(0) under a ReentrantLock, as before,
+ * against a {@link RingBuffer}. Every operation adds one packet and removes one from a buffer that already holds a
+ * number of packets, on a single thread, so it measures the cost of the buffer itself without contention.
+ *
+ * Usage: java benchmark.RingBufferBenchmark [depths=4,500,2000] [iterations=2000000]
+ */
+public class RingBufferBenchmark {
+	private static final int CAPACITY = 4096;   // capacity of the buffers of the client
+
+	// keeps the results alive so the JIT cannot remove the work
+	private static long sink;
+
+	public static void main(String[] args) {
+		String[] depths = args.length > 0 ? args[0].split(",") : new String[] {"4", "500", "2000"};
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+		byte[] packet = new byte[64];
+
+		System.out.printf("%d iterations of offer and poll%n", iterations);
+		for (int round = 0; round < 3; round++) {
+			System.out.printf("Round %d%n", round + 1);
+			for (String depthArg : depths) {
+				int depth = Integer.parseInt(depthArg);
+				report("ArrayList+lock", depth, iterations, measureList(depth, iterations, packet));
+				report("RingBuffer", depth, iterations, measureRing(depth, iterations, packet));
+			}
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	private static long measureList(int depth, int iterations, byte[] packet) {
+		List<byte[]> buffer = new ArrayList<>();
+		ReentrantLock lock = new ReentrantLock();
+		for (int i = 0; i < depth; i++) {
+			buffer.add(packet);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			lock.lock();
+			try {
+				buffer.add(packet);
+			} finally {
+				lock.unlock();
+			}
+			lock.lock();
+			try {
+				sink += buffer.remove(0).length;
+			} finally {
+				lock.unlock();
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long measureRing(int depth, int iterations, byte[] packet) {
+		RingBuffer<byte[]> buffer = new RingBuffer<>(CAPACITY);
+		for (int i = 0; i < depth; i++) {
+			buffer.offer(packet);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			buffer.offer(packet);
+			sink += buffer.poll().length;
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String name, int depth, int iterations, long nanos) {
+		System.out.printf("  depth %4d: %-15s %6.1f ns/op%n", depth, name, (double) nanos / iterations);
+	}
+}
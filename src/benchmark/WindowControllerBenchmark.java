@@ -0,0 +1,119 @@
+package benchmark;
+
+import protocol.AimdWindowController;
+import protocol.FixedWindowController;
+import protocol.IWindowController;
+import protocol.LossRateWindowController;
+import protocol.SlidingWindowDataTransferProtocol;
+import server.ChannelModel;
+import server.Simulation;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the goodput of the sliding window protocol with each window controller, for every input file, on the
+ * simulated channel of {@link Simulation}. Goodput is the size of the file divided by the virtual time of the
+ * transfer, averaged over several channel seeds. Every controller also runs on the same channel without loss, which
+ * shows the cost of losses it suspects wrongly. The output of the protocols is discarded.
+ *
+ * Usage: java benchmark.WindowControllerBenchmark [files=1,2,3,4,5] [runs=5] [window=256] [channel model options]
+ */
+public class WindowControllerBenchmark {
+	public static void main(String[] args) throws Exception {
+		String[] files = {"1", "2", "3", "4", "5"};
+		int runs = 5;
+		int window = 256;
+		long seed = 0;
+		for (String arg : args) {
+			if (arg.startsWith("files=")) {
+				files = arg.substring(6).split(",");
+			} else if (arg.startsWith("runs=")) {
+				runs = Integer.parseInt(arg.substring(5));
+			} else if (arg.startsWith("window=")) {
+				window = Integer.parseInt(arg.substring(7));
+			} else if (arg.startsWith("seed=")) {
+				seed = Long.parseLong(arg.substring(5));
+			}
+		}
+
+		Map<String, IntFunction<IWindowController>> controllers = new LinkedHashMap<>();
+		controllers.put("fixed 4", maxWindow -> new FixedWindowController(Math.min(4, maxWindow)));
+		controllers.put("AIMD", AimdWindowController::new);
+		controllers.put("loss rate", LossRateWindowController::new);
+
+		PrintStream out = System.out;
+		PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		out.printf("%-6s %9s  %-10s %12s %14s %12s %12s %12s%n", "file", "bytes", "controller", "virtual ms",
+				"goodput KB/s", "packets", "ms loss=0", "pkts loss=0");
+		for (String file : files) {
+			int fileId = Integer.parseInt(file);
+			long size = new File(String.format("rdtcInput%d.png", fileId)).length();
+			for (Map.Entry<String, IntFunction<IWindowController>> controller : controllers.entrySet()) {
+				Measurement lossy = measure(args, false, controller.getValue(), fileId, runs, window, seed, discard);
+				Measurement lossless = measure(args, true, controller.getValue(), fileId, runs, window, seed, discard);
+				int failed = lossy.failed + lossless.failed;
+				out.printf("%-6d %9d  %-10s %12.1f %14.1f %12.1f %12.1f %12.1f%s%n", fileId, size, controller.getKey(),
+						lossy.millis, size / 1024.0 / (lossy.millis / 1000), lossy.packets, lossless.millis,
+						lossless.packets, failed > 0 ? "  (" + failed + " failed)" : "");
+			}
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Runs the transfer of a file with one controller on a channel with each seed, with the output discarded
+	 * @param lossless whether the loss of the channel model is turned off, keeping its delays and packet size limit
+	 */
+	private static Measurement measure(String[] args, boolean lossless, IntFunction<IWindowController> controller,
+			int fileId, int runs, int window, long seed, PrintStream discard) throws Exception {
+		PrintStream out = System.out;
+		Measurement measurement = new Measurement();
+		for (int run = 0; run < runs; run++) {
+			ChannelModel model = ChannelModel.parse(args);
+			model.setSeed(seed + run);
+			if (lossless) {
+				model.setLossRate(0);
+				model.setBurstRate(0);
+				model.setByteLossRate(0);
+			}
+			Simulation simulation = new Simulation(
+					() -> new SlidingWindowDataTransferProtocol(window, controller.apply(window)), model, fileId,
+					600000);
+			System.setOut(discard);
+			Simulation.Result result;
+			try {
+				result = simulation.run();
+			} finally {
+				System.setOut(out);
+			}
+			if (!result.correct) {
+				measurement.failed++;
+			}
+			measurement.millis += (double) result.virtualMillis / runs;
+			measurement.packets += (double) result.packetsTransmitted / runs;
+		}
+		return measurement;
+	}
+
+	/**
+	 * Mean virtual time and packets of the runs of one file and controller, and the number of incorrect outputs
+	 */
+	private static class Measurement {
+		double millis;
+		double packets;
+		int failed;
+	}
+}
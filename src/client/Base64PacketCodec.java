@@ -0,0 +1,59 @@
+package client;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Base64 codec for the payloads of control lines that works on bytes instead of Strings.
+ *
+ * Payloads are decoded straight from the read buffer of the transport into the packet array. Lines are encoded
+ * into an array of exactly their length, without intermediate arrays, and kept by the {@link TransmitFrame} of the
+ * packet so a packet that is sent again is not encoded again.
+ */
+public final class Base64PacketCodec {
+	private static final Base64.Decoder decoder = Base64.getDecoder();
+	private static final Base64.Encoder encoder = Base64.getEncoder();
+
+	private Base64PacketCodec() {
+	}
+
+	/**
+	 * Encodes a line consisting of a prefix and a payload into a new array of exactly its length, for a line that is
+	 * kept instead of written at once
+	 *
+	 * @param prefix
+	 *            the text in front of the encoded payload, including separators
+	 * @param payload
+	 *            the bytes to encode
+	 * @return the line
+	 */
+	public static byte[] encodeLine(byte[] prefix, byte[] payload) {
+		byte[] line = new byte[prefix.length + (payload.length + 2) / 3 * 4];
+		// the encoder can only write at the start of an array, so encode there and move the result behind the prefix
+		int encodedLength = encoder.encode(payload, line);
+		System.arraycopy(line, 0, line, prefix.length, encodedLength);
+		System.arraycopy(prefix, 0, line, 0, prefix.length);
+		return line;
+	}
+
+	/**
+	 * Decodes the remaining bytes of a buffer, and moves its position to its limit
+	 *
+	 * @param source
+	 *            the encoded bytes, between position and limit
+	 * @return the decoded bytes
+	 * @throws IllegalArgumentException
+	 *             if the bytes are not valid base64
+	 */
+	public static byte[] decode(ByteBuffer source) {
+		ByteBuffer decoded = decoder.decode(source);
+		if (decoded.hasArray() && decoded.arrayOffset() == 0 && decoded.position() == 0
+				&& decoded.array().length == decoded.remaining()) {
+			// the decoder allocates an array of exactly the decoded length
+			return decoded.array();
+		}
+		byte[] result = new byte[decoded.remaining()];
+		decoded.get(result);
+		return result;
+	}
+}
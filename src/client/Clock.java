@@ -0,0 +1,32 @@
+package client;
+
+/**
+ * Source of time for the framework and the protocols. Allows a transfer to run on wall-clock time
+ * against the challenge server, or on virtual time in a simulation.
+ */
+public interface Clock {
+	/**
+	 * @return the current time in milliseconds
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * @return the current value of a monotonic time source in nanoseconds
+	 */
+	long nanoTime();
+
+	/**
+	 * Sleeps the calling thread.
+	 * @param milliseconds the time to sleep
+	 * @throws InterruptedException if the thread was interrupted or the clock was shut down
+	 */
+	void sleep(long milliseconds) throws InterruptedException;
+
+	/**
+	 * Creates a thread whose sleeps are governed by this clock. The thread is not started.
+	 * @param runnable the code to run
+	 * @param name the name of the thread
+	 * @return the new thread
+	 */
+	Thread newThread(Runnable runnable, String name);
+}
@@ -1,14 +1,19 @@
 package client;
 
-import javax.xml.bind.DatatypeConverter;
 import java.io.*;
 import java.net.ProtocolException;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.CRC32;
+
+import javax.management.JMException;
 
 /*
  * 
@@ -27,6 +32,17 @@ import java.util.zip.CRC32;
 public class DRDTChallengeClient implements Runnable {
 	private static String protocolString = "RDTCHALLENGE/3.0";
 
+	// protocol string with separator, as it precedes every line from the server
+	private static final byte[] protocolPrefix = (protocolString + " ").getBytes(StandardCharsets.US_ASCII);
+
+	// message types that are handled without converting the line to a String
+	private static final byte[] slotMessage = "SLOT".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] packetMessage = "PACKET".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] noTransmitLine = (protocolString + " NOTRANSMIT").getBytes(StandardCharsets.US_ASCII);
+
+	// text in front of the encoded packet of a TRANSMIT line, see TransmitFrame
+	static final byte[] transmitPrefix = (protocolString + " TRANSMIT ").getBytes(StandardCharsets.US_ASCII);
+
 	// server address
 	private String host;
 
@@ -45,40 +61,79 @@ public class DRDTChallengeClient implements Runnable {
 	// thread for handling server messages
 	private Thread eventLoopThread;
 
-	// server socket
-	private Socket socket;
+	// whether to use the non-blocking NIO transport
+	private boolean useNio;
 
-	// scanner over socket input stream
-	private Scanner inputScanner;
+	// connection with the server
+	private IControlTransport transport;
 
-	// socket output stream
-	private PrintStream outputStream;
+	// time at which the SLOT being answered was received, 0 if there is none
+	private long slotReceivedNanos = 0;
 
-	// currently pending control message from server
-	private String currentControlMessage = null;
+	// metrics of the event loop, see MetricsRegistry
+	private static final MetricsRegistry.Counter slotsTransmit = MetricsRegistry.getDefault().counter(
+			"rdtc_slots_total", "SLOTs offered by the server, by reply", "reply", "transmit");
+	private static final MetricsRegistry.Counter slotsNoTransmit = MetricsRegistry.getDefault().counter(
+			"rdtc_slots_total", "SLOTs offered by the server, by reply", "reply", "notransmit");
+	private static final MetricsRegistry.Counter packetsReceived = MetricsRegistry.getDefault().counter(
+			"rdtc_client_packets_received_total", "PACKETs received from the server");
+	private static final MetricsRegistry.Counter transmittedBytes = MetricsRegistry.getDefault().counter(
+			"rdtc_client_transmitted_bytes_total", "Bytes of the packets sent in TRANSMIT replies");
+	// time between receiving a SLOT and sending the reply
+	private static final MetricsRegistry.Histogram slotReplySeconds = MetricsRegistry.getDefault().histogram(
+			"rdtc_slot_reply_seconds", "Time between receiving a SLOT and sending the reply", 1e-9);
+
+	// local endpoint serving the metrics, null if not started
+	private MetricsHttpServer metricsServer;
 
 	// whether the simulation was started
-	private boolean simulationStarted = false;
+	private volatile boolean simulationStarted = false;
 
 	// whether the simulation is finished
-	private boolean simulationFinished = false;
+	private volatile boolean simulationFinished = false;
 
 	// whether this client is the sender
 	private boolean isSender = false;
 
-	// input packet buffer
-	private List<Integer[]> inputPacketBuffer = new ArrayList<>();
-	private final ReentrantLock inputPacketBufferLock = new ReentrantLock();
+	// capacity of the packet buffers
+	private static final int PACKET_BUFFER_CAPACITY = 4096;
+
+	// bytes of a file read at once to checksum it
+	private static final int CHECKSUM_BUFFER_SIZE = 65536;
+
+	// input packet buffer, filled by the event loop and drained by the protocol
+	private final RingBuffer<byte[]> inputPacketBuffer = new RingBuffer<>(PACKET_BUFFER_CAPACITY);
 
-	// output packet buffer
-	private List<Integer[]> outputPacketBuffer = new ArrayList<>();
-	private final ReentrantLock outputPacketBufferLock = new ReentrantLock();
+	// number of received packets dropped because the input packet buffer was full
+	private final MetricsRegistry.Counter droppedInputPackets = MetricsRegistry.getDefault().counter(
+			"rdtc_input_packets_dropped_total", "Received packets dropped because the input packet buffer was full");
+
+	// signals threads blocked in receivePacketBytes that a packet has arrived
+	private final ReentrantLock packetArrivedLock = new ReentrantLock();
+	private final Condition packetArrived = packetArrivedLock.newCondition();
+	private final AtomicInteger packetWaiters = new AtomicInteger();
+
+	// listeners that packets are handed to instead of the input packet buffer
+	private final List<IPacketListener> packetListeners = new CopyOnWriteArrayList<>();
+
+	// output packet buffer, filled by the protocol with encoded frames and drained by the event loop in the order of
+	// their class
+	private final PacketScheduler<TransmitFrame> outputPacketBuffer = new PacketScheduler<>(PACKET_BUFFER_CAPACITY);
+
+	// frames queued in the output packet buffer, by class
+	private final MetricsRegistry.Counter[] queuedFrames = new MetricsRegistry.Counter[PacketClass.values().length];
 
 	// challenge string
 	private byte[] challenge;
 
+	// checksum the receiving protocol adds the received file to while it writes it
+	private volatile RunningChecksum outputChecksum;
+
+	// timer for the protocol of this client
+	private TimingWheel timer;
+
 	/**
-	 * Constructs the client and connects to the server.
+	 * Constructs the client and connects to the server over a {@link StreamControlTransport}.
 	 * 
 	 * @param groupId
 	 *            The group Id
@@ -91,6 +146,48 @@ public class DRDTChallengeClient implements Runnable {
 	 */
 	public DRDTChallengeClient(String serverAddress, int serverPort, int groupId, String password)
 			throws IOException, InterruptedException {
+		this(serverAddress, serverPort, groupId, password, false);
+	}
+
+	/**
+	 * Constructs the client and connects to the server.
+	 * 
+	 * @param groupId
+	 *            The group Id
+	 * @param password
+	 *            Password for the group
+	 * @param useNio
+	 *            whether to use the non-blocking {@link NioControlTransport} instead of the
+	 *            {@link StreamControlTransport}
+	 * @throws IOException
+	 *             if the connection failed
+	 * @throws InterruptedException
+	 *             if the operation was interrupted
+	 */
+	public DRDTChallengeClient(String serverAddress, int serverPort, int groupId, String password, boolean useNio)
+			throws IOException, InterruptedException {
+		this(serverAddress, serverPort, groupId, password, useNio, false);
+	}
+
+	/**
+	 * Constructs the client and connects to the server.
+	 * 
+	 * @param groupId
+	 *            The group Id
+	 * @param password
+	 *            Password for the group
+	 * @param useNio
+	 *            whether to use the non-blocking {@link NioControlTransport} instead of the
+	 *            {@link StreamControlTransport}
+	 * @param virtualTimerThreads
+	 *            whether the timeout handlers of the protocol run on virtual threads, if the JVM has them
+	 * @throws IOException
+	 *             if the connection failed
+	 * @throws InterruptedException
+	 *             if the operation was interrupted
+	 */
+	public DRDTChallengeClient(String serverAddress, int serverPort, int groupId, String password, boolean useNio,
+			boolean virtualTimerThreads) throws IOException, InterruptedException {
 		password = password.replace(' ', '_');
 
 		if (password.equals("change_me")) {
@@ -102,8 +199,25 @@ public class DRDTChallengeClient implements Runnable {
 		this.port = serverPort;
 		this.groupId = groupId;
 		this.password = password;
+		this.useNio = useNio;
+
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		for (PacketClass packetClass : PacketClass.values()) {
+			metrics.gauge("rdtc_output_queue_depth", "Packets waiting in the output packet buffer for a SLOT",
+					() -> outputPacketBuffer.size(packetClass), "class", packetClass.getLabel());
+			queuedFrames[packetClass.ordinal()] = metrics.counter("rdtc_output_packets_total",
+					"Packets queued in the output packet buffer", "class", packetClass.getLabel());
+		}
+		metrics.gauge("rdtc_input_queue_depth", "Received packets waiting in the input packet buffer",
+				inputPacketBuffer::size);
+		try {
+			metrics.registerMBean();
+		} catch (JMException e) {
+			System.err.println(e.getMessage());
+		}
 
-		Utils.Timeout.Start();
+		timer = new TimingWheel(Utils.getClock(), "Timer Thread", virtualTimerThreads);
+		timer.start();
 		eventLoopThread = new Thread(this, "Event Loop Thread");
 
 		// connect to the server. Throws IOException if failure
@@ -126,26 +240,23 @@ public class DRDTChallengeClient implements Runnable {
 	private void connect() throws IOException, InterruptedException {
 		try {
 			// Open comms
-			socket = new Socket(host, port);
-			inputScanner = new Scanner(new BufferedInputStream(
-					socket.getInputStream()));
-			outputStream = new PrintStream(new BufferedOutputStream(
-					socket.getOutputStream()));
+			transport = useNio ? new NioControlTransport(host, port) : new StreamControlTransport(host, port);
 
-			if (!getControlMessageBlocking().equals("REGISTER")) {
+			if (!"REGISTER".equals(getControlMessageBlocking())) {
 				throw new ProtocolException("Did not get expected hello from server");
 			}
-			clearControlMessage();
 
 			// register
 			sendControlMessage("REGISTER " + this.groupId + " " + this.password);
 
 			String reply = getControlMessageBlocking();
+			if (reply == null) {
+				throw new EOFException("Server closed the connection");
+			}
 			if (!reply.equals("OK")) {
 				String reason = reply.substring(reply.indexOf(' ') + 1);
 				throw new ProtocolException("Could not register with server: " + reason);
 			}
-			clearControlMessage();
 
 			// start handling messages
 			eventLoopThread.start();
@@ -183,29 +294,80 @@ public class DRDTChallengeClient implements Runnable {
 	 * @return whether the output buffer is empty
 	 */
 	public boolean isOutputBufferEmpty() {
-		return this.outputPacketBuffer.size() == 0;
+		return this.outputPacketBuffer.isEmpty();
+	}
+
+	/**
+	 * @return the number of received packets that were dropped because the protocol did not receive them in time
+	 */
+	public long getDroppedInputPackets() {
+		return droppedInputPackets.get();
+	}
+
+	/**
+	 * Serves the metrics of the client and the protocols in the Prometheus text format on a local port, until the
+	 * client is stopped. They are also available through JMX as the MBean {@link MetricsRegistry#OBJECT_NAME}.
+	 * 
+	 * @param port
+	 *            the port to listen on, 0 for any free port
+	 * @return the endpoint
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public synchronized MetricsHttpServer startMetricsServer(int port) throws IOException {
+		if (metricsServer == null) {
+			metricsServer = new MetricsHttpServer(MetricsRegistry.getDefault(), port);
+		}
+		return metricsServer;
+	}
+
+	/**
+	 * @return the timer for the protocol of this client
+	 */
+	public TimingWheel getTimer() {
+		return timer;
+	}
+
+	/**
+	 * @return the time in seconds between receiving a SLOT from the server and sending the reply, of all clients
+	 * in the JVM
+	 */
+	public MetricsRegistry.Histogram getSlotReplyLatency() {
+		return slotReplySeconds;
+	}
+
+	/**
+	 * @return the checksum the receiving protocol adds the received file to while it writes it, or null before the
+	 * simulation starts and on the sender
+	 */
+	public RunningChecksum getOutputChecksum() {
+		return outputChecksum;
 	}
 
 	/**
 	 * Stops the client, and disconnects it from the server.
 	 */
 	public void stop() {
-		Utils.Timeout.Stop();
+		timer.stop();
 
 		try {
-			socket.setTcpNoDelay(true);
-
-			// upload checksum of the received file
+			// upload checksum of the received file, computed while it was received if the protocol wrote all of it
 			if (!isSender) {
-				sendChecksum("OUT", String.format("rdtcOutput%d.%d.png", fileID, Utils.getProcessId()));
+				File output = Utils.getOutputFile(fileID);
+				RunningChecksum checksum = outputChecksum;
+				if (checksum != null && output.exists() && checksum.getLength() == output.length()) {
+					sendControlMessage("CHECKSUM OUT " + checksum.getValue());
+				} else {
+					sendChecksum("OUT", output.getPath());
+				}
 			}
 
 			// stop simulation
 			simulationStarted = false;
 			simulationFinished = true;
 
-			// stop the message loop
-			eventLoopThread.interrupt();
+			// stop the message loop, without an interrupt, which could close the channel CLOSED is sent on
+			transport.wakeup();
 			try {
 				eventLoopThread.join();
 			} catch (InterruptedException e) {
@@ -214,27 +376,46 @@ public class DRDTChallengeClient implements Runnable {
 
 			// close comms
 			sendControlMessage("CLOSED");
-			socket.getOutputStream().flush();
 			Thread.sleep(1000);
-			socket.close();
+			transport.close();
 		} catch (IOException | InterruptedException e) {
 			e.printStackTrace();
 		}
+
+		synchronized (this) {
+			if (metricsServer != null) {
+				metricsServer.stop();
+				metricsServer = null;
+			}
+		}
+
+		printLatency("SLOT-to-reply latency", slotReplySeconds);
+		printLatency("Timer queueing delay", timer.getDispatcher().getQueueingDelay());
+	}
+
+	/**
+	 * Prints a summary of a histogram of seconds in microseconds, if anything was recorded
+	 */
+	private static void printLatency(String name, MetricsRegistry.Histogram latency) {
+		if (latency.getCount() > 0) {
+			System.out.println(String.format("%s: %d samples, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us",
+					name, latency.getCount(), latency.getMean() * 1e6, latency.getPercentile(50) * 1e6,
+					latency.getPercentile(99) * 1e6, latency.getMax() * 1e6));
+		}
 	}
 
 	private void sendChecksum(String type, String filename) {
 		File file = new File(filename);
 		if (file.exists()) {
 			try (FileInputStream checksumInput = new FileInputStream(file)) {
-				long checksumInputLength = file.length();
-				byte[] checksumInputContent = new byte[(int) checksumInputLength + this.challenge.length];
-				checksumInput.read(checksumInputContent, this.challenge.length, (int) checksumInputLength);
-				System.arraycopy(this.challenge, 0, checksumInputContent, 0, this.challenge.length);
-
-				CRC32 crc = new CRC32();
-				crc.update(checksumInputContent);
-				long checksum = crc.getValue();
-				this.sendControlMessage("CHECKSUM " + type + " " + checksum);
+				RunningChecksum checksum = new RunningChecksum(this.challenge);
+				byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+				int read = checksumInput.read(buffer);
+				while (read > 0) {
+					checksum.update(buffer, 0, read);
+					read = checksumInput.read(buffer);
+				}
+				this.sendControlMessage("CHECKSUM " + type + " " + checksum.getValue());
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -248,117 +429,27 @@ public class DRDTChallengeClient implements Runnable {
 		boolean stopThread = false;
 		while (!stopThread && !simulationFinished) {
 			try {
-				String message = getControlMessageBlocking();
-				String[] splitMessage = message.split(" ");
-
-				if (splitMessage.length > 0
-						&& splitMessage[0].startsWith("FAIL")) {
-					if (message.split(" ").length > 1) {
-						System.err.println("Failure: "
-								+ message.substring(message.indexOf(' ') + 1));
-					}
-					clearControlMessage();
-					stopThread = true;
-					simulationStarted = false;
-					simulationFinished = true;
-
-				} else if (splitMessage.length > 1 && splitMessage[0].startsWith("START")) {
-					// start the simulation
-					simulationStarted = true;
-					fileID = Integer.parseInt(splitMessage[1]);
-					challenge = DatatypeConverter.parseBase64Binary(splitMessage[2]);
-
-					// upload file checksum
-					if (isSender) {
-						sendChecksum("IN", String.format("rdtcInput%d.png", fileID));
-					}
-
-				} else if (splitMessage.length > 0
-						&& splitMessage[0].startsWith("SLOT")) {
+				ByteBuffer line = getControlLineBlocking();
+				if (line == null) {
+					// server closed the connection
+					break;
+				}
+
+				// the frequent messages are handled on the bytes of the read buffer
+				if (startsWith(line, slotMessage)) {
 					// We got offered a slot by the server to send a packet in.
-					boolean transmitted = false;
-					if (simulationStarted) {
-						if (this.outputPacketBuffer.size() > 0) {
-							try {
-								outputPacketBufferLock.lock();
-								if (this.outputPacketBuffer.size() > 0) {
-									// if there are packets available, send one
-									Integer[] packetContentsInIntegers = this.outputPacketBuffer
-											.remove(0);
-									// convert 32-bit integers to 8-bit bytes
-									byte[] packetContents = new byte[packetContentsInIntegers.length];
-									for (int i = 0; i < packetContentsInIntegers.length; i++) {
-										packetContents[i] = (byte) ((packetContentsInIntegers[i] & 0x000000ff));
-									}
-									this.sendControlMessage("TRANSMIT "
-											+ DatatypeConverter
-													.printBase64Binary(packetContents));
-									transmitted = true;
-								}
-							} finally {
-								outputPacketBufferLock.unlock();
-							}
-						}
-					}
-
-					if (!transmitted) {
-						this.sendControlMessage("NOTRANSMIT");
-					}
-
-				} else if (splitMessage.length > 0
-						&& splitMessage[0].startsWith("PACKET")) {
+					handleSlot();
+				} else if (startsWith(line, packetMessage)) {
 					// We received a packet from the server
-					if (simulationStarted) {
-						Integer[] packetContentsInIntegers;
-						if (splitMessage.length > 1) {
-							try {
-								// convert base64 string to bytes
-								byte[] packetContents = DatatypeConverter
-										.parseBase64Binary(splitMessage[1]);
-								// convert 8-bit bytes to 32-bit integers
-								packetContentsInIntegers = new Integer[packetContents.length];
-								for (int i = 0; i < packetContents.length; i++) {
-									packetContentsInIntegers[i] = (packetContents[i] & 0x000000ff);
-								}
-							} catch (IllegalArgumentException e) {
-								e.printStackTrace();
-								packetContentsInIntegers = new Integer[0];
-							}
-						} else {
-							packetContentsInIntegers = new Integer[0];
-						}
-
-						try {
-							this.inputPacketBufferLock.lock();
-							this.inputPacketBuffer
-									.add(packetContentsInIntegers);
-						} finally {
-							this.inputPacketBufferLock.unlock();
-						}
-					}
-
-				} else if (message.startsWith("CLOSED")) {
-					simulationStarted = false;
-					simulationFinished = true;
-
-					System.err.println("Simulation aborted!");
-					if (splitMessage.length > 1) {
-						System.err.println("Reason: "
-								+ message.substring(message.indexOf(' ') + 1));
-					}
-					Utils.Timeout.Stop();
-				} else if (message.startsWith("FINISH")) {
-					simulationStarted = false;
-					simulationFinished = true;
-
-					System.out
-							.println("Simulation finished! Check your performance on the server web interface.");
-					Utils.Timeout.Stop();
+					handlePacket(line);
+				} else {
+					stopThread = handleControlMessage(StandardCharsets.US_ASCII.decode(line).toString());
 				}
 
-				clearControlMessage();
-
-				Thread.sleep(1);
+				// replies to a burst of messages are sent together, once all received lines are handled
+				if (!transport.hasBufferedLine()) {
+					flushControlMessages();
+				}
 			} catch (ProtocolException e) {
 			} catch (InterruptedException e) {
 				stopThread = true;
@@ -368,88 +459,294 @@ public class DRDTChallengeClient implements Runnable {
 		}
 	}
 
+	/**
+	 * Handles the less frequent control messages
+	 * 
+	 * @return whether the event loop should stop
+	 */
+	private boolean handleControlMessage(String message) {
+		String[] splitMessage = message.split(" ");
+
+		if (splitMessage.length > 0
+				&& splitMessage[0].startsWith("FAIL")) {
+			if (splitMessage.length > 1) {
+				System.err.println("Failure: "
+						+ message.substring(message.indexOf(' ') + 1));
+			}
+			simulationStarted = false;
+			simulationFinished = true;
+			return true;
+
+		} else if (splitMessage.length > 1 && splitMessage[0].startsWith("START")) {
+			// start the simulation, once the file, the challenge and the checksum are there for the protocol
+			fileID = Integer.parseInt(splitMessage[1]);
+			challenge = Base64.getDecoder().decode(splitMessage[2]);
+			if (!isSender) {
+				outputChecksum = new RunningChecksum(challenge);
+			}
+			simulationStarted = true;
+
+			// upload file checksum
+			if (isSender) {
+				sendChecksum("IN", String.format("rdtcInput%d.png", fileID));
+			}
+
+		} else if (message.startsWith("CLOSED")) {
+			simulationStarted = false;
+			simulationFinished = true;
+
+			System.err.println("Simulation aborted!");
+			if (splitMessage.length > 1) {
+				System.err.println("Reason: "
+						+ message.substring(message.indexOf(' ') + 1));
+			}
+		} else if (message.startsWith("FINISH")) {
+			simulationStarted = false;
+			simulationFinished = true;
+
+			System.out
+					.println("Simulation finished! Check your performance on the server web interface.");
+		}
+		return false;
+	}
+
+	/**
+	 * Answers a SLOT with the line of the frame the output buffer schedules next, which was encoded when it was sent,
+	 * or NOTRANSMIT if there is none
+	 */
+	private void handleSlot() throws IOException {
+		slotReceivedNanos = transport.getLastLineNanos();
+		TransmitFrame frame = simulationStarted ? this.outputPacketBuffer.poll() : null;
+		if (frame == null) {
+			slotsNoTransmit.increment();
+			transport.writeLine(noTransmitLine, 0, noTransmitLine.length);
+			return;
+		}
+
+		slotsTransmit.increment();
+		transmittedBytes.add(frame.getPacket().length);
+		byte[] line = frame.getLine();
+		transport.writeLine(line, 0, line.length);
+	}
+
+	/**
+	 * Decodes the payload of a PACKET line and delivers it
+	 * 
+	 * @param line
+	 *            the line, positioned at the message type
+	 */
+	private void handlePacket(ByteBuffer line) {
+		if (!simulationStarted) {
+			return;
+		}
+
+		byte[] packetContents;
+		line.position(line.position() + packetMessage.length);
+		if (line.hasRemaining() && line.get(line.position()) == ' ') {
+			line.position(line.position() + 1);
+			try {
+				packetContents = Base64PacketCodec.decode(line);
+			} catch (IllegalArgumentException e) {
+				e.printStackTrace();
+				packetContents = new byte[0];
+			}
+		} else {
+			packetContents = new byte[0];
+		}
+
+		packetsReceived.increment();
+		deliverPacket(packetContents);
+	}
+
+	/**
+	 * @return whether the remaining bytes of the line start with the given bytes
+	 */
+	private static boolean startsWith(ByteBuffer line, byte[] prefix) {
+		int start = line.position();
+		if (line.remaining() < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (line.get(start + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Waits for a control message from the server
 	 * 
-	 * @return the message
+	 * @return the message, null if the server closed the connection
 	 * @throws ProtocolException
 	 *             if a corrupt message was received
 	 */
 	private String getControlMessageBlocking() throws InterruptedException, IOException {
-		try {
-			// Block while waiting for message
-			String controlMessage = getControlMessage();
-			while (controlMessage == null) {
-				Thread.sleep(10);
-				controlMessage = getControlMessage();
-			}
+		ByteBuffer line = getControlLineBlocking();
+		return line == null ? null : StandardCharsets.US_ASCII.decode(line).toString();
+	}
 
-			return controlMessage;
-		} catch (Exception e) {
-			throw e;
+	/**
+	 * Waits for a control message from the server
+	 * 
+	 * @return the message, positioned after the protocol string. Only valid until the next call.
+	 *         Null if the server closed the connection.
+	 * @throws ProtocolException
+	 *             if a corrupt message was received
+	 */
+	private ByteBuffer getControlLineBlocking() throws InterruptedException, IOException {
+		ByteBuffer line = transport.readLine();
+		if (line == null) {
+			return null;
+		}
+		if (!startsWith(line, protocolPrefix)) {
+			throw new ProtocolException("Protocol mismatch with server");
 		}
+		line.position(line.position() + protocolPrefix.length);
+		return line;
 	}
 
 	public Integer[] receivePacket() {
-		if (this.inputPacketBuffer.size() > 0) {
-			try {
-				this.inputPacketBufferLock.lock();
-				if (this.inputPacketBuffer.size() > 0) {
-					return inputPacketBuffer.remove(0);
+		byte[] packet = receivePacketBytes();
+		return packet == null ? null : Utils.toIntegers(packet);
+	}
+
+	public byte[] receivePacketBytes() {
+		return inputPacketBuffer.poll();
+	}
+
+	/**
+	 * Waits for a packet to arrive
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return the packet, or null if no packet arrived in time
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	public byte[] receivePacketBytes(long timeout, TimeUnit unit) throws InterruptedException {
+		byte[] packet = inputPacketBuffer.poll();
+		if (packet != null || timeout <= 0) {
+			return packet;
+		}
+
+		long remaining = unit.toNanos(timeout);
+		packetArrivedLock.lock();
+		packetWaiters.incrementAndGet();
+		try {
+			// register as waiter before polling again, so a packet offered in between signals us
+			while ((packet = inputPacketBuffer.poll()) == null) {
+				if (remaining <= 0) {
+					return null;
 				}
-			} finally {
-				this.inputPacketBufferLock.unlock();
+				remaining = packetArrived.awaitNanos(remaining);
 			}
+			return packet;
+		} finally {
+			packetWaiters.decrementAndGet();
+			packetArrivedLock.unlock();
 		}
-		return null;
 	}
 
-	public void sendPacket(Integer[] packet) throws IllegalArgumentException {
-		if (packet == null) {
-			throw new IllegalArgumentException("packet == null");
-		}
-		for (int i = 0; i < packet.length; i++) {
-			if (packet[i] == null) {
-				throw new IllegalArgumentException("packet[" + i + "] == null");
+	/**
+	 * Registers a listener that received packets are handed to as soon as they are decoded. While any listener
+	 * is registered, packets are not put in the input buffer.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addPacketListener(IPacketListener listener) {
+		packetListeners.add(listener);
+	}
+
+	/**
+	 * Removes a packet listener
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removePacketListener(IPacketListener listener) {
+		packetListeners.remove(listener);
+	}
+
+	/**
+	 * Hands a received packet to the listeners, or to the input buffer if there are none
+	 */
+	private void deliverPacket(byte[] packet) {
+		if (!packetListeners.isEmpty()) {
+			for (IPacketListener listener : packetListeners) {
+				listener.onPacket(packet);
 			}
+			return;
 		}
 
-		try {
-			this.outputPacketBufferLock.lock();
-			this.outputPacketBuffer.add(packet);
-		} finally {
-			this.outputPacketBufferLock.unlock();
+		// the medium is unreliable anyway, so drop the packet rather than stall the event loop
+		if (!this.inputPacketBuffer.offer(packet)) {
+			droppedInputPackets.increment();
+			return;
 		}
+		if (packetWaiters.get() > 0) {
+			packetArrivedLock.lock();
+			try {
+				packetArrived.signal();
+			} finally {
+				packetArrivedLock.unlock();
+			}
+		}
+	}
+
+	public void sendPacket(Integer[] packet) throws IllegalArgumentException {
+		sendPacket(Utils.toBytes(packet));
+	}
+
+	public void sendPacket(byte[] packet) throws IllegalArgumentException {
+		sendPacket(packet, PacketClass.NEW_DATA);
 	}
 
 	/**
-	 * Removes the first message from the queue Call this when you have
-	 * processed a message
+	 * Queues a packet for a SLOT
+	 * 
+	 * @param packet
+	 *            the content of the packet, must not be modified afterwards
+	 * @param packetClass
+	 *            the class that decides how soon it is sent
 	 */
-	private void clearControlMessage() {
-		this.currentControlMessage = null;
+	public void sendPacket(byte[] packet, PacketClass packetClass) throws IllegalArgumentException {
+		if (packet == null) {
+			throw new IllegalArgumentException("packet == null");
+		}
+		sendFrame(new TransmitFrame(packet), packetClass);
+	}
+
+	public void sendFrame(TransmitFrame frame) throws IllegalArgumentException {
+		sendFrame(frame, PacketClass.NEW_DATA);
 	}
 
 	/**
-	 * Obtains a message from the server, if any exists.
+	 * Queues a frame for a SLOT, encoding its line now if that was not done yet, so the event loop only has to
+	 * write it
 	 * 
-	 * @return the message, null if no message was present
-	 * @throws IOException
+	 * @param frame
+	 *            the frame
+	 * @param packetClass
+	 *            the class that decides how soon it is sent
 	 */
-	private synchronized String getControlMessage() throws IOException {
-		if (!simulationFinished) {
-			if (this.currentControlMessage == null
-					&& inputScanner.hasNextLine()) {
-				String line = inputScanner.nextLine();
-				if (line.startsWith(protocolString)) {
-					this.currentControlMessage = line.substring(protocolString
-							.length() + 1);
-				} else {
-					throw new ProtocolException("Protocol mismatch with server");
-				}
+	public void sendFrame(TransmitFrame frame, PacketClass packetClass) throws IllegalArgumentException {
+		if (frame == null || packetClass == null) {
+			throw new IllegalArgumentException("frame == null or packetClass == null");
+		}
+		frame.getLine();
+
+		// wait for the event loop to make room if the protocol is far ahead of the slots
+		while (!this.outputPacketBuffer.offer(packetClass, frame)) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new IllegalStateException("Interrupted while the output packet buffer was full");
 			}
+			LockSupport.parkNanos(100000);
 		}
-		return this.currentControlMessage;
+		queuedFrames[packetClass.ordinal()].increment();
 	}
 
 	/**
@@ -458,7 +755,23 @@ public class DRDTChallengeClient implements Runnable {
 	 * @param message the message to send
 	 */
 	private void sendControlMessage(String message) {
-		outputStream.print(protocolString + " " + message + "\n");
-		outputStream.flush();
+		try {
+			transport.writeLine(protocolString + " " + message);
+			transport.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sends the queued messages to the server
+	 */
+	private void flushControlMessages() throws IOException {
+		transport.flush();
+		if (slotReceivedNanos != 0) {
+			long latency = System.nanoTime() - slotReceivedNanos;
+			slotReplySeconds.record(latency);
+			slotReceivedNanos = 0;
+		}
 	}
 }
@@ -0,0 +1,504 @@
+package client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Network layer that adds forward error correction to the packets of another network layer, so the receiving side
+ * recovers lost packets without waiting for a retransmission.
+ *
+ * The packets sent are grouped into blocks of up to k packets. Each packet is sent as soon as it is given, with a
+ * small header naming its block and position. Once a block is full, or no packet was added to it for a few
+ * milliseconds, m parity packets computed with {@link ReedSolomonCode} follow, and any k of the k + m packets give
+ * back the whole block. The receiving side hands every data packet on as it arrives, and the missing ones as soon as
+ * enough of their block has arrived. Parity is computed by the thread that sends the last packet of a block, or the
+ * timer thread, never by the transport that hands the packets to the channel.
+ *
+ * m is either fixed, or adapts to the loss rate of the channel: each side estimates the loss rate of the packets it
+ * receives from their sequence numbers and reports it in the header of every packet it sends, and the other side
+ * uses the smallest m for which a block is lost with a probability below {@link #TARGET_BLOCK_LOSS}. Until the first
+ * report arrives, no parity is sent.
+ *
+ * Both sides must use this layer with the same block size.
+ */
+public class FecNetworkLayer extends NetworkLayer implements ITimeoutEventHandler {
+	/**
+	 * Number of header bytes in front of a data packet
+	 */
+	public static final int DATA_HEADER_SIZE = 7;
+	/**
+	 * Number of header bytes in front of a parity packet
+	 */
+	public static final int PARITY_HEADER_SIZE = 9;
+	/**
+	 * Default number of data packets per block
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 8;
+	/**
+	 * Time after the last packet of an incomplete block after which its parity is sent
+	 */
+	public static final long FLUSH_MILLIS = 2;
+	/**
+	 * Probability that a block loses more packets than it has parity packets, that adaptive parity aims for
+	 */
+	public static final double TARGET_BLOCK_LOSS = 0.01;
+
+	private static final int KIND_DATA = 0;
+	private static final int KIND_PARITY = 1;
+	// loss report that means no estimate yet
+	private static final int UNKNOWN_LOSS = 255;
+	// packets counted for each sample of the loss rate
+	private static final int LOSS_INTERVAL = 16;
+	// weight of a new sample in the loss rate estimate
+	private static final double LOSS_GAIN = 0.25;
+	// blocks the receiving side keeps, older ones are dropped
+	private static final int MAX_BLOCKS = 64;
+
+	private final NetworkLayer networkLayer;
+	private final int blockSize;
+	// parity packets per block, or -1 if adaptive
+	private final int fixedParity;
+
+	// sending side, guarded by this
+	private final List<byte[]> block = new ArrayList<>();
+	private int blockNumber = 0;
+	private int sendSequence = 0;
+	private TimingWheel.Timer flushTimer;
+	private long dataPacketsSent = 0;
+	private long parityPacketsSent = 0;
+	private volatile double peerLossRate = -1;
+
+	// receiving side, guarded by receiveLock
+	private final Object receiveLock = new Object();
+	private final Map<Integer, Block> blocks = new LinkedHashMap<>();
+	private final ArrayDeque<byte[]> received = new ArrayDeque<>();
+	private int nextReceiveSequence = -1;
+	private int intervalExpected = 0;
+	private int intervalReceived = 0;
+	private volatile double lossRate = -1;
+	private long packetsRecovered = 0;
+
+	private final List<IPacketListener> packetListeners = new CopyOnWriteArrayList<>();
+	private final IPacketListener listener = packet -> {
+		for (byte[] data : decode(packet)) {
+			for (IPacketListener packetListener : packetListeners) {
+				packetListener.onPacket(data);
+			}
+		}
+	};
+
+	/**
+	 * Packets of one block received so far
+	 */
+	private static class Block {
+		private final byte[][] data = new byte[ReedSolomonCode.MAX_DATA][];
+		private final byte[][] parity = new byte[ReedSolomonCode.MAX_PARITY][];
+		// number of data packets, 0 until a parity packet told it
+		private int dataPackets = 0;
+		private boolean complete = false;
+	}
+
+	/**
+	 * Constructs a layer with the default block size and adaptive parity
+	 * @param networkLayer the network layer to send the packets over
+	 */
+	public FecNetworkLayer(NetworkLayer networkLayer) {
+		this(networkLayer, DEFAULT_BLOCK_SIZE, -1);
+	}
+
+	/**
+	 * Constructs a layer
+	 * @param networkLayer the network layer to send the packets over
+	 * @param blockSize the number of data packets per block
+	 * @param parityPackets the number of parity packets per block, or -1 to adapt it to the loss rate
+	 */
+	public FecNetworkLayer(NetworkLayer networkLayer, int blockSize, int parityPackets) {
+		if (blockSize <= 0 || blockSize > ReedSolomonCode.MAX_DATA) {
+			throw new IllegalArgumentException("Invalid block size");
+		}
+		if (parityPackets < -1 || parityPackets > ReedSolomonCode.MAX_PARITY) {
+			throw new IllegalArgumentException("Invalid number of parity packets");
+		}
+		this.networkLayer = networkLayer;
+		this.blockSize = blockSize;
+		this.fixedParity = parityPackets;
+	}
+
+	/**
+	 * Sends a data packet with the given class, the parity packets of its block follow as
+	 * {@link PacketClass#SPECULATIVE}, so they never delay data or acknowledgements
+	 */
+	@Override
+	public synchronized void sendPacket(byte[] packet, PacketClass packetClass) throws IllegalArgumentException {
+		if (packet == null) {
+			throw new IllegalArgumentException("packet == null");
+		}
+		if (packet.length > 0xffff) {
+			throw new IllegalArgumentException("Packet too large");
+		}
+		byte[] fecPacket = new byte[DATA_HEADER_SIZE + packet.length];
+		writeHeader(fecPacket, KIND_DATA, block.size());
+		System.arraycopy(packet, 0, fecPacket, DATA_HEADER_SIZE, packet.length);
+		block.add(packet);
+		dataPacketsSent++;
+		networkLayer.sendPacket(fecPacket, packetClass);
+
+		if (block.size() == blockSize) {
+			closeBlock();
+		} else {
+			if (flushTimer != null) {
+				flushTimer.cancel();
+			}
+			flushTimer = networkLayer.getTimer().schedule(FLUSH_MILLIS, TimeUnit.MILLISECONDS, this, blockNumber);
+		}
+	}
+
+	/**
+	 * Sends the parity of an incomplete block that has not grown for {@link #FLUSH_MILLIS}
+	 */
+	@Override
+	public synchronized void TimeoutElapsed(Object tag) {
+		if (tag.equals(blockNumber) && !block.isEmpty()) {
+			closeBlock();
+		}
+	}
+
+	/**
+	 * Sends the parity packets of the current block and starts the next one
+	 */
+	private void closeBlock() {
+		if (flushTimer != null) {
+			flushTimer.cancel();
+			flushTimer = null;
+		}
+		int parityPackets = getParityPackets(block.size());
+		if (parityPackets > 0) {
+			// the shards are the packets with their length in front, padded to the longest one
+			int length = 0;
+			for (byte[] packet : block) {
+				length = Math.max(length, 2 + packet.length);
+			}
+			byte[][] shards = new byte[block.size()][];
+			for (int i = 0; i < shards.length; i++) {
+				shards[i] = toShard(block.get(i), length);
+			}
+			byte[][] parity = ReedSolomonCode.encode(shards, parityPackets);
+			for (int j = 0; j < parityPackets; j++) {
+				byte[] fecPacket = new byte[PARITY_HEADER_SIZE + length];
+				writeHeader(fecPacket, KIND_PARITY, j);
+				fecPacket[7] = (byte) block.size();
+				fecPacket[8] = (byte) parityPackets;
+				System.arraycopy(parity[j], 0, fecPacket, PARITY_HEADER_SIZE, length);
+				parityPacketsSent++;
+				networkLayer.sendPacket(fecPacket, PacketClass.SPECULATIVE);
+			}
+		}
+		block.clear();
+		blockNumber = (blockNumber + 1) & 0xffff;
+	}
+
+	/**
+	 * Writes kind, sequence number, block number, index and loss report
+	 */
+	private void writeHeader(byte[] fecPacket, int kind, int index) {
+		fecPacket[0] = (byte) kind;
+		fecPacket[1] = (byte) (sendSequence >>> 8);
+		fecPacket[2] = (byte) sendSequence;
+		fecPacket[3] = (byte) (blockNumber >>> 8);
+		fecPacket[4] = (byte) blockNumber;
+		fecPacket[5] = (byte) index;
+		double loss = lossRate;
+		fecPacket[6] = (byte) (loss < 0 ? UNKNOWN_LOSS : (int) Math.round(loss * (UNKNOWN_LOSS - 1)));
+		sendSequence = (sendSequence + 1) & 0xffff;
+	}
+
+	private static byte[] toShard(byte[] packet, int length) {
+		byte[] shard = new byte[length];
+		shard[0] = (byte) (packet.length >>> 8);
+		shard[1] = (byte) packet.length;
+		System.arraycopy(packet, 0, shard, 2, packet.length);
+		return shard;
+	}
+
+	/**
+	 * @param dataPackets the number of data packets of a block
+	 * @return the number of parity packets sent for the block
+	 */
+	public int getParityPackets(int dataPackets) {
+		if (fixedParity >= 0) {
+			return fixedParity;
+		}
+		double loss = peerLossRate;
+		if (loss < 0) {
+			return 0;
+		}
+		int maxParity = Math.min(dataPackets, ReedSolomonCode.MAX_PARITY);
+		for (int parity = 0; parity < maxParity; parity++) {
+			if (blockLossProbability(dataPackets + parity, parity, loss) <= TARGET_BLOCK_LOSS) {
+				return parity;
+			}
+		}
+		return maxParity;
+	}
+
+	/**
+	 * @return the probability that more than the given number of the packets are lost
+	 */
+	private static double blockLossProbability(int packets, int parity, double loss) {
+		double recoverable = 0;
+		double term = Math.pow(1 - loss, packets);
+		for (int lost = 0; lost <= parity; lost++) {
+			recoverable += term;
+			term = term * (packets - lost) / (lost + 1) * loss / (1 - loss);
+		}
+		return Math.max(0, 1 - recoverable);
+	}
+
+	/**
+	 * Takes a packet of the other side apart
+	 * @return the data packets it delivers, itself and any that could be reconstructed
+	 */
+	private List<byte[]> decode(byte[] fecPacket) {
+		if (fecPacket.length < DATA_HEADER_SIZE) {
+			return Collections.emptyList();
+		}
+		int kind = fecPacket[0];
+		int sequence = ((fecPacket[1] & 0xff) << 8) | (fecPacket[2] & 0xff);
+		int number = ((fecPacket[3] & 0xff) << 8) | (fecPacket[4] & 0xff);
+		int index = fecPacket[5] & 0xff;
+		int report = fecPacket[6] & 0xff;
+		if (report != UNKNOWN_LOSS) {
+			peerLossRate = (double) report / (UNKNOWN_LOSS - 1);
+		}
+
+		synchronized (receiveLock) {
+			countReceived(sequence);
+			Block current = blocks.get(number);
+			if (current == null) {
+				current = new Block();
+				blocks.put(number, current);
+				if (blocks.size() > MAX_BLOCKS) {
+					Iterator<Integer> oldest = blocks.keySet().iterator();
+					oldest.next();
+					oldest.remove();
+				}
+			}
+			if (current.complete) {
+				return Collections.emptyList();
+			}
+
+			List<byte[]> delivered = new ArrayList<>();
+			if (kind == KIND_DATA) {
+				if (index >= ReedSolomonCode.MAX_DATA || current.data[index] != null) {
+					return delivered;
+				}
+				byte[] packet = new byte[fecPacket.length - DATA_HEADER_SIZE];
+				System.arraycopy(fecPacket, DATA_HEADER_SIZE, packet, 0, packet.length);
+				current.data[index] = packet;
+				delivered.add(packet);
+			} else if (kind == KIND_PARITY && fecPacket.length >= PARITY_HEADER_SIZE && index < ReedSolomonCode.MAX_PARITY) {
+				current.dataPackets = fecPacket[7] & 0xff;
+				byte[] parity = new byte[fecPacket.length - PARITY_HEADER_SIZE];
+				System.arraycopy(fecPacket, PARITY_HEADER_SIZE, parity, 0, parity.length);
+				current.parity[index] = parity;
+			}
+			recover(current, delivered);
+			return delivered;
+		}
+	}
+
+	/**
+	 * Reconstructs the missing data packets of a block once enough of it has arrived
+	 */
+	private void recover(Block current, List<byte[]> delivered) {
+		int k = current.dataPackets;
+		if (k == 0) {
+			return;
+		}
+		int present = 0;
+		int length = 0;
+		for (int i = 0; i < k; i++) {
+			if (current.data[i] != null) {
+				present++;
+			}
+		}
+		for (byte[] shard : current.parity) {
+			if (shard != null) {
+				present++;
+				length = shard.length;
+			}
+		}
+		if (present < k) {
+			return;
+		}
+		current.complete = true;
+
+		byte[][] shards = new byte[k][];
+		boolean missing = false;
+		for (int i = 0; i < k; i++) {
+			shards[i] = current.data[i] == null ? null : toShard(current.data[i], length);
+			missing |= shards[i] == null;
+		}
+		if (missing && ReedSolomonCode.decode(shards, current.parity, length)) {
+			for (int i = 0; i < k; i++) {
+				if (current.data[i] == null) {
+					int packetLength = ((shards[i][0] & 0xff) << 8) | (shards[i][1] & 0xff);
+					byte[] packet = new byte[Math.min(packetLength, length - 2)];
+					System.arraycopy(shards[i], 2, packet, 0, packet.length);
+					delivered.add(packet);
+					packetsRecovered++;
+				}
+			}
+		}
+		// only the flag is needed from now on, to ignore late packets of the block
+		Arrays.fill(current.data, null);
+		Arrays.fill(current.parity, null);
+	}
+
+	/**
+	 * Updates the loss rate estimate with the sequence number of a received packet
+	 */
+	private void countReceived(int sequence) {
+		if (nextReceiveSequence < 0) {
+			intervalExpected = 1;
+		} else {
+			int ahead = (sequence - nextReceiveSequence) & 0xffff;
+			if (ahead >= 0x8000) {
+				// a late packet that was counted as lost
+				intervalReceived = Math.min(intervalReceived + 1, intervalExpected - 1);
+			} else {
+				intervalExpected += ahead + 1;
+			}
+		}
+		if (nextReceiveSequence < 0 || ((sequence - nextReceiveSequence) & 0xffff) < 0x8000) {
+			nextReceiveSequence = (sequence + 1) & 0xffff;
+		}
+		intervalReceived++;
+		if (intervalExpected >= LOSS_INTERVAL) {
+			double sample = 1 - (double) intervalReceived / intervalExpected;
+			lossRate = lossRate < 0 ? sample : lossRate + LOSS_GAIN * (sample - lossRate);
+			intervalExpected = 0;
+			intervalReceived = 0;
+		}
+	}
+
+	@Override
+	public byte[] receivePacketBytes() {
+		synchronized (receiveLock) {
+			while (received.isEmpty()) {
+				byte[] fecPacket = networkLayer.receivePacketBytes();
+				if (fecPacket == null) {
+					return null;
+				}
+				received.addAll(decode(fecPacket));
+			}
+			return received.poll();
+		}
+	}
+
+	@Override
+	public byte[] receivePacketBytes(long timeout, TimeUnit unit) throws InterruptedException {
+		Clock clock = Utils.getClock();
+		long deadline = clock.currentTimeMillis() + unit.toMillis(timeout);
+		while (true) {
+			byte[] packet = receivePacketBytes();
+			long remaining = deadline - clock.currentTimeMillis();
+			if (packet != null || remaining <= 0) {
+				return packet;
+			}
+			byte[] fecPacket = networkLayer.receivePacketBytes(remaining, TimeUnit.MILLISECONDS);
+			if (fecPacket == null) {
+				return null;
+			}
+			List<byte[]> packets = decode(fecPacket);
+			synchronized (receiveLock) {
+				received.addAll(packets);
+			}
+		}
+	}
+
+	@Override
+	public void addPacketListener(IPacketListener packetListener) {
+		if (packetListeners.isEmpty()) {
+			networkLayer.addPacketListener(listener);
+		}
+		packetListeners.add(packetListener);
+	}
+
+	@Override
+	public void removePacketListener(IPacketListener packetListener) {
+		packetListeners.remove(packetListener);
+		if (packetListeners.isEmpty()) {
+			networkLayer.removePacketListener(listener);
+		}
+	}
+
+	@Override
+	public TimingWheel getTimer() {
+		return networkLayer.getTimer();
+	}
+
+	@Override
+	public RunningChecksum getOutputChecksum() {
+		return networkLayer.getOutputChecksum();
+	}
+
+	/**
+	 * @return the number of data packets per block
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return the estimated loss rate of the packets received from the other side, or -1 if there is no estimate yet
+	 */
+	public double getLossRate() {
+		return lossRate;
+	}
+
+	/**
+	 * @return the loss rate of the packets sent, as last reported by the other side, or -1 if it did not report one
+	 */
+	public double getPeerLossRate() {
+		return peerLossRate;
+	}
+
+	/**
+	 * @return the number of data packets sent
+	 */
+	public synchronized long getDataPacketsSent() {
+		return dataPacketsSent;
+	}
+
+	/**
+	 * @return the number of parity packets sent
+	 */
+	public synchronized long getParityPacketsSent() {
+		return parityPacketsSent;
+	}
+
+	/**
+	 * @return the number of lost data packets that were reconstructed from parity
+	 */
+	public long getPacketsRecovered() {
+		synchronized (receiveLock) {
+			return packetsRecovered;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("FEC k=%d m=%s: %d data and %d parity packets sent, %d packets recovered, loss rate %.3f, peer loss rate %.3f",
+				blockSize, fixedParity < 0 ? "adaptive" : Integer.toString(fixedParity), getDataPacketsSent(),
+				getParityPacketsSent(), getPacketsRecovered(), lossRate, peerLossRate);
+	}
+}
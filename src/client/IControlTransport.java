@@ -0,0 +1,78 @@
+package client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Line-oriented connection with the challenge server
+ */
+public interface IControlTransport {
+	/**
+	 * Waits for the next line from the server.
+	 * 
+	 * @return the line without its line terminator. The buffer is only valid until the next call.
+	 *         Null if the server closed the connection.
+	 * @throws IOException
+	 *             if reading failed
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	ByteBuffer readLine() throws IOException, InterruptedException;
+
+	/**
+	 * Makes a readLine that is waiting, or else the next one, throw InterruptedException, without closing the
+	 * connection, so lines can still be written afterwards. May be called from any thread. Interrupting the reading
+	 * thread instead may close the connection.
+	 */
+	void wakeup();
+
+	/**
+	 * @return whether a complete line has been received that readLine will return without waiting
+	 */
+	boolean hasBufferedLine();
+
+	/**
+	 * @return the System.nanoTime at which the data of the last line returned by readLine was received
+	 */
+	long getLastLineNanos();
+
+	/**
+	 * Queues a line for sending. It is sent on the next flush.
+	 * 
+	 * @param line
+	 *            the line, without line terminator
+	 * @throws IOException
+	 *             if writing failed
+	 */
+	void writeLine(String line) throws IOException;
+
+	/**
+	 * Queues a line for sending. It is sent on the next flush.
+	 * 
+	 * @param line
+	 *            array containing the line, without line terminator
+	 * @param offset
+	 *            the offset of the line in the array
+	 * @param length
+	 *            the length of the line
+	 * @throws IOException
+	 *             if writing failed
+	 */
+	void writeLine(byte[] line, int offset, int length) throws IOException;
+
+	/**
+	 * Sends all queued lines
+	 * 
+	 * @throws IOException
+	 *             if writing failed
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Closes the connection
+	 * 
+	 * @throws IOException
+	 *             if closing failed
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,13 @@
+package client;
+
+/**
+ * Interface for packet listeners
+ */
+public interface IPacketListener {
+	/**
+	 * Is triggered when a packet has been received. Runs on the thread that received the packet, so it must
+	 * return quickly and must not wait for other packets.
+	 * @param packet the content of the packet
+	 */
+	void onPacket(byte[] packet);
+}
@@ -0,0 +1,217 @@
+package client;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous logging for the protocols, in place of System.out.println on the paths every packet takes.
+ *
+ * A message below the current level costs a volatile read and nothing else: the {@link Supplier} variants do not
+ * even build the message. An enabled message is built on the calling thread, so it sees the state at the time of
+ * the call, and put in a {@link RingBuffer}; a background thread writes it to the stream System.out (or System.err
+ * for warnings and errors) was at the time of the call. The protocol therefore never waits for the console, nor
+ * contends for its lock with its other threads. If the buffer is full, debug and trace messages are dropped and
+ * counted, more severe messages are written directly. The messages left at exit are written by a shutdown hook.
+ *
+ * Per-packet events are logged at {@link Level#DEBUG} or {@link Level#TRACE}, the level is {@link Level#INFO} by
+ * default.
+ */
+public final class Log {
+	/**
+	 * Severity of a message, a message is written if its level is at most the current level
+	 */
+	public enum Level {
+		ERROR, WARN, INFO, DEBUG, TRACE
+	}
+
+	static final int CAPACITY = 8192;   // messages the buffer holds, a power of two
+	static final long FLUSH_PARK_NANOS = 100000;   // time flush sleeps between checks of the writer's progress
+
+	private static volatile int level = Level.INFO.ordinal();
+	private static final RingBuffer<Entry> buffer = new RingBuffer<>(CAPACITY);
+	// messages put in the buffer, and written by the writer
+	private static final AtomicLong enqueued = new AtomicLong();
+	private static final AtomicLong written = new AtomicLong();
+	private static final MetricsRegistry.Counter dropped = MetricsRegistry.getDefault().counter(
+			"rdtc_log_dropped_total", "Log messages dropped because the log buffer was full");
+	private static final Thread writer;
+	// set while the writer parks on an empty buffer, so only then a message has to wake it
+	private static volatile boolean writerParked = false;
+
+	static {
+		MetricsRegistry.getDefault().gauge("rdtc_log_queue_depth", "Log messages waiting to be written",
+				buffer::size);
+		writer = new Thread(Log::write, "Log Writer");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "Log Flush"));
+	}
+
+	/**
+	 * Message waiting to be written
+	 */
+	private static final class Entry {
+		private final String message;
+		private final PrintStream out;
+
+		private Entry(String message, PrintStream out) {
+			this.message = message;
+			this.out = out;
+		}
+	}
+
+	private Log() {
+	}
+
+	/**
+	 * Sets the most verbose level that is written
+	 * @param newLevel the level
+	 */
+	public static void setLevel(Level newLevel) {
+		level = newLevel.ordinal();
+	}
+
+	/**
+	 * @return the most verbose level that is written
+	 */
+	public static Level getLevel() {
+		return Level.values()[level];
+	}
+
+	/**
+	 * @return whether messages of the given level are written, to guard logging that is costly even with a
+	 * {@link Supplier}
+	 */
+	public static boolean isEnabled(Level messageLevel) {
+		return messageLevel.ordinal() <= level;
+	}
+
+	/**
+	 * Logs a message
+	 * @param messageLevel the level of the message
+	 * @param message the message
+	 */
+	public static void log(Level messageLevel, String message) {
+		if (isEnabled(messageLevel)) {
+			enqueue(messageLevel, message);
+		}
+	}
+
+	/**
+	 * Logs a message that is only built if its level is enabled
+	 * @param messageLevel the level of the message
+	 * @param message builds the message
+	 */
+	public static void log(Level messageLevel, Supplier<String> message) {
+		if (isEnabled(messageLevel)) {
+			enqueue(messageLevel, message.get());
+		}
+	}
+
+	/**
+	 * Logs a message at {@link Level#ERROR}
+	 */
+	public static void error(String message) {
+		log(Level.ERROR, message);
+	}
+
+	/**
+	 * Logs a message at {@link Level#WARN}
+	 */
+	public static void warn(String message) {
+		log(Level.WARN, message);
+	}
+
+	/**
+	 * Logs a message at {@link Level#INFO}
+	 */
+	public static void info(String message) {
+		log(Level.INFO, message);
+	}
+
+	/**
+	 * Logs a message at {@link Level#INFO} that is only built if the level is enabled
+	 */
+	public static void info(Supplier<String> message) {
+		log(Level.INFO, message);
+	}
+
+	/**
+	 * Logs a message at {@link Level#DEBUG} that is only built if the level is enabled
+	 */
+	public static void debug(Supplier<String> message) {
+		log(Level.DEBUG, message);
+	}
+
+	/**
+	 * Logs a message at {@link Level#TRACE} that is only built if the level is enabled
+	 */
+	public static void trace(Supplier<String> message) {
+		log(Level.TRACE, message);
+	}
+
+	private static void enqueue(Level messageLevel, String message) {
+		PrintStream out = messageLevel.compareTo(Level.WARN) <= 0 ? System.err : System.out;
+		if (buffer.offer(new Entry(message, out))) {
+			enqueued.incrementAndGet();
+			if (writerParked) {
+				LockSupport.unpark(writer);
+			}
+		} else if (messageLevel.compareTo(Level.INFO) <= 0) {
+			out.println(message);
+		} else {
+			dropped.increment();
+		}
+	}
+
+	/**
+	 * Waits until the messages logged before the call are written
+	 */
+	public static void flush() {
+		long target = enqueued.get();
+		while (written.get() < target && writer.isAlive()) {
+			LockSupport.parkNanos(FLUSH_PARK_NANOS);
+		}
+	}
+
+	/**
+	 * @return the number of messages dropped because the buffer was full
+	 */
+	public static long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes the messages as they come, for the lifetime of the program. The writer parks while the buffer is
+	 * empty: it announces that before it checks the buffer once more, so a message that is put in the buffer after
+	 * the check sees the announcement and unparks it.
+	 */
+	private static void write() {
+		while (true) {
+			if (!drain()) {
+				writerParked = true;
+				if (buffer.isEmpty()) {
+					LockSupport.park(Log.class);
+				}
+				writerParked = false;
+			}
+		}
+	}
+
+	/**
+	 * Writes the messages in the buffer
+	 * @return whether there were any
+	 */
+	private static boolean drain() {
+		boolean any = false;
+		Entry entry;
+		while ((entry = buffer.poll()) != null) {
+			entry.out.println(entry.message);
+			written.incrementAndGet();
+			any = true;
+		}
+		return any;
+	}
+}
@@ -0,0 +1,78 @@
+package client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP endpoint that serves a {@link MetricsRegistry} at /metrics in the Prometheus text format.
+ *
+ * It listens on the loopback address only, and handles the requests on a single thread of its own, so scraping
+ * never runs on the event loop or the protocol.
+ */
+public class MetricsHttpServer {
+	/**
+	 * Path the metrics are served at
+	 */
+	public static final String PATH = "/metrics";
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final HttpServer server;
+
+	/**
+	 * Starts serving the metrics
+	 * @param registry the registry to serve
+	 * @param port the port to listen on, 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public MetricsHttpServer(MetricsRegistry registry, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(PATH, exchange -> handle(registry, exchange));
+		server.start();
+	}
+
+	private static void handle(MetricsRegistry registry, HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			try (Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+				registry.writePrometheus(writer);
+			}
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			boolean head = exchange.getRequestMethod().equals("HEAD");
+			exchange.sendResponseHeaders(200, head ? -1 : body.size());
+			if (!head) {
+				try (OutputStream out = exchange.getResponseBody()) {
+					body.writeTo(out);
+				}
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops serving the metrics
+	 */
+	public void stop() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,427 @@
+package client;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the runtime metrics of the client and the protocols: counters, gauges and histograms, identified by a
+ * name and optional labels in the style of Prometheus.
+ *
+ * Counters and histograms are updated with {@link LongAdder}s, so the event loop, the protocol and the timer threads
+ * never contend on a lock or a shared cache line to record an event. Reading them sums the cells, which is only done
+ * when the metrics are exported. Metrics are created once, usually in a static field, and the same instance is
+ * returned for the same name and labels. They are exported in the Prometheus text format by
+ * {@link #writePrometheus(Writer)}, which {@link MetricsHttpServer} serves, and as the attributes of an MBean.
+ */
+public class MetricsRegistry {
+	/**
+	 * Object name of the MBean of the default registry
+	 */
+	public static final String OBJECT_NAME = "client:type=Metrics";
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	// metrics by family name, then by labels, both sorted so the export is stable
+	private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+	/**
+	 * @return the registry the client and the protocols record their metrics in
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Metrics with the same name and different labels
+	 */
+	private static class Family {
+		private final String help;
+		private final String type;
+		private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+		private Family(String help, String type) {
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Counter of events, only increases
+	 */
+	public static final class Counter {
+		private final LongAdder value = new LongAdder();
+
+		private Counter() {
+		}
+
+		public void increment() {
+			value.increment();
+		}
+
+		public void add(long amount) {
+			value.add(amount);
+		}
+
+		public long get() {
+			return value.sum();
+		}
+	}
+
+	/**
+	 * Lock-free histogram of non-negative values with power-of-two buckets, so recording is cheap and needs no
+	 * allocation. Bucket i holds the values up to 2^i, which is the le bound it is exported with. Percentiles are
+	 * reported as the bound of the bucket they fall in.
+	 */
+	public static final class Histogram {
+		private final double unit;
+		private final LongAdder[] buckets = new LongAdder[64];
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Constructs a histogram that is not registered, for code that only reports it itself
+		 * @param unit the size of a recorded unit in the unit of the export, such as 1e-9 to record nanoseconds and
+		 * report seconds
+		 */
+		public Histogram(double unit) {
+			this.unit = unit;
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Records a value
+		 * @param value the value, negative values are counted as 0
+		 */
+		public void record(long value) {
+			value = Math.max(0, value);
+			buckets[value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1)].increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		/**
+		 * @return the number of values in every bucket, bucket i holds the values up to 2^i
+		 */
+		private long[] snapshot() {
+			long[] counts = new long[buckets.length];
+			for (int i = 0; i < buckets.length; i++) {
+				counts[i] = buckets[i].sum();
+			}
+			return counts;
+		}
+
+		/**
+		 * @return the number of recorded values
+		 */
+		public long getCount() {
+			long count = 0;
+			for (LongAdder bucket : buckets) {
+				count += bucket.sum();
+			}
+			return count;
+		}
+
+		/**
+		 * @return the sum of the recorded values, in the unit of the export
+		 */
+		public double getSum() {
+			return sum.sum() * unit;
+		}
+
+		/**
+		 * @return the mean of the recorded values, in the unit of the export, 0 if nothing was recorded
+		 */
+		public double getMean() {
+			long count = getCount();
+			return count == 0 ? 0 : getSum() / count;
+		}
+
+		/**
+		 * @return the largest recorded value, in the unit of the export
+		 */
+		public double getMax() {
+			return max.get() * unit;
+		}
+
+		/**
+		 * @param percentile the percentile, between 0 and 100
+		 * @return upper bound of the bucket of the given percentile, at most the largest value, in the unit of the
+		 * export, 0 if nothing was recorded
+		 */
+		public double getPercentile(double percentile) {
+			long[] counts = snapshot();
+			long count = 0;
+			for (long bucketCount : counts) {
+				count += bucketCount;
+			}
+			long rank = (long) Math.ceil(count * percentile / 100.0);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0) {
+					return Math.min(getMax(), upperBound(i));
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * @return the largest value of a bucket, a power of two so it prints exactly
+		 */
+		private double upperBound(int bucket) {
+			return Math.scalb(1.0, bucket) * unit;
+		}
+	}
+
+	/**
+	 * Returns the counter with the given name and labels, creating it if it does not exist yet
+	 * @param name the name, by convention ending in _total
+	 * @param help the description of the metric
+	 * @param labels pairs of label names and values
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter) register(name, help, "counter", labels, new Counter());
+	}
+
+	/**
+	 * Registers a gauge that reads its value when the metrics are exported, replacing the gauge with the same name
+	 * and labels if there is one, so a gauge always reads the latest instance of what it measures
+	 * @param name the name
+	 * @param help the description of the metric
+	 * @param value reads the current value
+	 * @param labels pairs of label names and values
+	 */
+	public void gauge(String name, String help, LongSupplier value, String... labels) {
+		family(name, help, "gauge").metrics.put(labels(labels), value);
+	}
+
+	/**
+	 * Returns the histogram with the given name and labels, creating it if it does not exist yet
+	 * @param name the name, by convention ending in the unit of the export, such as _seconds
+	 * @param help the description of the metric
+	 * @param unit the value of one recorded unit in the unit of the export, such as 1e-9 for nanoseconds that are
+	 *             exported in seconds
+	 * @param labels pairs of label names and values
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name, String help, double unit, String... labels) {
+		return (Histogram) register(name, help, "histogram", labels, new Histogram(unit));
+	}
+
+	private Object register(String name, String help, String type, String[] labels, Object metric) {
+		Object existing = family(name, help, type).metrics.putIfAbsent(labels(labels), metric);
+		return existing != null ? existing : metric;
+	}
+
+	private Family family(String name, String help, String type) {
+		if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+			throw new IllegalArgumentException("Invalid metric name " + name);
+		}
+		Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+		if (!family.type.equals(type)) {
+			throw new IllegalArgumentException(name + " is a " + family.type + ", not a " + type);
+		}
+		return family;
+	}
+
+	/**
+	 * @return the labels in the text format, such as {reply="transmit"}, or an empty string
+	 */
+	private static String labels(String[] labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be pairs of names and values");
+		}
+		if (labels.length == 0) {
+			return "";
+		}
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+		}
+		return builder.append('}').toString();
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Adds a label to labels in the text format
+	 */
+	private static String withLabel(String labels, String name, String value) {
+		String label = name + "=\"" + value + "\"";
+		return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text exposition format, version 0.0.4
+	 * @param out the writer to write to
+	 * @throws IOException if writing fails
+	 */
+	public void writePrometheus(Writer out) throws IOException {
+		for (Map.Entry<String, Family> entry : families.entrySet()) {
+			String name = entry.getKey();
+			Family family = entry.getValue();
+			out.write("# HELP " + name + " " + family.help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+			out.write("# TYPE " + name + " " + family.type + "\n");
+			for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+				String labels = metric.getKey();
+				Object value = metric.getValue();
+				if (value instanceof Counter) {
+					out.write(name + labels + " " + ((Counter) value).get() + "\n");
+				} else if (value instanceof LongSupplier) {
+					out.write(name + labels + " " + ((LongSupplier) value).getAsLong() + "\n");
+				} else {
+					writeHistogram(out, name, labels, (Histogram) value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the cumulative buckets of a histogram up to the highest one that is not empty
+	 */
+	private static void writeHistogram(Writer out, String name, String labels, Histogram histogram)
+			throws IOException {
+		long[] counts = histogram.snapshot();
+		int highest = -1;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				highest = i;
+			}
+		}
+		long cumulative = 0;
+		for (int i = 0; i <= highest; i++) {
+			cumulative += counts[i];
+			out.write(name + "_bucket" + withLabel(labels, "le", Double.toString(histogram.upperBound(i))) + " "
+					+ cumulative + "\n");
+		}
+		out.write(name + "_bucket" + withLabel(labels, "le", "+Inf") + " " + cumulative + "\n");
+		out.write(name + "_sum" + labels + " " + histogram.getSum() + "\n");
+		out.write(name + "_count" + labels + " " + cumulative + "\n");
+	}
+
+	/**
+	 * Registers the MBean of this registry with the platform MBean server, as {@link #OBJECT_NAME}. Does nothing if
+	 * it is registered already.
+	 * @throws JMException if the registration fails
+	 */
+	public void registerMBean() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(OBJECT_NAME);
+		if (!server.isRegistered(objectName)) {
+			server.registerMBean(new MetricsMBean(), objectName);
+		}
+	}
+
+	/**
+	 * Exposes every counter and gauge as a read-only attribute named like its series in the text format, and every
+	 * histogram as the attributes _count, _sum, _p50 and _p99
+	 */
+	private class MetricsMBean implements DynamicMBean {
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			for (Map.Entry<String, Family> entry : families.entrySet()) {
+				for (Map.Entry<String, Object> metric : entry.getValue().metrics.entrySet()) {
+					String series = entry.getKey() + metric.getKey();
+					Object value = metric.getValue();
+					if (value instanceof Counter && attribute.equals(series)) {
+						return ((Counter) value).get();
+					} else if (value instanceof LongSupplier && attribute.equals(series)) {
+						return ((LongSupplier) value).getAsLong();
+					} else if (value instanceof Histogram && attribute.startsWith(entry.getKey() + "_")) {
+						Histogram histogram = (Histogram) value;
+						if (attribute.equals(entry.getKey() + "_count" + metric.getKey())) {
+							return histogram.getCount();
+						} else if (attribute.equals(entry.getKey() + "_sum" + metric.getKey())) {
+							return histogram.getSum();
+						} else if (attribute.equals(entry.getKey() + "_p50" + metric.getKey())) {
+							return histogram.getPercentile(50);
+						} else if (attribute.equals(entry.getKey() + "_p99" + metric.getKey())) {
+							return histogram.getPercentile(99);
+						}
+					}
+				}
+			}
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				try {
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				} catch (AttributeNotFoundException e) {
+					// left out, as the interface specifies
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read-only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException(actionName);
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<>();
+			for (Map.Entry<String, Family> entry : families.entrySet()) {
+				String name = entry.getKey();
+				Family family = entry.getValue();
+				for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+					String labels = metric.getKey();
+					if (metric.getValue() instanceof Histogram) {
+						attributes.add(attribute(name + "_count" + labels, "long", family.help + ", count"));
+						attributes.add(attribute(name + "_sum" + labels, "double", family.help + ", sum"));
+						attributes.add(attribute(name + "_p50" + labels, "double", family.help + ", median"));
+						attributes.add(attribute(name + "_p99" + labels, "double", family.help + ", 99th percentile"));
+					} else {
+						attributes.add(attribute(name + labels, "long", family.help));
+					}
+				}
+			}
+			return new MBeanInfo(MetricsRegistry.class.getName(), "Runtime metrics of the client and the protocols",
+					attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+		}
+
+		private MBeanAttributeInfo attribute(String name, String type, String description) {
+			return new MBeanAttributeInfo(name, type, description, true, false, false);
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package client;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
 /**
  * 
  * @author Jaco ter Braak, Twente University
@@ -11,6 +14,16 @@ package client;
  */
 
 public class NetworkLayer {
+	// packets the protocol handed to the medium and took from it, subclasses with their own medium do not count them
+	private static final MetricsRegistry.Counter packetsSent = MetricsRegistry.getDefault().counter(
+			"rdtc_network_packets_sent_total", "Packets the protocol sent through the network layer");
+	private static final MetricsRegistry.Counter bytesSent = MetricsRegistry.getDefault().counter(
+			"rdtc_network_bytes_sent_total", "Bytes of the packets the protocol sent through the network layer");
+	private static final MetricsRegistry.Counter packetsReceived = MetricsRegistry.getDefault().counter(
+			"rdtc_network_packets_received_total", "Packets the protocol received from the network layer");
+	private static final MetricsRegistry.Counter bytesReceived = MetricsRegistry.getDefault().counter(
+			"rdtc_network_bytes_received_total", "Bytes of the packets the protocol received from the network layer");
+
 	DRDTChallengeClient client;
 	
 	/**
@@ -20,13 +33,92 @@ public class NetworkLayer {
 	public NetworkLayer(DRDTChallengeClient client){
 		this.client = client;
 	}
+
+	/**
+	 * Constructs a network layer that does not use the challenge client, for subclasses that provide their own medium
+	 */
+	protected NetworkLayer() {
+		this.client = null;
+	}
 	
 	/**
 	 * Send a packet through the unreliable medium
 	 * @param packet
 	 */
 	public void sendPacket(Integer[] packet) throws IllegalArgumentException{
-		client.sendPacket(packet);
+		sendPacket(Utils.toBytes(packet));
+	}
+
+	/**
+	 * Send a packet of the given class through the unreliable medium
+	 * @param packet
+	 * @param packetClass the class that decides how soon it is sent
+	 */
+	public void sendPacket(Integer[] packet, PacketClass packetClass) throws IllegalArgumentException {
+		sendPacket(Utils.toBytes(packet), packetClass);
+	}
+
+	/**
+	 * Send a packet of class {@link PacketClass#NEW_DATA} through the unreliable medium. The array must not be
+	 * modified afterwards.
+	 * @param packet the content of the packet
+	 */
+	public void sendPacket(byte[] packet) throws IllegalArgumentException {
+		sendPacket(packet, PacketClass.NEW_DATA);
+	}
+
+	/**
+	 * Send a packet through the unreliable medium, after the packets of higher classes that are waiting for a SLOT.
+	 * The array must not be modified afterwards. Network layers with their own medium that only override
+	 * {@link #sendPacket(byte[])} send it regardless of its class.
+	 * @param packet the content of the packet
+	 * @param packetClass the class that decides how soon it is sent
+	 */
+	public void sendPacket(byte[] packet, PacketClass packetClass) throws IllegalArgumentException {
+		if (client == null) {
+			sendPacket(packet);
+			return;
+		}
+		client.sendPacket(packet, packetClass);
+		packetsSent.increment();
+		bytesSent.add(packet.length);
+	}
+
+	/**
+	 * Send a packet of class {@link PacketClass#NEW_DATA} through the unreliable medium, as a frame
+	 * @param frame the frame of the packet
+	 */
+	public void sendFrame(TransmitFrame frame) throws IllegalArgumentException {
+		sendFrame(frame, PacketClass.NEW_DATA);
+	}
+
+	/**
+	 * Send a packet through the unreliable medium, as a frame whose TRANSMIT line is encoded once and then kept, so
+	 * sending the same frame again costs no encoding. Network layers with their own medium send its packet.
+	 * @param frame the frame of the packet
+	 * @param packetClass the class that decides how soon it is sent
+	 */
+	public void sendFrame(TransmitFrame frame, PacketClass packetClass) throws IllegalArgumentException {
+		if (client == null) {
+			sendPacket(frame.getPacket(), packetClass);
+			return;
+		}
+		client.sendFrame(frame, packetClass);
+		packetsSent.increment();
+		bytesSent.add(frame.getPacket().length);
+	}
+
+	/**
+	 * Send the remaining bytes of a buffer as a packet through the unreliable medium
+	 * @param packet the content of the packet, its position is advanced to its limit
+	 */
+	public void sendPacket(ByteBuffer packet) throws IllegalArgumentException {
+		if (packet == null) {
+			throw new IllegalArgumentException("packet == null");
+		}
+		byte[] packetContents = new byte[packet.remaining()];
+		packet.get(packetContents);
+		sendPacket(packetContents);
 	}
 	
 	/**
@@ -34,6 +126,86 @@ public class NetworkLayer {
 	 * @return The content of the packet as an array of Integers, or null if no packet was received
 	 */
 	public Integer[] receivePacket(){
-		return client.receivePacket();
+		byte[] packet = receivePacketBytes();
+		return packet == null ? null : Utils.toIntegers(packet);
+	}
+
+	/**
+	 * Receive a packet from the unreliable medium
+	 * @return The content of the packet, or null if no packet was received
+	 */
+	public byte[] receivePacketBytes() {
+		return countReceived(client.receivePacketBytes());
+	}
+
+	/**
+	 * Receive a packet from the unreliable medium, waiting for one to arrive
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return The content of the packet as an array of Integers, or null if no packet was received in time
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public Integer[] receivePacket(long timeout, TimeUnit unit) throws InterruptedException {
+		byte[] packet = receivePacketBytes(timeout, unit);
+		return packet == null ? null : Utils.toIntegers(packet);
+	}
+
+	/**
+	 * Receive a packet from the unreliable medium, waiting for one to arrive
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return The content of the packet, or null if no packet was received in time
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public byte[] receivePacketBytes(long timeout, TimeUnit unit) throws InterruptedException {
+		return countReceived(client.receivePacketBytes(timeout, unit));
+	}
+
+	private static byte[] countReceived(byte[] packet) {
+		if (packet != null) {
+			packetsReceived.increment();
+			bytesReceived.add(packet.length);
+		}
+		return packet;
+	}
+
+	/**
+	 * Registers a listener that received packets are handed to as soon as they arrive, instead of being
+	 * returned by receivePacket
+	 * @param listener the listener
+	 */
+	public void addPacketListener(IPacketListener listener) {
+		client.addPacketListener(listener);
+	}
+
+	/**
+	 * Removes a packet listener
+	 * @param listener the listener
+	 */
+	public void removePacketListener(IPacketListener listener) {
+		client.removePacketListener(listener);
+	}
+
+	/**
+	 * @return the timer to schedule the timeouts of the protocol on
+	 */
+	public TimingWheel getTimer() {
+		return client.getTimer();
+	}
+
+	/**
+	 * @return the checksum to add the received file to while it is written, or null if the medium does not check it
+	 */
+	public RunningChecksum getOutputChecksum() {
+		return client != null ? client.getOutputChecksum() : null;
+	}
+
+	/**
+	 * Receive a packet from the unreliable medium
+	 * @return A buffer wrapping the content of the packet, or null if no packet was received
+	 */
+	public ByteBuffer receivePacketBuffer() {
+		byte[] packet = receivePacketBytes();
+		return packet == null ? null : ByteBuffer.wrap(packet);
 	}
 }
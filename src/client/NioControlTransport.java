@@ -0,0 +1,215 @@
+package client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Connection with the challenge server over a non-blocking SocketChannel.
+ *
+ * Lines are decoded in place in the read buffer, and waiting for data is done with a selector, which wakes up
+ * immediately when data arrives or {@link #wakeup()} is called. Written lines are collected in a buffer until
+ * flush, so the replies to a burst of messages go out in a single write. Nagle's algorithm is disabled.
+ */
+public class NioControlTransport implements IControlTransport {
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final SocketChannel channel;
+	private final Selector readSelector;
+	private final Selector writeSelector;
+
+	// received data, the unprocessed bytes are between position and limit
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	// data to send, in write mode
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	// offset in the read buffer up to which no line terminator was found
+	private int scanned = 0;
+
+	// time at which the data of the last line was received
+	private long lastReadNanos;
+	private long lastLineNanos;
+
+	// set by wakeup, cleared by the readLine it stops
+	private volatile boolean wakeupRequested = false;
+
+	/**
+	 * Connects to the server
+	 *
+	 * @param host
+	 *            the server address
+	 * @param port
+	 *            the server port
+	 * @throws IOException
+	 *             if the connection failed
+	 */
+	public NioControlTransport(String host, int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+		channel.configureBlocking(false);
+		readSelector = Selector.open();
+		writeSelector = Selector.open();
+		channel.register(readSelector, SelectionKey.OP_READ);
+		channel.register(writeSelector, SelectionKey.OP_WRITE);
+		readBuffer.flip();
+	}
+
+	@Override
+	public ByteBuffer readLine() throws IOException, InterruptedException {
+		while (true) {
+			int end = findLineEnd();
+			if (end >= 0) {
+				ByteBuffer line = readBuffer.duplicate();
+				int lineEnd = end > readBuffer.position() && readBuffer.get(end - 1) == '\r' ? end - 1 : end;
+				line.limit(lineEnd);
+				readBuffer.position(end + 1);
+				scanned = readBuffer.position();
+				lastLineNanos = lastReadNanos;
+				return line;
+			}
+
+			if (!fill()) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Wakes up the read selector, so the waiting readLine returns at once without touching the channel
+	 */
+	@Override
+	public void wakeup() {
+		wakeupRequested = true;
+		readSelector.wakeup();
+	}
+
+	@Override
+	public boolean hasBufferedLine() {
+		return findLineEnd() >= 0;
+	}
+
+	@Override
+	public long getLastLineNanos() {
+		return lastLineNanos;
+	}
+
+	@Override
+	public synchronized void writeLine(String line) throws IOException {
+		reserve(line.length() + 1);
+		for (int i = 0; i < line.length(); i++) {
+			writeBuffer.put((byte) line.charAt(i));
+		}
+		writeBuffer.put((byte) '\n');
+	}
+
+	@Override
+	public synchronized void writeLine(byte[] line, int offset, int length) throws IOException {
+		reserve(length + 1);
+		writeBuffer.put(line, offset, length);
+		writeBuffer.put((byte) '\n');
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		writeBuffer.flip();
+		try {
+			while (writeBuffer.hasRemaining()) {
+				if (channel.write(writeBuffer) == 0) {
+					// socket send buffer is full, wait until it drains
+					writeSelector.select(100);
+					writeSelector.selectedKeys().clear();
+				}
+			}
+		} finally {
+			writeBuffer.compact();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		readSelector.close();
+		writeSelector.close();
+		channel.close();
+	}
+
+	/**
+	 * Makes room for the given number of bytes in the write buffer, flushing it first if needed
+	 */
+	private void reserve(int length) throws IOException {
+		if (writeBuffer.remaining() < length) {
+			flush();
+			if (writeBuffer.remaining() < length) {
+				writeBuffer = ByteBuffer.allocate(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + length));
+			}
+		}
+	}
+
+	/**
+	 * @return the offset of the next line terminator in the read buffer, or -1 if there is none
+	 */
+	private int findLineEnd() {
+		int limit = readBuffer.limit();
+		for (int i = Math.max(scanned, readBuffer.position()); i < limit; i++) {
+			if (readBuffer.get(i) == '\n') {
+				return i;
+			}
+		}
+		scanned = limit;
+		return -1;
+	}
+
+	/**
+	 * Throws InterruptedException if {@link #wakeup()} was called or the thread was interrupted. An interrupt that
+	 * arrives during a channel operation closes the channel, so callers should use wakeup.
+	 */
+	private void checkWakeup() throws InterruptedException {
+		if (wakeupRequested || Thread.interrupted()) {
+			wakeupRequested = false;
+			throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Waits for data and appends it to the read buffer
+	 *
+	 * @return false if the server closed the connection
+	 */
+	private boolean fill() throws IOException, InterruptedException {
+		// make room after the unprocessed bytes
+		int offset = scanned - readBuffer.position();
+		readBuffer.compact();
+		if (!readBuffer.hasRemaining()) {
+			ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+			readBuffer.flip();
+			larger.put(readBuffer);
+			readBuffer = larger;
+		}
+
+		try {
+			checkWakeup();
+			int read = channel.read(readBuffer);
+			while (read == 0) {
+				readSelector.select();
+				readSelector.selectedKeys().clear();
+				checkWakeup();
+				read = channel.read(readBuffer);
+			}
+			if (read < 0) {
+				if (readBuffer.position() > 0) {
+					throw new EOFException("Connection closed in the middle of a line");
+				}
+				return false;
+			}
+			lastReadNanos = System.nanoTime();
+			return true;
+		} finally {
+			readBuffer.flip();
+			scanned = offset;
+		}
+	}
+}
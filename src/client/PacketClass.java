@@ -0,0 +1,51 @@
+package client;
+
+import java.util.Locale;
+
+/**
+ * Class of a packet sent through a {@link NetworkLayer}, which decides how soon a {@link PacketScheduler} hands it
+ * to a SLOT compared with the packets of the other classes.
+ *
+ * The classes are in order of priority. The weight of a class is the number of packets it may send in one round
+ * of the scheduler while packets of lower classes wait, so a busy class delays the others but never stops them.
+ */
+public enum PacketClass {
+	/**
+	 * Acknowledgements and other small packets that steer the transfer, the other side waits for them
+	 */
+	CONTROL(8),
+	/**
+	 * Packets sent again because they were lost, the receiver cannot deliver anything after them until they arrive
+	 */
+	RETRANSMIT(4),
+	/**
+	 * Packets sent for the first time, the default class
+	 */
+	NEW_DATA(2),
+	/**
+	 * Redundant packets that only help if others are lost, such as parity or blind resends
+	 */
+	SPECULATIVE(1);
+
+	private final int weight;
+	private final String label;
+
+	PacketClass(int weight) {
+		this.weight = weight;
+		this.label = name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return the number of packets of this class sent per round of the scheduler if it has that many
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return the name of the class in metric labels, such as new_data
+	 */
+	public String getLabel() {
+		return label;
+	}
+}
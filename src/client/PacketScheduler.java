@@ -0,0 +1,102 @@
+package client;
+
+/**
+ * Bounded output queue that holds the packets of each {@link PacketClass} in a {@link RingBuffer} of its own and
+ * hands them out by weighted priority.
+ *
+ * A round gives every class as many packets as its weight. Within a round, {@link #poll()} takes the next packet
+ * of the highest class that has weight left, so an acknowledgement queued behind a window of data goes out at the
+ * next SLOT. A new round starts as soon as no class with weight left has a packet, so a free SLOT is never left
+ * unused while any packet waits. Packets of one class keep their order.
+ *
+ * Any number of threads may offer packets, but only one thread at a time may poll them.
+ *
+ * @param <E> the type of the packets
+ */
+public class PacketScheduler<E> {
+	private static final PacketClass[] CLASSES = PacketClass.values();
+
+	private final RingBuffer<E>[] queues;
+	// packets each class may still send in the current round, only used by the polling thread
+	private final int[] credits = new int[CLASSES.length];
+
+	/**
+	 * Constructs an empty scheduler
+	 * @param capacity the maximum number of packets of each class, must be a power of two
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PacketScheduler(int capacity) {
+		queues = new RingBuffer[CLASSES.length];
+		for (int i = 0; i < CLASSES.length; i++) {
+			queues[i] = new RingBuffer<>(capacity);
+		}
+		startRound();
+	}
+
+	/**
+	 * Adds a packet after the others of its class
+	 * @param packetClass the class of the packet
+	 * @param packet the packet, not null
+	 * @return true if the packet was added, false if the queue of its class is full
+	 */
+	public boolean offer(PacketClass packetClass, E packet) {
+		return queues[packetClass.ordinal()].offer(packet);
+	}
+
+	/**
+	 * Removes the packet that is due next
+	 * @return the packet, or null if there is none
+	 */
+	public E poll() {
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < CLASSES.length; i++) {
+				if (credits[i] > 0) {
+					E packet = queues[i].poll();
+					if (packet != null) {
+						credits[i]--;
+						return packet;
+					}
+				}
+			}
+			// the classes with weight left are idle, the others may have their next turn
+			startRound();
+		}
+		return null;
+	}
+
+	private void startRound() {
+		for (int i = 0; i < CLASSES.length; i++) {
+			credits[i] = CLASSES[i].getWeight();
+		}
+	}
+
+	/**
+	 * @return the number of packets of the given class waiting
+	 */
+	public int size(PacketClass packetClass) {
+		return queues[packetClass.ordinal()].size();
+	}
+
+	/**
+	 * @return the number of packets waiting
+	 */
+	public int size() {
+		int size = 0;
+		for (RingBuffer<E> queue : queues) {
+			size += queue.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return whether no packet is waiting
+	 */
+	public boolean isEmpty() {
+		for (RingBuffer<E> queue : queues) {
+			if (!queue.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,287 @@
+package client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the received file straight into the output file: every payload is written at its final offset with a
+ * positional {@link FileChannel} write as it arrives, in any order. Receivers therefore neither grow an array per
+ * packet nor hold the file in memory.
+ *
+ * The sink tracks which byte ranges have arrived, so it knows when the file is complete once its length is known.
+ * Writes that continue the previous one are collected in a buffer of {@link #WRITE_BUFFER_SIZE} bytes and written
+ * together. Given a {@link RunningChecksum}, the sink adds the bytes to it as soon as they join the part of the file
+ * received without gaps, reading back from the file only the bytes that arrived ahead of a gap.
+ * It is used by the receiving thread only, and is not thread-safe.
+ */
+public class ReassemblySink implements Closeable {
+	static final int WRITE_BUFFER_SIZE = 65536;   // bytes of consecutive writes collected before writing them
+
+	private final FileChannel channel;
+	private final RunningChecksum checksum;
+	// number of bytes from the start of the file added to the checksum
+	private long checkedLength = 0;
+	// bytes not yet written to the file, from pendingOffset on
+	private final ByteBuffer pending = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+	private long pendingOffset = 0;
+	// the received byte ranges, from start to end, overlapping and adjacent ranges merged
+	private final TreeMap<Long, Long> ranges = new TreeMap<>();
+	private long bytesReceived = 0;
+	private long end = 0;
+	private long length = -1;
+	private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+	/**
+	 * Opens the output file of this process, see {@link Utils#getOutputFile(int)}
+	 * @param id the file ID
+	 * @throws IOException if the file cannot be opened
+	 */
+	public ReassemblySink(int id) throws IOException {
+		this(id, null);
+	}
+
+	/**
+	 * Opens the output file of this process, see {@link Utils#getOutputFile(int)}
+	 * @param id the file ID
+	 * @param checksum the checksum to add the file to in order, or null
+	 * @throws IOException if the file cannot be opened
+	 */
+	public ReassemblySink(int id, RunningChecksum checksum) throws IOException {
+		this(Utils.getOutputFile(id).toPath(), checksum);
+	}
+
+	/**
+	 * Opens an output file, replacing its contents
+	 * @param path the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public ReassemblySink(Path path) throws IOException {
+		this(path, null);
+	}
+
+	/**
+	 * Opens an output file, replacing its contents
+	 * @param path the file
+	 * @param checksum the checksum to add the file to in order, or null
+	 * @throws IOException if the file cannot be opened
+	 */
+	public ReassemblySink(Path path, RunningChecksum checksum) throws IOException {
+		this.checksum = checksum;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Writes part of the file
+	 * @param offset the offset in the file
+	 * @param data the array holding the bytes
+	 * @param from the start of the bytes in the array
+	 * @param length the number of bytes
+	 * @throws IOException if writing fails
+	 */
+	public void write(long offset, byte[] data, int from, int length) throws IOException {
+		write(offset, ByteBuffer.wrap(data, from, length));
+	}
+
+	/**
+	 * Writes part of the file
+	 * @param offset the offset in the file
+	 * @param data the array holding the bytes, as in packets of Integers
+	 * @param from the start of the bytes in the array
+	 * @param length the number of bytes
+	 * @throws IOException if writing fails
+	 */
+	public void write(long offset, Integer[] data, int from, int length) throws IOException {
+		if (buffer.capacity() < length) {
+			buffer = ByteBuffer.allocate(length);
+		}
+		buffer.clear();
+		for (int i = from; i < from + length; i++) {
+			buffer.put((byte) (int) data[i]);
+		}
+		buffer.flip();
+		write(offset, buffer);
+	}
+
+	private void write(long offset, ByteBuffer data) throws IOException {
+		if (offset < 0) {
+			throw new IllegalArgumentException("offset < 0");
+		}
+		int count = data.remaining();
+		if (count == 0) {
+			return;
+		}
+		// the bytes that continue the checksummed part of the file are added from here, without reading them back
+		ByteBuffer continuation = null;
+		if (checksum != null && offset <= checkedLength && offset + count > checkedLength) {
+			continuation = data.duplicate();
+			continuation.position(continuation.position() + (int) (checkedLength - offset));
+		}
+
+		if (pending.position() > 0 && offset != pendingOffset + pending.position()) {
+			flush();
+		}
+		if (count <= pending.remaining()) {
+			if (pending.position() == 0) {
+				pendingOffset = offset;
+			}
+			pending.put(data);
+		} else {
+			flush();
+			writeFully(data, offset);
+		}
+		addRange(offset, offset + count);
+
+		if (continuation != null) {
+			checkedLength += continuation.remaining();
+			checksum.update(continuation);
+		}
+		if (checksum != null && getContiguousLength() > checkedLength) {
+			readBack(getContiguousLength());
+		}
+	}
+
+	/**
+	 * Adds the bytes that arrived ahead of a gap, which has now been filled, to the checksum
+	 */
+	private void readBack(long contiguousLength) throws IOException {
+		flush();
+		ByteBuffer data = ByteBuffer.allocate((int) Math.min(WRITE_BUFFER_SIZE, contiguousLength - checkedLength));
+		while (checkedLength < contiguousLength) {
+			data.clear();
+			data.limit((int) Math.min(data.capacity(), contiguousLength - checkedLength));
+			int read = channel.read(data, checkedLength);
+			if (read <= 0) {
+				throw new IOException("Output file shorter than the bytes received");
+			}
+			data.flip();
+			checksum.update(data);
+			checkedLength += read;
+		}
+	}
+
+	/**
+	 * Writes the collected bytes to the file
+	 */
+	private void flush() throws IOException {
+		pending.flip();
+		writeFully(pending, pendingOffset);
+		pending.clear();
+	}
+
+	private void writeFully(ByteBuffer data, long offset) throws IOException {
+		while (data.hasRemaining()) {
+			offset += channel.write(data, offset);
+		}
+	}
+
+	/**
+	 * Adds a received range, and merges it with the overlapping and adjacent ranges
+	 */
+	private void addRange(long start, long stop) {
+		Map.Entry<Long, Long> before = ranges.floorEntry(start);
+		if (before != null && before.getValue() >= start) {
+			start = before.getKey();
+			stop = Math.max(stop, before.getValue());
+			removeRange(before);
+		}
+		for (Map.Entry<Long, Long> after = ranges.ceilingEntry(start); after != null && after.getKey() <= stop;
+				after = ranges.ceilingEntry(start)) {
+			stop = Math.max(stop, after.getValue());
+			removeRange(after);
+		}
+		ranges.put(start, stop);
+		bytesReceived += stop - start;
+		end = Math.max(end, stop);
+	}
+
+	private void removeRange(Map.Entry<Long, Long> range) {
+		ranges.remove(range.getKey());
+		bytesReceived -= range.getValue() - range.getKey();
+	}
+
+	/**
+	 * @return a stream that writes at the end of the bytes received from the start of the file without gaps, for
+	 * receivers that reassemble the file in order
+	 */
+	public OutputStream asOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] data, int from, int length) throws IOException {
+				ReassemblySink.this.write(getContiguousLength(), data, from, length);
+			}
+		};
+	}
+
+	/**
+	 * Sets the length of the file, once the receiver knows it
+	 * @param length the number of bytes of the file
+	 */
+	public void setLength(long length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("length < 0");
+		}
+		this.length = length;
+	}
+
+	/**
+	 * @return the length of the file, or -1 if it is not known
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes received from the start of the file without gaps
+	 */
+	public long getContiguousLength() {
+		Map.Entry<Long, Long> first = ranges.firstEntry();
+		return first != null && first.getKey() == 0 ? first.getValue() : 0;
+	}
+
+	/**
+	 * @return the number of distinct bytes received
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return whether the length of the file is known and all of its bytes have been received
+	 */
+	public boolean isComplete() {
+		return length >= 0 && getContiguousLength() >= length;
+	}
+
+	/**
+	 * Closes the file, cut off at its length if that is known and otherwise after the last byte received
+	 * @throws IOException if closing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			channel.truncate(length >= 0 ? length : end);
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d bytes received in %d ranges, %d contiguous, length %s", bytesReceived,
+				ranges.size(), getContiguousLength(), length >= 0 ? Long.toString(length) : "unknown");
+	}
+}
@@ -0,0 +1,203 @@
+package client;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(2^8), for blocks of up to {@link #MAX_DATA} data shards and
+ * {@link #MAX_PARITY} parity shards of equal length.
+ *
+ * Parity shard j is the sum over the data shards i of C[j][i] * data[i], with C a Cauchy matrix whose columns are
+ * scaled so that its first row is all ones. Every square submatrix of a Cauchy matrix is invertible, and scaling
+ * columns keeps it so, so any k of the k + m shards give back the data. The first parity shard is the XOR of the
+ * data shards, so a code with one parity shard is plain XOR parity.
+ */
+public final class ReedSolomonCode {
+	/**
+	 * Largest number of data shards in a block
+	 */
+	public static final int MAX_DATA = 128;
+	/**
+	 * Largest number of parity shards in a block
+	 */
+	public static final int MAX_PARITY = 128;
+
+	// x^8 + x^4 + x^3 + x^2 + 1
+	private static final int POLYNOMIAL = 0x11d;
+	private static final byte[] EXP = new byte[510];
+	private static final int[] LOG = new int[256];
+	private static final byte[][] COEFFICIENTS = new byte[MAX_PARITY][MAX_DATA];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = (byte) x;
+			EXP[i + 255] = (byte) x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256) {
+				x ^= POLYNOMIAL;
+			}
+		}
+		// rows use the elements 0..127 and columns 128..255, so x_j + y_i is never 0
+		for (int j = 0; j < MAX_PARITY; j++) {
+			for (int i = 0; i < MAX_DATA; i++) {
+				COEFFICIENTS[j][i] = divide(inverse(j ^ (MAX_PARITY + i)), inverse(MAX_PARITY + i));
+			}
+		}
+	}
+
+	private ReedSolomonCode() {
+	}
+
+	/**
+	 * Computes parity shards
+	 * @param data the data shards, all of the same length
+	 * @param parityShards the number of parity shards to compute
+	 * @return the parity shards, of the length of the data shards
+	 */
+	public static byte[][] encode(byte[][] data, int parityShards) {
+		if (data.length == 0 || data.length > MAX_DATA || parityShards < 0 || parityShards > MAX_PARITY) {
+			throw new IllegalArgumentException("Invalid number of shards");
+		}
+		int length = data[0].length;
+		byte[][] parity = new byte[parityShards][length];
+		for (int j = 0; j < parityShards; j++) {
+			for (int i = 0; i < data.length; i++) {
+				multiplyAdd(COEFFICIENTS[j][i], data[i], parity[j], length);
+			}
+		}
+		return parity;
+	}
+
+	/**
+	 * Reconstructs missing data shards
+	 * @param data the data shards, null for the missing ones, which are filled in
+	 * @param parity the parity shards, null for the missing ones
+	 * @param length the length of the shards
+	 * @return false if fewer shards than data shards are present, so nothing could be reconstructed
+	 */
+	public static boolean decode(byte[][] data, byte[][] parity, int length) {
+		int[] missing = new int[data.length];
+		int missingCount = 0;
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == null) {
+				missing[missingCount++] = i;
+			}
+		}
+		if (missingCount == 0) {
+			return true;
+		}
+		int[] rows = new int[missingCount];
+		int rowCount = 0;
+		for (int j = 0; j < parity.length && rowCount < missingCount; j++) {
+			if (parity[j] != null) {
+				rows[rowCount++] = j;
+			}
+		}
+		if (rowCount < missingCount) {
+			return false;
+		}
+
+		// the parity of the chosen rows minus the contribution of the data shards that are present
+		byte[][] remainders = new byte[missingCount][];
+		for (int r = 0; r < missingCount; r++) {
+			byte[] remainder = parity[rows[r]].clone();
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] != null) {
+					multiplyAdd(COEFFICIENTS[rows[r]][i], data[i], remainder, length);
+				}
+			}
+			remainders[r] = remainder;
+		}
+
+		// solve the remainders for the missing shards with the inverse of the submatrix of the chosen rows
+		int[][] matrix = new int[missingCount][missingCount];
+		for (int r = 0; r < missingCount; r++) {
+			for (int c = 0; c < missingCount; c++) {
+				matrix[r][c] = COEFFICIENTS[rows[r]][missing[c]] & 0xff;
+			}
+		}
+		int[][] inverse = invert(matrix);
+		for (int c = 0; c < missingCount; c++) {
+			byte[] shard = new byte[length];
+			for (int r = 0; r < missingCount; r++) {
+				multiplyAdd((byte) inverse[c][r], remainders[r], shard, length);
+			}
+			data[missing[c]] = shard;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds factor * source to target, element by element
+	 */
+	private static void multiplyAdd(byte factor, byte[] source, byte[] target, int length) {
+		int f = factor & 0xff;
+		if (f == 0) {
+			return;
+		}
+		int end = Math.min(length, source.length);
+		if (f == 1) {
+			for (int k = 0; k < end; k++) {
+				target[k] ^= source[k];
+			}
+			return;
+		}
+		int logFactor = LOG[f];
+		for (int k = 0; k < end; k++) {
+			int s = source[k] & 0xff;
+			if (s != 0) {
+				target[k] ^= EXP[logFactor + LOG[s]];
+			}
+		}
+	}
+
+	/**
+	 * Inverts a matrix by Gauss-Jordan elimination
+	 */
+	private static int[][] invert(int[][] matrix) {
+		int n = matrix.length;
+		int[][] inverse = new int[n][n];
+		for (int i = 0; i < n; i++) {
+			inverse[i][i] = 1;
+		}
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			while (matrix[pivot][col] == 0) {
+				pivot++;
+			}
+			int[] swap = matrix[pivot];
+			matrix[pivot] = matrix[col];
+			matrix[col] = swap;
+			swap = inverse[pivot];
+			inverse[pivot] = inverse[col];
+			inverse[col] = swap;
+
+			int scale = inverse(matrix[col][col]) & 0xff;
+			for (int k = 0; k < n; k++) {
+				matrix[col][k] = multiply(matrix[col][k], scale);
+				inverse[col][k] = multiply(inverse[col][k], scale);
+			}
+			for (int row = 0; row < n; row++) {
+				int factor = matrix[row][col];
+				if (row != col && factor != 0) {
+					for (int k = 0; k < n; k++) {
+						matrix[row][k] ^= multiply(factor, matrix[col][k]);
+						inverse[row][k] ^= multiply(factor, inverse[col][k]);
+					}
+				}
+			}
+		}
+		return inverse;
+	}
+
+	private static int multiply(int a, int b) {
+		return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]] & 0xff;
+	}
+
+	private static byte divide(byte a, byte b) {
+		return a == 0 ? 0 : EXP[LOG[a & 0xff] + 255 - LOG[b & 0xff]];
+	}
+
+	private static byte inverse(int a) {
+		return EXP[255 - LOG[a]];
+	}
+}
@@ -0,0 +1,112 @@
+package client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for any number of producers and consumers, after Dmitry Vyukov's bounded MPMC queue.
+ *
+ * Every cell carries a sequence number that tells producers and consumers whether it is free for the current
+ * lap of the ring, so offer and poll need a single compare-and-set and never shift elements.
+ *
+ * @param <E> the type of the elements
+ */
+public class RingBuffer<E> {
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Constructs an empty ring buffer
+	 * @param capacity the maximum number of elements, must be a power of two
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+		this.mask = capacity - 1;
+		this.elements = new AtomicReferenceArray<>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Adds an element at the tail
+	 * @param element the element, not null
+	 * @return true if the element was added, false if the buffer is full
+	 */
+	public boolean offer(E element) {
+		if (element == null) {
+			throw new IllegalArgumentException("element == null");
+		}
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, element);
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes the element at the head
+	 * @return the element, or null if the buffer is empty
+	 */
+	public E poll() {
+		long position = head.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					E element = elements.get(index);
+					elements.lazySet(index, null);
+					sequences.set(index, position + mask + 1);
+					return element;
+				}
+				position = head.get();
+			} else if (difference < 0) {
+				return null;
+			} else {
+				position = head.get();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of elements, which may be outdated as soon as it is returned
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, mask + 1));
+	}
+
+	/**
+	 * @return whether the buffer is empty
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return the maximum number of elements
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+}
@@ -0,0 +1,58 @@
+package client;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * CRC32 of the challenge followed by the received file, the checksum the challenge server expects, updated with the
+ * bytes of the file in order while they are received. It is ready as soon as the last byte arrives, instead of
+ * being computed over the output file afterwards.
+ *
+ * The server checks a CRC32, so the faster CRC32C cannot be used here.
+ */
+public class RunningChecksum {
+	private final CRC32 crc = new CRC32();
+	private long length = 0;
+
+	/**
+	 * Constructs a checksum
+	 * @param challenge the challenge of the simulation, checksummed in front of the file
+	 */
+	public RunningChecksum(byte[] challenge) {
+		crc.update(challenge, 0, challenge.length);
+	}
+
+	/**
+	 * Adds the next bytes of the file
+	 * @param data the array holding the bytes
+	 * @param offset the start of the bytes in the array
+	 * @param length the number of bytes
+	 */
+	public synchronized void update(byte[] data, int offset, int length) {
+		crc.update(data, offset, length);
+		this.length += length;
+	}
+
+	/**
+	 * Adds the next bytes of the file
+	 * @param data the bytes, from the position to the limit of the buffer, which is advanced to its limit
+	 */
+	public synchronized void update(ByteBuffer data) {
+		length += data.remaining();
+		crc.update(data);
+	}
+
+	/**
+	 * @return the checksum of the challenge and the bytes added so far
+	 */
+	public synchronized long getValue() {
+		return crc.getValue();
+	}
+
+	/**
+	 * @return the number of bytes of the file added so far
+	 */
+	public synchronized long getLength() {
+		return length;
+	}
+}
@@ -0,0 +1,165 @@
+package client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The file to transmit, mapped into memory with {@link FileChannel#map} and handed out in segments of a fixed size.
+ *
+ * Segment n holds the bytes from n * segment size, the last one may be shorter. {@link #getSegment(long)} returns a
+ * read-only view of the mapping, so a segment is neither read nor copied until it is sent, and any segment can be
+ * taken again for a retransmission. Files of more than 1 GiB are mapped in several regions of at most 1 GiB, each a
+ * multiple of the segment size, so a segment never spans two regions. Streams are first spooled to a temporary file.
+ *
+ * The views may be used from any thread, and stay valid after the source is closed.
+ */
+public class SegmentSource implements Closeable {
+	static final long MAX_REGION_SIZE = 1L << 30;   // largest number of bytes per mapping
+
+	private final FileChannel channel;
+	// temporary file a stream was spooled to, deleted on close, or null
+	private final Path spooled;
+	private final long length;
+	private final int segmentSize;
+	private final long regionSize;
+	private final MappedByteBuffer[] regions;
+
+	/**
+	 * Maps a file
+	 * @param path the file
+	 * @param segmentSize the number of bytes per segment
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public SegmentSource(Path path, int segmentSize) throws IOException {
+		this(path, segmentSize, null);
+	}
+
+	private SegmentSource(Path path, int segmentSize, Path spooled) throws IOException {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("segmentSize <= 0");
+		}
+		this.spooled = spooled;
+		this.segmentSize = segmentSize;
+		this.regionSize = Math.max(1, MAX_REGION_SIZE / segmentSize) * segmentSize;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			length = channel.size();
+			regions = new MappedByteBuffer[(int) ((length + regionSize - 1) / regionSize)];
+			for (int region = 0; region < regions.length; region++) {
+				long start = region * regionSize;
+				regions[region] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize, length - start));
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps the file to transmit, see {@link Utils#getInputFile(int)}
+	 * @param id the file ID
+	 * @param segmentSize the number of bytes per segment
+	 * @return the source
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public static SegmentSource open(int id, int segmentSize) throws IOException {
+		return new SegmentSource(Utils.getInputFile(id).toPath(), segmentSize);
+	}
+
+	/**
+	 * Reads a stream to its end into a temporary file, and maps that file. The file is deleted on close.
+	 * @param in the stream
+	 * @param segmentSize the number of bytes per segment
+	 * @return the source
+	 * @throws IOException if reading the stream or writing or mapping the file fails
+	 */
+	public static SegmentSource fromStream(InputStream in, int segmentSize) throws IOException {
+		Path file = Files.createTempFile("rdtc", ".segments");
+		try {
+			Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+			return new SegmentSource(file, segmentSize, file);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param index the index of the segment, from 0
+	 * @return a read-only view of the segment, from its position to its limit
+	 * @throws IndexOutOfBoundsException if there is no such segment
+	 */
+	public ByteBuffer getSegment(long index) {
+		if (index < 0 || index >= getSegmentCount()) {
+			throw new IndexOutOfBoundsException("Segment " + index + " of " + getSegmentCount());
+		}
+		long offset = index * segmentSize;
+		ByteBuffer view = regions[(int) (offset / regionSize)].asReadOnlyBuffer();
+		int start = (int) (offset % regionSize);
+		view.limit(start + (int) Math.min(segmentSize, length - offset));
+		view.position(start);
+		return view.slice();
+	}
+
+	/**
+	 * Copies bytes of the file into a packet of Integers, every element in the range 0-255
+	 * @param offset the offset in the file
+	 * @param target the packet
+	 * @param targetOffset the start in the packet
+	 * @param count the number of bytes
+	 * @throws IndexOutOfBoundsException if the bytes are not all in the file
+	 */
+	public void get(long offset, Integer[] target, int targetOffset, int count) {
+		if (offset < 0 || count < 0 || offset + count > length) {
+			throw new IndexOutOfBoundsException("Bytes " + offset + " to " + (offset + count) + " of " + length);
+		}
+		for (int i = 0; i < count; i++) {
+			long position = offset + i;
+			target[targetOffset + i] = regions[(int) (position / regionSize)].get((int) (position % regionSize)) & 0xff;
+		}
+	}
+
+	/**
+	 * @return the number of bytes of the file
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes per segment
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * @return the number of segments
+	 */
+	public long getSegmentCount() {
+		return (length + segmentSize - 1) / segmentSize;
+	}
+
+	/**
+	 * Closes the file, and deletes it if it was spooled from a stream
+	 * @throws IOException if closing or deleting fails
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			if (spooled != null) {
+				Files.deleteIfExists(spooled);
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package client;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Connection with the challenge server over a blocking socket and streams
+ */
+public class StreamControlTransport implements IControlTransport {
+	// how often a blocked read checks whether the thread was interrupted
+	private static final int INTERRUPT_CHECK_INTERVAL_MS = 100;
+
+	// server socket
+	private final Socket socket;
+
+	// socket input stream
+	private final InputStream inputStream;
+
+	// socket output stream
+	private final PrintStream outputStream;
+
+	// received data, the unprocessed bytes are between start and end
+	private byte[] readBuffer = new byte[8192];
+	private int start = 0;
+	private int end = 0;
+
+	// time at which the last line was returned
+	private long lastLineNanos;
+
+	// set by wakeup, cleared by the readLine it stops
+	private volatile boolean wakeupRequested = false;
+
+	/**
+	 * Connects to the server
+	 * 
+	 * @param host
+	 *            the server address
+	 * @param port
+	 *            the server port
+	 * @throws IOException
+	 *             if the connection failed
+	 */
+	public StreamControlTransport(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		socket.setSoTimeout(INTERRUPT_CHECK_INTERVAL_MS);
+		inputStream = socket.getInputStream();
+		outputStream = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	@Override
+	public ByteBuffer readLine() throws IOException, InterruptedException {
+		int scanned = start;
+		while (true) {
+			for (; scanned < end; scanned++) {
+				if (readBuffer[scanned] == '\n') {
+					int lineStart = start;
+					int lineEnd = scanned > start && readBuffer[scanned - 1] == '\r' ? scanned - 1 : scanned;
+					start = scanned + 1;
+					lastLineNanos = System.nanoTime();
+					return ByteBuffer.wrap(readBuffer, lineStart, lineEnd - lineStart);
+				}
+			}
+
+			// make room after the unprocessed bytes
+			if (start > 0) {
+				System.arraycopy(readBuffer, start, readBuffer, 0, end - start);
+				scanned -= start;
+				end -= start;
+				start = 0;
+			}
+			if (end == readBuffer.length) {
+				readBuffer = Arrays.copyOf(readBuffer, readBuffer.length * 2);
+			}
+
+			int read;
+			try {
+				read = inputStream.read(readBuffer, end, readBuffer.length - end);
+			} catch (SocketTimeoutException e) {
+				if (Thread.interrupted() || wakeupRequested) {
+					wakeupRequested = false;
+					throw new InterruptedException();
+				}
+				continue;
+			}
+			if (read < 0) {
+				if (end > start) {
+					throw new EOFException("Connection closed in the middle of a line");
+				}
+				return null;
+			}
+			end += read;
+		}
+	}
+
+	/**
+	 * The waiting readLine notices it within {@link #INTERRUPT_CHECK_INTERVAL_MS}
+	 */
+	@Override
+	public void wakeup() {
+		wakeupRequested = true;
+	}
+
+	@Override
+	public boolean hasBufferedLine() {
+		return false;
+	}
+
+	@Override
+	public long getLastLineNanos() {
+		return lastLineNanos;
+	}
+
+	@Override
+	public synchronized void writeLine(String line) {
+		outputStream.print(line + "\n");
+	}
+
+	@Override
+	public synchronized void writeLine(byte[] line, int offset, int length) {
+		outputStream.write(line, offset, length);
+		outputStream.write('\n');
+	}
+
+	@Override
+	public synchronized void flush() {
+		outputStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,27 @@
+package client;
+
+/**
+ * Clock that follows wall-clock time.
+ */
+public class SystemClock implements Clock {
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+	@Override
+	public void sleep(long milliseconds) throws InterruptedException {
+		Thread.sleep(milliseconds);
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable, String name) {
+		return new Thread(runnable, name);
+	}
+}
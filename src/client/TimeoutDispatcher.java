@@ -0,0 +1,264 @@
+package client;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Calls timeout handlers on worker threads, so a handler that takes long or blocks does not hold up the timer.
+ *
+ * The timeouts of one handler are handled one at a time in the order in which they elapsed, so a handler never
+ * runs concurrently with itself, as with the single timer thread before. Different handlers run in parallel on
+ * at most a fixed number of workers. Workers are started when there is work and a worker is free, and end as
+ * soon as there is no work left, so an idle dispatcher has no threads that block. That keeps it usable with
+ * a {@link VirtualClock}, whose participants may only wait by sleeping.
+ *
+ * With a wall clock, the workers can be virtual threads on JVMs that support them.
+ */
+public class TimeoutDispatcher {
+	/**
+	 * Default maximum number of handlers that run at the same time
+	 */
+	public static final int DEFAULT_MAX_WORKERS = 8;
+
+	// Thread.ofVirtual(), if the JVM has virtual threads
+	private static final Method ofVirtual = findMethod(Thread.class, "ofVirtual");
+
+	private final Clock clock;
+	private final String name;
+	private final int maxWorkers;
+	private final boolean virtualThreads;
+
+	// pending timeouts of each handler that has any, or whose timeout is being handled
+	private final Map<ITimeoutEventHandler, HandlerQueue> queues = new IdentityHashMap<>();
+
+	// handlers with pending timeouts that are not being handled
+	private final ArrayDeque<HandlerQueue> ready = new ArrayDeque<>();
+	private final Set<Thread> workers = new HashSet<>();
+	private boolean shutdown = false;
+	private int workerCount = 0;
+
+	// number of workers that are handling a timeout
+	private int busyWorkers = 0;
+	private long dispatched = 0;
+
+	// time between a timeout elapsing and its handler being called
+	private final MetricsRegistry.Histogram queueingDelay = new MetricsRegistry.Histogram(1e-9);
+
+	/**
+	 * Timeouts of one handler
+	 */
+	private static class HandlerQueue {
+		private final ITimeoutEventHandler handler;
+		private final ArrayDeque<Object> tags = new ArrayDeque<>();
+		private final ArrayDeque<Long> dispatchNanos = new ArrayDeque<>();
+		private boolean running = false;
+
+		private HandlerQueue(ITimeoutEventHandler handler) {
+			this.handler = handler;
+		}
+	}
+
+	/**
+	 * Constructs a dispatcher with {@link #DEFAULT_MAX_WORKERS} platform threads
+	 * @param clock the clock to measure delays with and to create the workers with
+	 * @param name the name of the workers
+	 */
+	public TimeoutDispatcher(Clock clock, String name) {
+		this(clock, name, DEFAULT_MAX_WORKERS, false);
+	}
+
+	/**
+	 * Constructs a dispatcher
+	 * @param clock the clock to measure delays with and to create the workers with
+	 * @param name the name of the workers
+	 * @param maxWorkers the maximum number of handlers that run at the same time
+	 * @param virtualThreads whether to use virtual threads for the workers. Only used with a {@link SystemClock} on
+	 *            a JVM that supports them.
+	 */
+	public TimeoutDispatcher(Clock clock, String name, int maxWorkers, boolean virtualThreads) {
+		if (maxWorkers <= 0) {
+			throw new IllegalArgumentException("maxWorkers <= 0");
+		}
+		this.clock = clock;
+		this.name = name;
+		this.maxWorkers = maxWorkers;
+		this.virtualThreads = virtualThreads && ofVirtual != null && clock instanceof SystemClock;
+	}
+
+	/**
+	 * @return whether the JVM supports virtual threads
+	 */
+	public static boolean isVirtualThreadsAvailable() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * Queues a call of the handler
+	 * @param handler the handler of the elapsed timeout
+	 * @param tag the tag of the timeout
+	 */
+	public void dispatch(ITimeoutEventHandler handler, Object tag) {
+		Thread worker = null;
+		synchronized (this) {
+			if (shutdown) {
+				return;
+			}
+			HandlerQueue queue = queues.get(handler);
+			if (queue == null) {
+				queue = new HandlerQueue(handler);
+				queues.put(handler, queue);
+			}
+			if (queue.tags.isEmpty() && !queue.running) {
+				ready.add(queue);
+			}
+			queue.tags.add(tag);
+			queue.dispatchNanos.add(clock.nanoTime());
+			dispatched++;
+
+			// start a worker if the running ones are all busy with other handlers
+			if (workerCount < maxWorkers && workerCount - busyWorkers < ready.size()) {
+				workerCount++;
+				worker = newWorker();
+				workers.add(worker);
+			}
+		}
+		if (worker != null) {
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops dispatching. Pending timeouts are discarded and the running handlers are interrupted.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		queues.clear();
+		ready.clear();
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * @return the time in seconds between timeouts elapsing and their handlers being called
+	 */
+	public MetricsRegistry.Histogram getQueueingDelay() {
+		return queueingDelay;
+	}
+
+	/**
+	 * @return the number of timeouts that have been dispatched
+	 */
+	public synchronized long getDispatched() {
+		return dispatched;
+	}
+
+	/**
+	 * @return the number of timeouts whose handler has not been called yet
+	 */
+	public synchronized int getPending() {
+		int pending = 0;
+		for (HandlerQueue queue : queues.values()) {
+			pending += queue.tags.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * Handles timeouts until there are none left that can be handled
+	 */
+	private void work() {
+		HandlerQueue queue = null;
+		try {
+			while (true) {
+				Object tag;
+				long delay;
+				synchronized (this) {
+					if (queue != null) {
+						finish(queue);
+					}
+					queue = ready.poll();
+					if (queue == null || shutdown) {
+						return;
+					}
+					queue.running = true;
+					busyWorkers++;
+					tag = queue.tags.poll();
+					delay = clock.nanoTime() - queue.dispatchNanos.poll();
+				}
+
+				queueingDelay.record(delay);
+				try {
+					queue.handler.TimeoutElapsed(tag);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			synchronized (this) {
+				if (queue != null && queue.running) {
+					finish(queue);
+				}
+				workerCount--;
+				workers.remove(Thread.currentThread());
+			}
+		}
+	}
+
+	/**
+	 * Marks the handler as not running, and queues it again if it has more timeouts. Must be called while
+	 * holding the lock of this dispatcher.
+	 */
+	private void finish(HandlerQueue queue) {
+		queue.running = false;
+		busyWorkers--;
+		if (shutdown) {
+			return;
+		}
+		if (queue.tags.isEmpty()) {
+			queues.remove(queue.handler);
+		} else {
+			// go to the back, so other handlers get their turn
+			ready.add(queue);
+		}
+	}
+
+	private Thread newWorker() {
+		if (virtualThreads) {
+			try {
+				Object builder = ofVirtual.invoke(null);
+				builder = findMethod(builder.getClass(), "name", String.class).invoke(builder, name);
+				return (Thread) findMethod(builder.getClass(), "unstarted", Runnable.class).invoke(builder,
+						(Runnable) this::work);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// fall back to a platform thread
+			}
+		}
+		Thread thread = clock.newThread(this::work, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Finds a public method, preferring its declaration in a public interface, because the classes that implement
+	 * the builders of virtual threads are not accessible
+	 * @return the method, or null if there is none
+	 */
+	private static Method findMethod(Class<?> type, String methodName, Class<?>... parameterTypes) {
+		for (Class<?> implemented : type.getInterfaces()) {
+			Method method = findMethod(implemented, methodName, parameterTypes);
+			if (method != null) {
+				return method;
+			}
+		}
+		try {
+			return type.getMethod(methodName, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package client;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Timeouts identified by their tag, on a {@link TimingWheel}: setting a timeout replaces the pending one with an
+ * equal tag, and a timeout can be stopped by its tag, such as the packet it guards, without keeping its handle.
+ *
+ * Every protocol has its own instance on the timer of its network layer, so several clients can run in one JVM.
+ */
+public class Timeouts {
+	// timeouts set, elapsed, and stopped or replaced before they elapsed, of all instances
+	private static final MetricsRegistry.Counter timeoutsSet = MetricsRegistry.getDefault().counter(
+			"rdtc_timeouts_set_total", "Timeouts set by the protocols");
+	private static final MetricsRegistry.Counter timeoutsElapsed = MetricsRegistry.getDefault().counter(
+			"rdtc_timeouts_elapsed_total", "Timeouts of the protocols whose handler was called");
+	private static final MetricsRegistry.Counter timeoutsCancelled = MetricsRegistry.getDefault().counter(
+			"rdtc_timeouts_cancelled_total", "Timeouts of the protocols stopped or replaced before they elapsed");
+
+	private final TimingWheel wheel;
+	private final ReentrantLock lock = new ReentrantLock();
+	// pending timeout of every tag, so it can be stopped or replaced
+	private final Map<Object, TimingWheel.Timer> tagToTimer = new HashMap<>();
+	// handler that forgets the timeout before calling the actual handler, one per handler so the dispatcher still
+	// handles the timeouts of one handler one at a time
+	private final Map<ITimeoutEventHandler, ITimeoutEventHandler> forgettingHandlers = new IdentityHashMap<>();
+
+	/**
+	 * Constructs the timeouts
+	 * @param wheel the timer the timeouts are scheduled on, started and stopped by its owner
+	 */
+	public Timeouts(TimingWheel wheel) {
+		if (wheel == null) {
+			throw new IllegalArgumentException("wheel == null");
+		}
+		this.wheel = wheel;
+	}
+
+	/**
+	 * Sets a timeout, in place of the pending timeout with an equal tag if there is one
+	 * @param milliseconds the timeout interval, starting now
+	 * @param handler the event handler that is called once the timeout elapses
+	 * @param tag the object passed to the handler
+	 */
+	public void set(long milliseconds, ITimeoutEventHandler handler, Object tag) {
+		lock.lock();
+		try {
+			ITimeoutEventHandler forgettingHandler = forgettingHandlers.computeIfAbsent(handler,
+					h -> elapsedTag -> {
+						lock.lock();
+						try {
+							TimingWheel.Timer timer = tagToTimer.get(elapsedTag);
+							if (timer != null && !timer.isPending()) {
+								tagToTimer.remove(elapsedTag);
+							}
+						} finally {
+							lock.unlock();
+						}
+						timeoutsElapsed.increment();
+						h.TimeoutElapsed(elapsedTag);
+					});
+			TimingWheel.Timer timer = wheel.schedule(milliseconds, TimeUnit.MILLISECONDS, forgettingHandler, tag);
+			TimingWheel.Timer previous = tagToTimer.put(tag, timer);
+			timeoutsSet.increment();
+			if (previous != null) {
+				cancel(previous);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the pending timeout with the given tag, if there is one
+	 * @param tag the tag, may be null
+	 */
+	public void stop(Object tag) {
+		if (tag == null) {
+			return;
+		}
+		TimingWheel.Timer timer;
+		lock.lock();
+		try {
+			timer = tagToTimer.remove(tag);
+		} finally {
+			lock.unlock();
+		}
+		if (timer != null) {
+			cancel(timer);
+		}
+	}
+
+	/**
+	 * @return the timer the timeouts are scheduled on
+	 */
+	public TimingWheel getWheel() {
+		return wheel;
+	}
+
+	/**
+	 * Cancels a timer, and counts it if it had not elapsed yet
+	 */
+	private static void cancel(TimingWheel.Timer timer) {
+		if (timer.cancel()) {
+			timeoutsCancelled.increment();
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel for timeouts.
+ *
+ * Timers are kept in doubly linked lists in the slots of four wheels of 256 slots each. The first wheel has one
+ * slot per tick, every next wheel one slot per revolution of the previous one, and a timer is moved down a wheel
+ * each time its slot comes up. Scheduling and cancelling a timer take constant time, and each tick only looks at
+ * the slots that are due, however many timers are pending. Time is measured with the monotonic
+ * {@link Clock#nanoTime()} of the clock given at construction. The handlers of elapsed timeouts are called by a
+ * {@link TimeoutDispatcher}, so a slow handler does not delay the other timeouts.
+ */
+public class TimingWheel {
+	private static final int WHEEL_BITS = 8;
+	private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	private static final int LEVELS = 4;
+
+	// the furthest a timer can be placed ahead of the current tick, timers further away are placed again later
+	private static final long MAX_SPAN = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+	private final Clock clock;
+	private final long tickNanos;
+	private final long startNanos;
+	private final String name;
+	private final TimeoutDispatcher dispatcher;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// list heads of the slots, indexed by level and slot
+	private final Timer[][] slots = new Timer[LEVELS][WHEEL_SIZE];
+
+	// the last tick of which the timers have been handled
+	private long currentTick = 0;
+	private int pending = 0;
+
+	private volatile Thread thread;
+	private boolean stopped = false;
+
+	/**
+	 * Handle of a scheduled timeout
+	 */
+	public static final class Timer {
+		private final ITimeoutEventHandler handler;
+		private final Object tag;
+		private long deadlineTick;
+		private Timer previous;
+		private Timer next;
+		private TimingWheel wheel;
+
+		private Timer(ITimeoutEventHandler handler, Object tag) {
+			this.handler = handler;
+			this.tag = tag;
+		}
+
+		/**
+		 * Cancels the timeout
+		 * @return true if the timeout was cancelled, false if it already elapsed or was cancelled
+		 */
+		public boolean cancel() {
+			TimingWheel owner = wheel;
+			return owner != null && owner.cancel(this);
+		}
+
+		/**
+		 * @return whether the timeout has neither elapsed nor been cancelled
+		 */
+		public boolean isPending() {
+			return wheel != null;
+		}
+
+		/**
+		 * @return the tag that is passed to the handler
+		 */
+		public Object getTag() {
+			return tag;
+		}
+	}
+
+	/**
+	 * Constructs a timing wheel with a resolution of one millisecond, and a dispatcher with the default number of
+	 * workers
+	 * @param clock the clock to measure time with and to create the threads with
+	 * @param name the name of the thread
+	 */
+	public TimingWheel(Clock clock, String name) {
+		this(clock, name, false);
+	}
+
+	/**
+	 * Constructs a timing wheel with a resolution of one millisecond, and a dispatcher with the default number of
+	 * workers
+	 * @param clock the clock to measure time with and to create the threads with
+	 * @param name the name of the thread
+	 * @param virtualThreads whether the handlers run on virtual threads, see {@link TimeoutDispatcher}
+	 */
+	public TimingWheel(Clock clock, String name, boolean virtualThreads) {
+		this(clock, name, 1, TimeUnit.MILLISECONDS, new TimeoutDispatcher(clock, name + " Handler",
+				TimeoutDispatcher.DEFAULT_MAX_WORKERS, virtualThreads));
+	}
+
+	/**
+	 * Constructs a timing wheel
+	 * @param clock the clock to measure time with and to create the thread of the wheel with
+	 * @param name the name of the thread
+	 * @param tick the resolution of the timeouts
+	 * @param unit the unit of the resolution
+	 * @param dispatcher the dispatcher that calls the handlers of elapsed timeouts
+	 */
+	public TimingWheel(Clock clock, String name, long tick, TimeUnit unit, TimeoutDispatcher dispatcher) {
+		if (tick <= 0) {
+			throw new IllegalArgumentException("tick <= 0");
+		}
+		this.clock = clock;
+		this.name = name;
+		this.dispatcher = dispatcher;
+		this.tickNanos = unit.toNanos(tick);
+		this.startNanos = clock.nanoTime();
+		for (int level = 0; level < LEVELS; level++) {
+			for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+				Timer head = new Timer(null, null);
+				head.previous = head;
+				head.next = head;
+				slots[level][slot] = head;
+			}
+		}
+	}
+
+	/**
+	 * Starts the thread that dispatches elapsed timeouts
+	 */
+	public synchronized void start() {
+		if (thread != null || stopped) {
+			throw new IllegalStateException("Already started");
+		}
+		thread = clock.newThread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the thread of the wheel and the dispatcher. Pending timeouts no longer elapse, and the wheel cannot be
+	 * started again.
+	 */
+	public synchronized void stop() {
+		Thread wheelThread = thread;
+		if (wheelThread == null) {
+			return;
+		}
+		thread = null;
+		stopped = true;
+		dispatcher.shutdown();
+		wheelThread.interrupt();
+		try {
+			wheelThread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Schedules a timeout
+	 * @param timeout the time after which the timeout elapses, starting now
+	 * @param unit the unit of the timeout
+	 * @param handler the event handler that is called once the timeout elapses
+	 * @param tag the object passed to the handler
+	 * @return handle to cancel the timeout with
+	 */
+	public Timer schedule(long timeout, TimeUnit unit, ITimeoutEventHandler handler, Object tag) {
+		if (handler == null) {
+			throw new IllegalArgumentException("handler == null");
+		}
+		long elapsed = clock.nanoTime() - startNanos + Math.max(0, unit.toNanos(timeout));
+		Timer timer = new Timer(handler, tag);
+		lock.lock();
+		try {
+			timer.deadlineTick = Math.max(currentTick + 1, (elapsed + tickNanos - 1) / tickNanos);
+			timer.wheel = this;
+			place(timer);
+			pending++;
+		} finally {
+			lock.unlock();
+		}
+		return timer;
+	}
+
+	/**
+	 * @return the dispatcher that calls the handlers of elapsed timeouts
+	 */
+	public TimeoutDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * @return the number of pending timeouts
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return pending;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean cancel(Timer timer) {
+		lock.lock();
+		try {
+			if (timer.wheel == null) {
+				return false;
+			}
+			unlink(timer);
+			timer.wheel = null;
+			pending--;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Puts a timer in the slot for its deadline. Must be called while holding the lock.
+	 */
+	private void place(Timer timer) {
+		long delta = Math.min(timer.deadlineTick - currentTick, MAX_SPAN);
+		long deadline = currentTick + delta;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+			level++;
+		}
+		Timer head = slots[level][(int) (deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK];
+		timer.previous = head.previous;
+		timer.next = head;
+		head.previous.next = timer;
+		head.previous = timer;
+	}
+
+	private static void unlink(Timer timer) {
+		timer.previous.next = timer.next;
+		timer.next.previous = timer.previous;
+		timer.previous = null;
+		timer.next = null;
+	}
+
+	/**
+	 * Handles the ticks up to now and dispatches the elapsed timers
+	 */
+	private void run() {
+		List<Timer> elapsed = new ArrayList<>();
+		while (thread == Thread.currentThread()) {
+			long now = (clock.nanoTime() - startNanos) / tickNanos;
+			lock.lock();
+			try {
+				while (currentTick < now) {
+					advance(elapsed);
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			for (Timer timer : elapsed) {
+				dispatcher.dispatch(timer.handler, timer.tag);
+			}
+			elapsed.clear();
+
+			try {
+				clock.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(tickNanos)));
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Moves to the next tick, moves timers down from the wheels whose slot comes up, and collects the timers of
+	 * the tick. Must be called while holding the lock.
+	 */
+	private void advance(List<Timer> elapsed) {
+		currentTick++;
+		if (pending == 0) {
+			return;
+		}
+
+		// cascade from the highest wheel whose slot comes up, so timers can move down several wheels at once
+		int top = 0;
+		while (top < LEVELS - 1 && (currentTick & ((1L << (WHEEL_BITS * (top + 1))) - 1)) == 0) {
+			top++;
+		}
+		for (int level = top; level > 0; level--) {
+			Timer head = slots[level][(int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK];
+			Timer timer = head.next;
+			head.next = head;
+			head.previous = head;
+			while (timer != head) {
+				Timer next = timer.next;
+				place(timer);
+				timer = next;
+			}
+		}
+
+		Timer head = slots[0][(int) currentTick & WHEEL_MASK];
+		Timer timer = head.next;
+		while (timer != head) {
+			Timer next = timer.next;
+			if (timer.deadlineTick <= currentTick) {
+				unlink(timer);
+				timer.wheel = null;
+				pending--;
+				elapsed.add(timer);
+			}
+			timer = next;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package client;
+
+/**
+ * Packet together with the TRANSMIT line that sends it to the challenge server.
+ *
+ * The line is encoded once, by the protocol thread that sends the frame through a {@link NetworkLayer}, so the event
+ * loop answers a SLOT by writing it as it is, without encoding anything. A protocol that keeps the frame of a packet
+ * for its retransmissions, instead of the packet itself, sends it again without encoding it again. A network layer
+ * that does not talk to the server, like the one of the simulation, never encodes the line.
+ */
+public final class TransmitFrame {
+	private final byte[] packet;
+
+	// the encoded line, null until it is first needed
+	private volatile byte[] line;
+
+	/**
+	 * Constructs a frame
+	 * @param packet the content of the packet, must not be modified afterwards
+	 */
+	public TransmitFrame(byte[] packet) {
+		if (packet == null) {
+			throw new IllegalArgumentException("packet == null");
+		}
+		this.packet = packet;
+	}
+
+	/**
+	 * @return the content of the packet
+	 */
+	public byte[] getPacket() {
+		return packet;
+	}
+
+	/**
+	 * Returns the TRANSMIT line of the packet, encoding it on the first call. Concurrent first calls may both encode
+	 * it, with the same result.
+	 * @return the line, without line terminator
+	 */
+	public byte[] getLine() {
+		byte[] encoded = line;
+		if (encoded == null) {
+			encoded = Base64PacketCodec.encodeLine(DRDTChallengeClient.transmitPrefix, packet);
+			line = encoded;
+		}
+		return encoded;
+	}
+}
@@ -1,13 +1,11 @@
 package client;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
-//CODE
-import java.util.AbstractMap.SimpleEntry;
 
 /**
  * Helper utilities. Supplied for convenience.
@@ -16,9 +14,37 @@ import java.util.AbstractMap.SimpleEntry;
  * @version 10-02-2016
  */
 public class Utils {
+	private static volatile Clock clock = new SystemClock();
+	private static final InheritableThreadLocal<Clock> threadClock = new InheritableThreadLocal<>();
+
 	private Utils() {
 	}
 
+	/**
+	 * @return the clock used by the framework and the protocols. Threads created by a clock, and the threads
+	 * they start, keep using that clock even after it has been replaced.
+	 */
+	public static Clock getClock() {
+		Clock bound = threadClock.get();
+		return bound != null ? bound : clock;
+	}
+
+	/**
+	 * Replaces the clock, e.g. by a {@link VirtualClock} to simulate a transfer.
+	 * Must be called before the timeout helper is started.
+	 * @param clock the clock to use
+	 */
+	public static void setClock(Clock clock) {
+		Utils.clock = clock;
+	}
+
+	/**
+	 * Binds the calling thread, and the threads it will start, to the given clock
+	 */
+	static void bindClock(Clock clock) {
+		threadClock.set(clock);
+	}
+
 	/**
 	 * Helper method to get the current process ID
 	 *
@@ -38,28 +64,74 @@ public class Utils {
 			return 0;
 		}
 	}
+	/**
+	 * Converts a packet from the Integer representation to bytes, keeping the lowest 8 bits of every element.
+	 * @param packet the packet
+	 * @return the packet as bytes
+	 * @throws IllegalArgumentException if the packet or one of its elements is null
+	 */
+	public static byte[] toBytes(Integer[] packet) throws IllegalArgumentException {
+		if (packet == null) {
+			throw new IllegalArgumentException("packet == null");
+		}
+		byte[] packetContents = new byte[packet.length];
+		for (int i = 0; i < packet.length; i++) {
+			if (packet[i] == null) {
+				throw new IllegalArgumentException("packet[" + i + "] == null");
+			}
+			packetContents[i] = (byte) (packet[i] & 0x000000ff);
+		}
+		return packetContents;
+	}
+
+	/**
+	 * Converts a packet from bytes to the Integer representation, every element is in the range 0-255.
+	 * @param packet the packet
+	 * @return the packet as Integers
+	 */
+	public static Integer[] toIntegers(byte[] packet) {
+		Integer[] packetContents = new Integer[packet.length];
+		for (int i = 0; i < packet.length; i++) {
+			packetContents[i] = packet[i] & 0x000000ff;
+		}
+		return packetContents;
+	}
+
 	/**
 	 * Gets the contents of the specified file.
 	 * @param id the file ID
 	 * @return the array of integers, representing the contents of the file to transmit
 	 */
 	public static Integer[] getFileContents(int id) {
-		File fileToTransmit = new File(String.format("rdtcInput%d.png", id));
-		try (FileInputStream fileStream = new FileInputStream(fileToTransmit)) {
-			Integer[] fileContents = new Integer[(int) fileToTransmit.length()];
-
-			for (int i = 0; i < fileContents.length; i++) {
-				int nextByte = fileStream.read();
-				if (nextByte == -1) {
-					throw new Exception("File size is smaller than reported");
-				}
+		byte[] fileContents = getFileBytes(id);
+		return fileContents == null ? null : toIntegers(fileContents);
+	}
 
-				fileContents[i] = nextByte;
-			}
-			return fileContents;
+	/**
+	 * Writes the contents of the fileContents array to the specified file.
+	 * @param fileContents the contents to write
+	 * @param id the file ID
+	 */
+	public static void setFileContents(Integer[] fileContents, int id) {
+		File fileToWrite = getOutputFile(id);
+		try (FileOutputStream fileStream = new FileOutputStream(fileToWrite)) {
+			fileStream.write(toBytes(fileContents));
 		} catch (Exception e) {
 			System.err.println(e.getMessage());
 			System.err.println(e.getStackTrace());
+		}
+	}
+
+	/**
+	 * Gets the contents of the specified file as bytes.
+	 * @param id the file ID
+	 * @return the contents of the file to transmit, or null if it could not be read
+	 */
+	public static byte[] getFileBytes(int id) {
+		try {
+			return Files.readAllBytes(getInputFile(id).toPath());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
 			return null;
 		}
 	}
@@ -69,82 +141,98 @@ public class Utils {
 	 * @param fileContents the contents to write
 	 * @param id the file ID
 	 */
-	public static void setFileContents(Integer[] fileContents, int id) {
-		File fileToWrite = new File(String.format("rdtcOutput%d.%d.png", id, Utils.getProcessId()));
+	public static void setFileContents(byte[] fileContents, int id) {
+		File fileToWrite = getOutputFile(id);
 		try (FileOutputStream fileStream = new FileOutputStream(fileToWrite)) {
-			for (Integer fileContent : fileContents) {
-				fileStream.write(fileContent);
-			}
-		} catch (Exception e) {
+			fileStream.write(fileContents);
+		} catch (IOException e) {
 			System.err.println(e.getMessage());
-			System.err.println(e.getStackTrace());
 		}
 	}
 
+	/**
+	 * Gets the file to transmit.
+	 * @param id the file ID
+	 * @return the input file
+	 */
+	public static File getInputFile(int id) {
+		return new File(String.format("rdtcInput%d.png", id));
+	}
+
+	/**
+	 * Gets the file the received file is written to.
+	 * @param id the file ID
+	 * @return the output file of this process
+	 */
+	public static File getOutputFile(int id) {
+		return new File(String.format("rdtcOutput%d.%d.png", id, Utils.getProcessId()));
+	}
+
 	/**
 	 * Helper class for setting timeouts. Supplied for convenience.
+	 *
+	 * All its timeouts share one static timer, so only one client can use it in a JVM. Protocols set their
+	 * timeouts on the timer of their network layer with IRDTProtocol.setTimeout and stopTimeout instead.
 	 * 
 	 * @author Jaco ter Braak & Frans van Dijk, Twente University
 	 * @version 09-02-2016
+	 * @deprecated use the {@link Timeouts} of the protocol, through IRDTProtocol.setTimeout
 	 */
-	public static class Timeout implements Runnable {
-		private static Map<Date, Map<ITimeoutEventHandler, List<Object>>> eventHandlers = new HashMap<>();
-		//CODE
-		private static Map<Object, SimpleEntry<Date,ITimeoutEventHandler>> packetToDate = new HashMap<>();
-		private static Thread eventTriggerThread;
+	@Deprecated
+	public static class Timeout {
+		private static TimingWheel wheel;
+		private static Timeouts timeouts;
 		private static boolean started = false;
-		private static ReentrantLock lock = new ReentrantLock();
 
-		
-		
-		
 		/**
-		 * CODE
 		 * Stop timeout of given tag (acknowledged packet)
 		 */
 		public static void stopTimeOut(Object tag) {
-			if(tag != null) {
-				Integer[] pkt = (Integer[])tag;
-				if(packetToDate.get(tag) != null) {
-					Date elapsedMoment = packetToDate.get(tag).getKey();
-					ITimeoutEventHandler handler = packetToDate.get(tag).getValue();
-					if(elapsedMoment != null && handler != null) {
-						if(eventHandlers.get(elapsedMoment) != null && eventHandlers.get(elapsedMoment).get(handler) != null) {
-							eventHandlers.get(elapsedMoment).get(handler).remove(tag);
-						}
-					}
-				}
+			Timeouts current = getTimeouts();
+			if (current != null) {
+				current.stop(tag);
 			}
 		}
-		
-		
+
 		/**
 		 * Starts the helper thread
 		 */
-		public static void Start() {
-			if (started)
+		public static synchronized void Start() {
+			if (started && wheel != null)
 				throw new IllegalStateException("Already started");
 			started = true;
-			eventTriggerThread = new Thread(new Timeout());
-			eventTriggerThread.start();
+			wheel = new TimingWheel(getClock(), "Timeout Thread");
+			timeouts = new Timeouts(wheel);
+			wheel.start();
 		}
 
 		/**
 		 * Stops the helper thread
 		 */
-		public static void Stop() {
+		public static synchronized void Stop() {
 			if (!started)
 				throw new IllegalStateException(
 						"Not started or already stopped");
-			eventTriggerThread.interrupt();
-			try {
-				eventTriggerThread.join();
-			} catch (InterruptedException e) {
-			}
+			if (wheel == null)
+				return;
+			wheel.stop();
+			wheel = null;
+			timeouts = null;
 		}
 
 		/**
-		 * Set a timeout
+		 * @return the time between timeouts elapsing and their handlers being called, null if not started
+		 */
+		public static synchronized MetricsRegistry.Histogram getQueueingDelay() {
+			return wheel == null ? null : wheel.getDispatcher().getQueueingDelay();
+		}
+
+		private static synchronized Timeouts getTimeouts() {
+			return timeouts;
+		}
+
+		/**
+		 * Set a timeout, does nothing if the helper thread is not started
 		 * 
 		 * @param millisecondsTimeout
 		 *            the timeout interval, starting now
@@ -153,86 +241,10 @@ public class Utils {
 		 */
 		public static void SetTimeout(long millisecondsTimeout,
 				ITimeoutEventHandler handler, Object tag) {
-			Date elapsedMoment = new Date();
-			elapsedMoment
-					.setTime(elapsedMoment.getTime() + millisecondsTimeout);
-
-			lock.lock();
-			if (!eventHandlers.containsKey(elapsedMoment)) {
-				eventHandlers.put(elapsedMoment,
-						new HashMap<>());
-			}
-			if (!eventHandlers.get(elapsedMoment).containsKey(handler)) {
-				eventHandlers.get(elapsedMoment).put(handler,
-						new ArrayList<>());
-			}
-			eventHandlers.get(elapsedMoment).get(handler).add(tag);
-			//CODE
-			//Remove time out of previous tag (if there is any)
-			if(packetToDate.containsKey(tag)) {
-				stopTimeOut(tag);
+			Timeouts current = getTimeouts();
+			if (current != null) {
+				current.set(millisecondsTimeout, handler, tag);
 			}
-			packetToDate.put(tag, new SimpleEntry<>(elapsedMoment,handler));
-			
-			
-			lock.unlock();
-		}
-
-		/**
-		 * Do not call this
-		 */
-		@Override
-		public void run() {
-			boolean runThread = true;
-			ArrayList<Date> datesToRemove = new ArrayList<>();
-			HashMap<ITimeoutEventHandler, List<Object>> handlersToInvoke = new HashMap<>();
-			Date now;
-
-			while (runThread) {
-				try {
-					now = new Date();
-
-					// If any timeouts have elapsed, trigger their handlers
-					lock.lock();
-
-					for (Date date : eventHandlers.keySet()) {
-						if (date.before(now)) {
-							datesToRemove.add(date);
-							for (ITimeoutEventHandler handler : eventHandlers.get(date).keySet()) {
-								if (!handlersToInvoke.containsKey(handler)) {
-									handlersToInvoke.put(handler,
-											new ArrayList<>());
-								}
-								for (Object tag : eventHandlers.get(date).get(
-										handler)) {
-									handlersToInvoke.get(handler).add(tag);
-								}
-							}
-						}
-					}
-
-					// Remove elapsed events
-					for (Date date : datesToRemove) {
-						eventHandlers.remove(date);
-					}
-					datesToRemove.clear();
-
-					lock.unlock();
-
-					// Invoke the event handlers outside of the lock, to prevent
-					// deadlocks
-					for (ITimeoutEventHandler handler : handlersToInvoke
-							.keySet()) {
-						handlersToInvoke.get(handler).forEach(handler::TimeoutElapsed);
-					}
-					handlersToInvoke.clear();
-
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					runThread = false;
-				}
-			}
-
 		}
 	}
 }
@@ -0,0 +1,213 @@
+package client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Clock for deterministic discrete-event simulation.
+ *
+ * Threads that use this clock (participants) run one at a time. A participant keeps running until it sleeps,
+ * at which point the participant with the earliest wake-up time continues and virtual time jumps to that
+ * wake-up time. Ties are broken by the order in which the participants were registered, so a run only
+ * depends on the code and the random seeds, not on the scheduling of the JVM.
+ *
+ * Participants must not block on anything other than this clock while the simulation runs, because no other
+ * participant can run until they sleep. Threads should be created through {@link #newThread}; threads
+ * that sleep without having been created that way are registered on their first sleep. No participant runs
+ * before {@link #start()} is called, so all threads of a simulation can be created first.
+ */
+public class VirtualClock implements Clock {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final PriorityQueue<Participant> queue = new PriorityQueue<>();
+	private final Map<Thread, Participant> participants = new HashMap<>();
+	private Participant running = null;
+	private long now = 0;
+	private int nextId = 0;
+	private boolean started = false;
+	private boolean shutdown = false;
+
+	private class Participant implements Comparable<Participant> {
+		private final int id;
+		private final Condition turn = lock.newCondition();
+		private long wakeTime;
+
+		private Participant(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(Participant other) {
+			if (wakeTime != other.wakeTime) {
+				return Long.compare(wakeTime, other.wakeTime);
+			}
+			return Integer.compare(id, other.id);
+		}
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		lock.lock();
+		try {
+			return now;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long nanoTime() {
+		return currentTimeMillis() * 1000000L;
+	}
+
+	@Override
+	public void sleep(long milliseconds) throws InterruptedException {
+		lock.lock();
+		try {
+			if (!shutdown) {
+				Participant participant = participants.get(Thread.currentThread());
+				if (participant == null) {
+					participant = new Participant(nextId++);
+					participants.put(Thread.currentThread(), participant);
+				}
+				participant.wakeTime = now + Math.max(0, milliseconds);
+				queue.add(participant);
+				if (running == participant) {
+					running = null;
+				}
+				awaitTurn(participant);
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		// after a shutdown, sleep on wall-clock time so leftover polling loops do not spin
+		Thread.sleep(milliseconds);
+		throw new InterruptedException("Clock was shut down");
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable, String name) {
+		lock.lock();
+		try {
+			Participant participant = new Participant(nextId++);
+			participant.wakeTime = now;
+			queue.add(participant);
+
+			Thread thread = new Thread(() -> {
+				Utils.bindClock(this);
+				try {
+					lock.lock();
+					try {
+						awaitTurn(participant);
+					} finally {
+						lock.unlock();
+					}
+					runnable.run();
+				} catch (InterruptedException e) {
+					// shut down before the thread got its first turn
+				} finally {
+					leave(participant);
+				}
+			}, name);
+			thread.setDaemon(true);
+			participants.put(thread, participant);
+			return thread;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Starts the simulation by letting the first participant run.
+	 */
+	public void start() {
+		lock.lock();
+		try {
+			started = true;
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the simulation. All participants waiting for their turn, and all later sleeps, are interrupted.
+	 */
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			for (Participant participant : participants.values()) {
+				participant.turn.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return whether the clock has been shut down
+	 */
+	public boolean isShutdown() {
+		lock.lock();
+		try {
+			return shutdown;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the given participant is scheduled. Must be called while holding the lock.
+	 */
+	private void awaitTurn(Participant participant) throws InterruptedException {
+		dispatch();
+		try {
+			while (running != participant) {
+				if (shutdown) {
+					throw new InterruptedException("Clock was shut down");
+				}
+				participant.turn.await();
+			}
+		} catch (InterruptedException e) {
+			queue.remove(participant);
+			if (running == participant) {
+				running = null;
+				dispatch();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Removes the participant of a terminating thread.
+	 */
+	private void leave(Participant participant) {
+		lock.lock();
+		try {
+			participants.values().remove(participant);
+			queue.remove(participant);
+			if (running == participant) {
+				running = null;
+			}
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands the turn to the next participant if nobody is running. Must be called while holding the lock.
+	 */
+	private void dispatch() {
+		if (started && running == null && !queue.isEmpty() && !shutdown) {
+			running = queue.poll();
+			now = Math.max(now, running.wakeTime);
+			running.turn.signal();
+		}
+	}
+}
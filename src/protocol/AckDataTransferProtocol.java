@@ -1,7 +1,10 @@
 package protocol;
 
+import client.PacketClass;
+import client.ReassemblySink;
+import client.SegmentSource;
 import client.Utils;
-import java.util.Arrays;
+import java.io.IOException;
 
 //CODE entire class
 public class AckDataTransferProtocol extends IRDTProtocol {
@@ -15,14 +18,20 @@ public class AckDataTransferProtocol extends IRDTProtocol {
 	public void sender() {
 		System.out.println("Sending...");
 
-		// read from the input file
-		Integer[] fileContents = Utils.getFileContents(getFileID());
+		// map the input file, packets are read from it as they are sent
+		SegmentSource fileContents;
+		try {
+			fileContents = SegmentSource.open(getFileID(), DATASIZE);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
 
 		// keep track of where we are in the data
-		int filePointer = 0;
+		long filePointer = 0;
 
 		// send packets
-		while(filePointer < fileContents.length) {
+		while(filePointer < fileContents.getLength()) {
 			// create a new packet of appropriate size
 			Integer[] pkt = createPacket(filePointer, fileContents, DEFAULT_HEADER);
 
@@ -39,6 +48,11 @@ public class AckDataTransferProtocol extends IRDTProtocol {
 
 		// Send end of file header
 		sendEmptyPacket(ENDOFFILE_HEADER, true);
+		try {
+			fileContents.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
 	}
 
 	/**
@@ -48,33 +62,33 @@ public class AckDataTransferProtocol extends IRDTProtocol {
 	 */
 	public void waitForAck(Integer[] pkt) {
 		// schedule a timer for 1000 ms into the future, just to show how that works:
-		Utils.Timeout.SetTimeout(500, this, pkt);
+		setTimeout(500, pkt);
 
 		boolean stop = false;
 		while (!stop) {
       // Get packet from server
       Integer[] receivedPkt = getNetworkLayer().receivePacket();
       if(receivedPkt != null && receivedPkt[0] == ACK_HEADER) {
-      	Utils.Timeout.stopTimeOut(pkt);
+      	stopTimeout(pkt);
         stop = true;
       }
 
       try {
-        Thread.sleep(10);
+        Utils.getClock().sleep(10);
       } catch (InterruptedException e) {
         stop = true;
       }
     }
 	}
 
-	public Integer[] createPacket(int filePointer, Integer[] fileContents, int header) {
+	public Integer[] createPacket(long filePointer, SegmentSource fileContents, int header) {
 		// create a new packet of appropriate size
-		int datalen = Math.min(DATASIZE, fileContents.length - filePointer);
+		int datalen = (int) Math.min(DATASIZE, fileContents.getLength() - filePointer);
 		Integer[] pkt = new Integer[HEADERSIZE + datalen];
 		// create header
 		pkt[0] = header;
 		// copy databytes from the input file into data part of the packet, i.e., after the header
-		System.arraycopy(fileContents, filePointer, pkt, HEADERSIZE, datalen);
+		fileContents.get(filePointer, pkt, HEADERSIZE, datalen);
 
 		return pkt;
 	}
@@ -97,7 +111,7 @@ public class AckDataTransferProtocol extends IRDTProtocol {
 		if(tag instanceof Integer[]) {
 			Integer[] pkt = (Integer[])tag;
 			//resend
-			getNetworkLayer().sendPacket(pkt);
+			getNetworkLayer().sendPacket(pkt, PacketClass.RETRANSMIT);
 			System.out.println("Resent packet with header=" + pkt[0]);
 
 			waitForAck(pkt);
@@ -108,10 +122,15 @@ public class AckDataTransferProtocol extends IRDTProtocol {
 	public void receiver() {
 		System.out.println("Receiving...");
 
-		// create the array that will contain the file contents
-		// note: we don't know yet how large the file will be, so the easiest (but not most efficient)
-		//   is to reallocate the array every time we find out there's more data
-		Integer[] fileContents = new Integer[0];
+		// write the file contents straight into the output file, each packet at its offset
+		ReassemblySink fileContents;
+		try {
+			fileContents = new ReassemblySink(getFileID(), getNetworkLayer().getOutputChecksum());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		long filePointer = 0;
 
 		// loop until we are done receiving the file
 		boolean stop = false;
@@ -135,23 +154,31 @@ public class AckDataTransferProtocol extends IRDTProtocol {
 					break;
 				}
 
-				// append the packet's data part (excluding the header) to the fileContents array, first making it larger
-				int oldlength=fileContents.length;
+				// write the packet's data part (excluding the header) after the data received so far
 				int datalen= packet.length - HEADERSIZE;
-				fileContents = Arrays.copyOf(fileContents, oldlength+datalen);
-				System.arraycopy(packet, HEADERSIZE, fileContents, oldlength, datalen);
+				try {
+					fileContents.write(filePointer, packet, HEADERSIZE, datalen);
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+					break;
+				}
+				filePointer += datalen;
 
 			}else{
 				// wait ~10ms (or however long the OS makes us wait) before trying again
 				try {
-					Thread.sleep(10);
+					Utils.getClock().sleep(10);
 				} catch (InterruptedException e) {
 					stop = true;
 				}
 			}
 		}
 
-		// write to the output file
-		Utils.setFileContents(fileContents, getFileID());
+		// close the output file
+		try {
+			fileContents.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+package protocol;
+
+/**
+ * Window controller with slow start, additive increase and multiplicative decrease, after TCP Reno (RFC 5681).
+ *
+ * Below the slow start threshold the window grows by one packet for every acknowledged packet, so it doubles every
+ * round trip. Above it, the window grows by one packet per window of acknowledged packets. A loss multiplies the
+ * window by a decrease factor, and a timeout also restarts slow start from one packet. Losses of packets that were
+ * sent before the last decrease belong to the same loss event and do not decrease the window again.
+ */
+public class AimdWindowController implements IWindowController {
+	/**
+	 * Default window at the start of the transfer
+	 */
+	public static final int DEFAULT_INITIAL_WINDOW = 4;
+	/**
+	 * Default factor the window is multiplied with on a loss
+	 */
+	public static final double DEFAULT_DECREASE = 0.5;
+
+	// the window never shrinks below this after a loss, so fast retransmits keep working
+	private static final double MIN_WINDOW = 2;
+
+	private final int maxWindow;
+	private final double decrease;
+
+	private double window;
+	private double slowStartThreshold;
+	private int highestSent;
+	// losses of packets up to this one belong to the last loss event
+	private int recoveryPoint;
+	private boolean sentAny = false;
+	private boolean recovering = false;
+	private long lossEvents = 0;
+	private long timeouts = 0;
+
+	/**
+	 * Constructs a controller with the default initial window and decrease factor
+	 * @param maxWindow the largest window, usually the receive window
+	 */
+	public AimdWindowController(int maxWindow) {
+		this(Math.min(DEFAULT_INITIAL_WINDOW, maxWindow), maxWindow, DEFAULT_DECREASE);
+	}
+
+	/**
+	 * Constructs a controller
+	 * @param initialWindow the window at the start of the transfer
+	 * @param maxWindow the largest window, usually the receive window
+	 * @param decrease the factor the window is multiplied with on a loss, between 0 and 1
+	 */
+	public AimdWindowController(int initialWindow, int maxWindow, double decrease) {
+		if (initialWindow <= 0 || maxWindow < initialWindow) {
+			throw new IllegalArgumentException("Invalid window bounds");
+		}
+		if (decrease <= 0 || decrease >= 1) {
+			throw new IllegalArgumentException("decrease must be between 0 and 1");
+		}
+		this.maxWindow = maxWindow;
+		this.decrease = decrease;
+		this.window = initialWindow;
+		this.slowStartThreshold = maxWindow;
+	}
+
+	@Override
+	public synchronized int getWindow() {
+		return Math.max(1, (int) window);
+	}
+
+	@Override
+	public synchronized void onSent(int seqNumber) {
+		if (!sentAny || PacketHeader.compare(seqNumber, highestSent) > 0) {
+			highestSent = seqNumber;
+			sentAny = true;
+		}
+	}
+
+	@Override
+	public synchronized void onAcknowledged(int packets) {
+		for (int i = 0; i < packets; i++) {
+			if (window < slowStartThreshold) {
+				window += 1;
+			} else {
+				window += 1 / window;
+			}
+		}
+		window = Math.min(window, maxWindow);
+	}
+
+	@Override
+	public synchronized void onLoss(int seqNumber) {
+		if (isCongestion(seqNumber)) {
+			decreaseWindow(false);
+		}
+	}
+
+	@Override
+	public synchronized void onTimeout(int seqNumber) {
+		timeouts++;
+		if (isCongestion(seqNumber)) {
+			decreaseWindow(true);
+		}
+	}
+
+	/**
+	 * Decides whether a loss or timeout is a sign of congestion that must decrease the window. Must be called while
+	 * holding the lock of this controller.
+	 * @param seqNumber the sequence number of the lost packet
+	 * @return true if the packet was sent after the last decrease
+	 */
+	protected boolean isCongestion(int seqNumber) {
+		return !recovering || PacketHeader.compare(seqNumber, recoveryPoint) > 0;
+	}
+
+	/**
+	 * Multiplies the window by the decrease factor, and makes the packets sent so far part of this loss event. Must
+	 * be called while holding the lock of this controller.
+	 * @param restart whether to restart slow start from one packet, after a timeout
+	 */
+	protected void decreaseWindow(boolean restart) {
+		slowStartThreshold = Math.max(MIN_WINDOW, window * decrease);
+		window = restart ? 1 : slowStartThreshold;
+		recovering = true;
+		recoveryPoint = highestSent;
+		lossEvents++;
+	}
+
+	/**
+	 * @return the window as a fraction of packets
+	 */
+	public synchronized double getExactWindow() {
+		return window;
+	}
+
+	/**
+	 * @return the window above which the window grows by one packet per round trip
+	 */
+	public synchronized double getSlowStartThreshold() {
+		return slowStartThreshold;
+	}
+
+	/**
+	 * @return the factor the window is multiplied with on a loss
+	 */
+	public double getDecrease() {
+		return decrease;
+	}
+
+	/**
+	 * @return the number of loss events that decreased the window
+	 */
+	public synchronized long getLossEvents() {
+		return lossEvents;
+	}
+
+	/**
+	 * @return the number of retransmission timeouts
+	 */
+	public synchronized long getTimeouts() {
+		return timeouts;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s: cwnd %.1f, ssthresh %.1f, %d loss events, %d timeouts", getClass().getSimpleName(),
+				window, slowStartThreshold, lossEvents, timeouts);
+	}
+}
@@ -0,0 +1,87 @@
+package protocol;
+
+import client.PacketClass;
+import client.ReassemblySink;
+import client.RunningChecksum;
+import client.TransmitFrame;
+import client.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Data transfer protocol that handles packets and file contents as bytes instead of Integers.
+ */
+public abstract class ByteRDTProtocol extends IRDTProtocol {
+
+	/**
+	 * Sends a packet through the network layer. The array must not be modified afterwards.
+	 * @param packet the content of the packet
+	 */
+	protected void sendPacket(byte[] packet) {
+		getNetworkLayer().sendPacket(packet);
+	}
+
+	/**
+	 * Sends a packet through the network layer, after the waiting packets of higher classes.
+	 * @param packet the content of the packet
+	 * @param packetClass the class that decides how soon it is sent
+	 */
+	protected void sendPacket(byte[] packet, PacketClass packetClass) {
+		getNetworkLayer().sendPacket(packet, packetClass);
+	}
+
+	/**
+	 * Sends a packet through the network layer as a frame, which can be sent again without encoding it again.
+	 * @param frame the frame of the packet
+	 * @param packetClass the class that decides how soon it is sent
+	 */
+	protected void sendFrame(TransmitFrame frame, PacketClass packetClass) {
+		getNetworkLayer().sendFrame(frame, packetClass);
+	}
+
+	/**
+	 * Sends the remaining bytes of a buffer as a packet through the network layer.
+	 * @param packet the content of the packet
+	 */
+	protected void sendPacket(ByteBuffer packet) {
+		getNetworkLayer().sendPacket(packet);
+	}
+
+	/**
+	 * Receives a packet from the network layer.
+	 * @return the content of the packet, or null if no packet was received
+	 */
+	protected byte[] receivePacket() {
+		return getNetworkLayer().receivePacketBytes();
+	}
+
+	/**
+	 * @return the contents of the file to send, or null if it could not be read
+	 */
+	protected byte[] getFileContents() {
+		return Utils.getFileBytes(getFileID());
+	}
+
+	/**
+	 * Writes the received file, and adds it to the checksum of the network layer, if any.
+	 * @param fileContents the contents of the file
+	 */
+	protected void setFileContents(byte[] fileContents) {
+		Utils.setFileContents(fileContents, getFileID());
+		RunningChecksum checksum = getNetworkLayer().getOutputChecksum();
+		if (checksum != null) {
+			checksum.update(fileContents, 0, fileContents.length);
+		}
+	}
+
+	/**
+	 * Opens the output file to write the received file into as it arrives, adding it to the checksum of the network
+	 * layer, if any.
+	 * @return the sink, to be closed once the file is received
+	 * @throws IOException if the file cannot be opened
+	 */
+	protected ReassemblySink openFileSink() throws IOException {
+		return new ReassemblySink(getFileID(), getNetworkLayer().getOutputChecksum());
+	}
+}
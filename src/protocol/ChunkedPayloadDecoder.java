@@ -0,0 +1,46 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Codec stage of the receiver: decodes the payloads of the DATA packets in order, with the codec in their flags, as
+ * they arrive. Payloads with codec ID 0 are raw file bytes.
+ */
+public final class ChunkedPayloadDecoder {
+	private final Map<Integer, IPayloadCodec.Decoder> decoders = new HashMap<>();
+
+	/**
+	 * Constructs a decoder
+	 * @param codecs the codecs the sender may use
+	 */
+	public ChunkedPayloadDecoder(IPayloadCodec... codecs) {
+		for (IPayloadCodec codec : codecs) {
+			decoders.put(codec.getId(), codec.newDecoder());
+		}
+	}
+
+	/**
+	 * Decodes the payload of the next DATA packet
+	 * @param flags the flags of the packet
+	 * @param data the array holding the payload
+	 * @param offset the start of the payload in the array
+	 * @param length the length of the payload
+	 * @param out the stream to write the decoded bytes to
+	 * @throws IOException if the codec is unknown, the payload is invalid or writing fails
+	 */
+	public void decode(int flags, byte[] data, int offset, int length, OutputStream out) throws IOException {
+		int codecId = flags & PacketHeader.FLAGS_CODEC;
+		if (codecId == 0) {
+			out.write(data, offset, length);
+			return;
+		}
+		IPayloadCodec.Decoder decoder = decoders.get(codecId);
+		if (decoder == null) {
+			throw new IOException("Unknown payload codec " + codecId);
+		}
+		decoder.decode(data, offset, length, out);
+	}
+}
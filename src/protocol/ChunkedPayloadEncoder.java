@@ -0,0 +1,155 @@
+package protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Codec stage of the sender between the file and the packets: encodes the file in independent chunks with an
+ * {@link IPayloadCodec}, in parallel on a {@link ForkJoinPool}.
+ *
+ * Chunks that the codec does not shrink by at least 1/{@link #MIN_SAVING}, such as the already deflated image data
+ * of a PNG file, are stored raw. The codec first encodes a sample at the start of each chunk, so incompressible
+ * chunks cost little time. Consecutive chunks with the same codec form one {@link Segment}, so only a switch between
+ * raw and encoded chunks ends a packet early.
+ */
+public final class ChunkedPayloadEncoder {
+	/**
+	 * Default number of file bytes per chunk
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 32768;
+	static final int SAMPLE_SIZE = 4096;   // bytes encoded first to detect incompressible chunks
+	static final int MIN_SAVING = 32;   // chunks are stored raw unless they shrink by 1/MIN_SAVING
+
+	private final IPayloadCodec codec;
+	private final int chunkSize;
+
+	/**
+	 * Encoded bytes of consecutive chunks with the same codec, sent in packets that carry the codec ID in their flags
+	 */
+	public static final class Segment {
+		private final int codecId;
+		private final byte[] data;
+
+		/**
+		 * Constructs a segment
+		 * @param codecId the ID of the codec, 0 for raw file bytes
+		 * @param data the encoded bytes
+		 */
+		public Segment(int codecId, byte[] data) {
+			this.codecId = codecId;
+			this.data = data;
+		}
+
+		/**
+		 * @return the ID of the codec, 0 for raw file bytes
+		 */
+		public int getCodecId() {
+			return codecId;
+		}
+
+		/**
+		 * @return the encoded bytes
+		 */
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	/**
+	 * Constructs an encoder with chunks of {@link #DEFAULT_CHUNK_SIZE} bytes
+	 * @param codec the codec of the chunks that it shrinks
+	 */
+	public ChunkedPayloadEncoder(IPayloadCodec codec) {
+		this(codec, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructs an encoder
+	 * @param codec the codec of the chunks that it shrinks
+	 * @param chunkSize the number of file bytes per chunk
+	 */
+	public ChunkedPayloadEncoder(IPayloadCodec codec, int chunkSize) {
+		if (codec.getId() <= 0 || codec.getId() > PacketHeader.FLAGS_CODEC || chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid codec ID or chunk size");
+		}
+		this.codec = codec;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Starts encoding a file
+	 * @param file the contents of the file
+	 * @param pool the pool whose threads encode the chunks
+	 * @return the task, which results in the segments of the file in order
+	 */
+	public ForkJoinTask<List<Segment>> submit(byte[] file, ForkJoinPool pool) {
+		return pool.submit(() -> encode(file));
+	}
+
+	private List<Segment> encode(byte[] file) {
+		List<ForkJoinTask<byte[]>> chunks = new ArrayList<>();
+		for (int offset = 0; offset < file.length; offset += chunkSize) {
+			int start = offset;
+			chunks.add(ForkJoinTask.adapt(() -> encodeChunk(file, start, Math.min(chunkSize, file.length - start))));
+		}
+		ForkJoinTask.invokeAll(chunks);
+
+		// file offset where the current segment starts, which is encoded if there are encoded bytes
+		List<Segment> segments = new ArrayList<>();
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		int start = 0;
+		for (int chunk = 0; chunk < chunks.size(); chunk++) {
+			byte[] data = chunks.get(chunk).join();
+			int offset = chunk * chunkSize;
+			if (offset > start && (data == null) != (encoded.size() == 0)) {
+				segments.add(toSegment(file, start, offset, encoded));
+				start = offset;
+			}
+			if (data != null) {
+				encoded.write(data, 0, data.length);
+			}
+		}
+		if (start < file.length) {
+			segments.add(toSegment(file, start, file.length, encoded));
+		}
+		return segments;
+	}
+
+	private Segment toSegment(byte[] file, int start, int end, ByteArrayOutputStream encoded) {
+		if (encoded.size() == 0) {
+			return new Segment(0, start == 0 && end == file.length ? file : Arrays.copyOfRange(file, start, end));
+		}
+		Segment segment = new Segment(codec.getId(), encoded.toByteArray());
+		encoded.reset();
+		return segment;
+	}
+
+	/**
+	 * @return the encoded chunk, or null if it is to be stored raw
+	 */
+	private byte[] encodeChunk(byte[] file, int offset, int length) {
+		if (length > SAMPLE_SIZE && codec.encode(file, offset, SAMPLE_SIZE).length > SAMPLE_SIZE - SAMPLE_SIZE / MIN_SAVING) {
+			return null;
+		}
+		byte[] encoded = codec.encode(file, offset, length);
+		return encoded.length > length - length / MIN_SAVING ? null : encoded;
+	}
+
+	/**
+	 * @return the codec of the chunks that it shrinks
+	 */
+	public IPayloadCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * @return the number of file bytes per chunk
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+}
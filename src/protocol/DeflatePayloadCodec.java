@@ -0,0 +1,104 @@
+package protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Payload codec with the deflate algorithm of java.util.zip, every chunk is a separate zlib stream.
+ *
+ * The JDK has no LZ4, so the fast setting is deflate at {@link Deflater#BEST_SPEED}, the default.
+ */
+public class DeflatePayloadCodec implements IPayloadCodec {
+	/**
+	 * ID of the codec in the packet flags
+	 */
+	public static final int ID = 1;
+	static final int BUFFER_SIZE = 8192;   // bytes deflated or inflated per call
+
+	private final int level;
+
+	/**
+	 * Constructs the codec with compression level {@link Deflater#BEST_SPEED}
+	 */
+	public DeflatePayloadCodec() {
+		this(Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * Constructs the codec
+	 * @param level the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+	 */
+	public DeflatePayloadCodec(int level) {
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+		this.level = level;
+	}
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public byte[] encode(byte[] data, int offset, int length) {
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (!deflater.finished()) {
+				encoded.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return encoded.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public IPayloadCodec.Decoder newDecoder() {
+		return new Decoder();
+	}
+
+	/**
+	 * Inflates the zlib streams one after the other, the bytes after the end of a stream start the next one
+	 */
+	private static class Decoder implements IPayloadCodec.Decoder {
+		private final Inflater inflater = new Inflater();
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+
+		@Override
+		public void decode(byte[] data, int offset, int length, OutputStream out) throws IOException {
+			inflater.setInput(data, offset, length);
+			try {
+				while (true) {
+					int inflated = inflater.inflate(buffer);
+					out.write(buffer, 0, inflated);
+					if (inflater.finished()) {
+						int remaining = inflater.getRemaining();
+						inflater.reset();
+						if (remaining == 0) {
+							return;
+						}
+						offset += length - remaining;
+						length = remaining;
+						inflater.setInput(data, offset, length);
+					} else if (inflater.needsDictionary()) {
+						throw new ZipException("Preset dictionaries are not supported");
+					} else if (inflated == 0 && inflater.needsInput()) {
+						return;
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+		}
+	}
+}
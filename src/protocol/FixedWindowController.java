@@ -0,0 +1,45 @@
+package protocol;
+
+/**
+ * Window controller with a window that never changes, as the sliding window protocol had before.
+ */
+public class FixedWindowController implements IWindowController {
+	private final int window;
+
+	/**
+	 * Constructs a controller
+	 * @param window the number of packets in flight
+	 */
+	public FixedWindowController(int window) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("window <= 0");
+		}
+		this.window = window;
+	}
+
+	@Override
+	public int getWindow() {
+		return window;
+	}
+
+	@Override
+	public void onSent(int seqNumber) {
+	}
+
+	@Override
+	public void onAcknowledged(int packets) {
+	}
+
+	@Override
+	public void onLoss(int seqNumber) {
+	}
+
+	@Override
+	public void onTimeout(int seqNumber) {
+	}
+
+	@Override
+	public String toString() {
+		return "fixed window " + window;
+	}
+}
@@ -0,0 +1,202 @@
+package protocol;
+
+import client.Log;
+import client.PacketClass;
+import client.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rateless data transfer protocol with a systematic {@link LtCode}.
+ *
+ * The sender streams encoded symbols, the source symbols first and then ever new repair symbols, until the receiver
+ * reports that it has decoded the file. Which symbols are lost does not matter, since any slightly more than k
+ * symbols decode the file, so there are no retransmissions and no per-packet acknowledgements. The receiver decodes
+ * with an incremental {@link LtDecoder}, and sends only a progress report on the first and every
+ * {@link #PROGRESS_INTERVAL}th symbol, which paces the sender, and a few DONE packets at the end.
+ *
+ * Every symbol packet carries the length of the file in front of the symbol, so the receiver needs no other setup.
+ */
+public class FountainDataTransferProtocol extends ByteRDTProtocol {
+	static final int HEADERSIZE = PacketHeader.SIZE;   // number of header bytes in each packet
+	static final int DEFAULT_SYMBOL_SIZE = 4096;   // number of bytes of each symbol
+	static final int PROGRESS_INTERVAL = 8;   // symbols received per progress report
+	static final int MIN_WINDOW = 2 * PROGRESS_INTERVAL;   // symbols sent beyond the last reported one
+	static final int DONE_COPIES = 3;   // copies of the DONE packet
+	static final int MAX_STALLS = 5;   // stalls without any packet from the receiver after which it is assumed done
+	static final int INITIAL_RTO = 1000;
+	static final int MIN_RTO = 20;
+	static final int MAX_RTO = 60000;
+
+	private final int symbolSize;
+	private final RttEstimator rttEstimator = new RttEstimator(INITIAL_RTO, MIN_RTO, MAX_RTO);
+
+	// sender state: the highest symbol the receiver reported, and the delivery rate and smallest RTT it shows
+	private int reported = -1;
+	private long reportedTime;
+	private double symbolsPerMilli = 0;
+	private double minRttMillis = Double.MAX_VALUE;
+
+	/**
+	 * Constructs the protocol with symbols of {@link #DEFAULT_SYMBOL_SIZE} bytes
+	 */
+	public FountainDataTransferProtocol() {
+		this(DEFAULT_SYMBOL_SIZE);
+	}
+
+	/**
+	 * Constructs the protocol
+	 * @param symbolSize the number of bytes of each symbol, the receiver takes it from the packets
+	 */
+	public FountainDataTransferProtocol(int symbolSize) {
+		if (symbolSize <= 0) {
+			throw new IllegalArgumentException("symbolSize <= 0");
+		}
+		this.symbolSize = symbolSize;
+	}
+
+	@Override
+	public void sender() {
+		Log.info("Sending...");
+		byte[] fileContents = getFileContents();
+		int sourceSymbols = (fileContents.length + symbolSize - 1) / symbolSize;
+		LtCode code = new LtCode(sourceSymbols);
+		Log.info("File of " + fileContents.length + " bytes, " + sourceSymbols + " source symbols of "
+				+ symbolSize + " bytes");
+
+		Map<Integer, Long> sendTimes = new HashMap<>();
+		int next = 0;
+		int stalls = 0;
+		reportedTime = Utils.getClock().nanoTime();
+		while (true) {
+			while (next - reported <= getWindow(sourceSymbols)) {
+				byte[] packet = new byte[HEADERSIZE + 4 + symbolSize];
+				new PacketHeader(PacketHeader.TYPE_SYMBOL, 0, next).write(packet);
+				ByteBuffer.wrap(packet, HEADERSIZE, 4).putInt(fileContents.length);
+				System.arraycopy(code.encode(next, fileContents, symbolSize), 0, packet, HEADERSIZE + 4, symbolSize);
+				sendTimes.put(next, Utils.getClock().nanoTime());
+				sendPacket(packet);
+				next++;
+			}
+
+			byte[] packet;
+			try {
+				packet = getNetworkLayer().receivePacketBytes(rttEstimator.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			PacketHeader header = PacketHeader.read(packet);
+			if (header == null) {
+				// the reports may have been lost, so send on, but only once per timeout
+				rttEstimator.onTimeout();
+				if (++stalls >= MAX_STALLS) {
+					Log.info("No report after " + stalls + " timeouts, assuming the receiver is done");
+					break;
+				}
+				reported += PROGRESS_INTERVAL;
+				continue;
+			}
+			stalls = 0;
+			if (header.getType() == PacketHeader.TYPE_DONE) {
+				Log.info("Receiver done after " + next + " symbols");
+				break;
+			}
+			if (header.getType() == PacketHeader.TYPE_ACK) {
+				Long sendTime = sendTimes.remove(header.getSequenceNumber());
+				onReport(header.getSequenceNumber(), sendTime);
+				sendTimes.keySet().removeIf(symbol -> PacketHeader.compare(symbol, reported) <= 0);
+			}
+		}
+		Log.info("Sender RTT estimate: " + rttEstimator);
+	}
+
+	/**
+	 * Updates the RTT, the delivery rate and the highest reported symbol with a progress report
+	 */
+	private void onReport(int symbol, Long sendTime) {
+		long now = Utils.getClock().nanoTime();
+		if (sendTime != null) {
+			rttEstimator.addSample(now - sendTime);
+			minRttMillis = Math.min(minRttMillis, (now - sendTime) / 1e6);
+		}
+		if (PacketHeader.compare(symbol, reported) > 0) {
+			double elapsed = (now - reportedTime) / 1e6;
+			if (elapsed > 0 && reported >= 0) {
+				double rate = PacketHeader.compare(symbol, reported) / elapsed;
+				symbolsPerMilli = symbolsPerMilli == 0 ? rate : 0.75 * symbolsPerMilli + 0.25 * rate;
+			}
+			reported = symbol;
+			reportedTime = now;
+		}
+	}
+
+	/**
+	 * @return the number of symbols to send beyond the last reported one: what the channel delivers in the smallest
+	 * RTT, so the channel stays busy without a long queue of symbols that are useless once the file is decoded.
+	 * Until the first report, at most one symbol more than the source symbols.
+	 */
+	private int getWindow(int sourceSymbols) {
+		if (symbolsPerMilli == 0 || minRttMillis == Double.MAX_VALUE) {
+			return Math.min(MIN_WINDOW, sourceSymbols + 1);
+		}
+		return Math.max(MIN_WINDOW, (int) Math.ceil(symbolsPerMilli * minRttMillis) + PROGRESS_INTERVAL);
+	}
+
+	@Override
+	public void receiver() {
+		Log.info("Receiving...");
+		LtDecoder decoder = null;
+		long received = 0;
+		while (true) {
+			byte[] packet;
+			try {
+				packet = getNetworkLayer().receivePacketBytes(INITIAL_RTO, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			PacketHeader header = PacketHeader.read(packet);
+			if (header == null || header.getType() != PacketHeader.TYPE_SYMBOL || packet.length <= HEADERSIZE + 4) {
+				continue;
+			}
+			if (decoder == null) {
+				int fileLength = ByteBuffer.wrap(packet, HEADERSIZE, 4).getInt();
+				decoder = new LtDecoder(fileLength, packet.length - HEADERSIZE - 4);
+				Log.info("File of " + fileLength + " bytes, " + decoder.getSourceSymbols()
+						+ " source symbols of " + decoder.getSymbolSize() + " bytes");
+			}
+			if (decoder.addSymbol(header.getSequenceNumber(), packet, HEADERSIZE + 4)) {
+				break;
+			}
+			received++;
+			// the first report gives the sender an RTT sample early, small files may not need a second one
+			if (received == 1 || received % PROGRESS_INTERVAL == 0) {
+				sendPacket(new PacketHeader(PacketHeader.TYPE_ACK, 0, header.getSequenceNumber()).toPacket(),
+						PacketClass.CONTROL);
+			}
+		}
+
+		Log.info("Decoded after " + decoder.getSymbolsReceived() + " symbols, " + decoder.getSymbolsUseless()
+				+ " of them useless");
+		for (int copy = 0; copy < DONE_COPIES; copy++) {
+			sendPacket(new PacketHeader(PacketHeader.TYPE_DONE, 0, 0).toPacket(), PacketClass.CONTROL);
+		}
+		setFileContents(decoder.getData());
+	}
+
+	/**
+	 * Not used, the sender waits for progress reports with a timeout instead of setting timers
+	 */
+	@Override
+	public void TimeoutElapsed(Object tag) {
+	}
+
+	/**
+	 * @return the number of bytes of each symbol the sender uses
+	 */
+	public int getSymbolSize() {
+		return symbolSize;
+	}
+}
@@ -0,0 +1,47 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses chunks of the file independently of each other, and decompresses their concatenated output as a stream.
+ *
+ * The ID of the codec is recorded in the flags of every DATA packet that carries its output (see
+ * {@link PacketHeader#FLAGS_CODEC}), so the receiver knows how to decode a payload without any setup. Chunks are
+ * encoded in parallel, so {@link #encode} must be thread-safe.
+ */
+public interface IPayloadCodec {
+	/**
+	 * @return the ID of the codec in the packet flags, from 1 to {@link PacketHeader#FLAGS_CODEC}, 0 means raw
+	 */
+	int getId();
+
+	/**
+	 * Encodes a chunk, independently of the other chunks
+	 * @param data the array holding the chunk
+	 * @param offset the start of the chunk in the array
+	 * @param length the length of the chunk
+	 * @return the encoded chunk
+	 */
+	byte[] encode(byte[] data, int offset, int length);
+
+	/**
+	 * @return a new decoder of the concatenated output of {@link #encode}
+	 */
+	Decoder newDecoder();
+
+	/**
+	 * Streaming decoder of one or more encoded chunks. The encoded bytes may be split anywhere.
+	 */
+	interface Decoder {
+		/**
+		 * Decodes the next encoded bytes, and writes the decoded bytes that are available so far
+		 * @param data the array holding the encoded bytes
+		 * @param offset the start of the encoded bytes in the array
+		 * @param length the number of encoded bytes
+		 * @param out the stream to write the decoded bytes to
+		 * @throws IOException if the encoded bytes are invalid or writing fails
+		 */
+		void decode(byte[] data, int offset, int length, OutputStream out) throws IOException;
+	}
+}
@@ -2,6 +2,7 @@ package protocol;
 
 import client.ITimeoutEventHandler;
 import client.NetworkLayer;
+import client.Timeouts;
 
 /**
  * 
@@ -16,6 +17,8 @@ public abstract class IRDTProtocol implements ITimeoutEventHandler {
 
 	private NetworkLayer networkLayer;
 	private int fileID;
+	// timeouts on the timer of the network layer, created on first use
+	private Timeouts timeouts;
 	
 	/**
 	 * Run the protocol as sender. Called from the framework
@@ -31,8 +34,9 @@ public abstract class IRDTProtocol implements ITimeoutEventHandler {
 	 * Sets the network layer implementation. This network layer is used for transmitting and receiving packets.
 	 * @param networkLayer the network layer to use for transmitting and receiving packets.
 	 */
-	public void setNetworkLayer(NetworkLayer networkLayer) {
+	public synchronized void setNetworkLayer(NetworkLayer networkLayer) {
 		this.networkLayer = networkLayer;
+		this.timeouts = null;
 	}
 
 	/**
@@ -43,6 +47,31 @@ public abstract class IRDTProtocol implements ITimeoutEventHandler {
 		return networkLayer;
 	}
 
+	/**
+	 * Sets a timeout on the timer of the network layer, which calls TimeoutElapsed of this protocol once it elapses.
+	 * Replaces the pending timeout with an equal tag, if there is one.
+	 * @param milliseconds the timeout interval, starting now
+	 * @param tag the object passed to TimeoutElapsed
+	 */
+	protected void setTimeout(long milliseconds, Object tag) {
+		getTimeouts().set(milliseconds, this, tag);
+	}
+
+	/**
+	 * Stops the pending timeout with the given tag, if there is one.
+	 * @param tag the tag the timeout was set with, may be null
+	 */
+	protected void stopTimeout(Object tag) {
+		getTimeouts().stop(tag);
+	}
+
+	private synchronized Timeouts getTimeouts() {
+		if (timeouts == null) {
+			timeouts = new Timeouts(networkLayer.getTimer());
+		}
+		return timeouts;
+	}
+
 	/**
 	 * Sets the ID of the file to send/receive.
 	 * @param fileID the ID of the file to send/receive.
@@ -0,0 +1,38 @@
+package protocol;
+
+/**
+ * Decides how many packets a sender may have in flight, from the acknowledgements and losses it observes.
+ *
+ * The sender calls the methods from its own thread, from the thread that handles acknowledgements and from timer
+ * threads, so implementations must be thread-safe.
+ */
+public interface IWindowController {
+	/**
+	 * @return the congestion window: the number of unacknowledged packets the sender may have in flight, at least 1
+	 */
+	int getWindow();
+
+	/**
+	 * Called when a new data packet is sent for the first time
+	 * @param seqNumber the sequence number of the packet
+	 */
+	void onSent(int seqNumber);
+
+	/**
+	 * Called when packets are acknowledged for the first time
+	 * @param packets the number of newly acknowledged packets
+	 */
+	void onAcknowledged(int packets);
+
+	/**
+	 * Called when the acknowledgements show that a packet was lost, before it is resent
+	 * @param seqNumber the sequence number of the lost packet
+	 */
+	void onLoss(int seqNumber);
+
+	/**
+	 * Called when the retransmission timeout of a packet elapses, before it is resent
+	 * @param seqNumber the sequence number of the packet
+	 */
+	void onTimeout(int seqNumber);
+}
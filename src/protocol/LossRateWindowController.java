@@ -0,0 +1,115 @@
+package protocol;
+
+/**
+ * Window controller that only decreases the window when the loss rate rises, instead of on every loss.
+ *
+ * On a channel that drops packets at random, as the challenge server does, a loss says nothing about the window,
+ * and halving the window on every loss keeps it small for no benefit. This controller grows the window like
+ * {@link AimdWindowController}, but counts the losses and acknowledgements of each round of at least one window of
+ * packets. It keeps a smoothed loss rate and a slowly rising baseline of the lowest smoothed rate, and only
+ * multiplies the window by the decrease factor when the loss rate of a round exceeds the baseline by more than a
+ * tolerance, because then the losses are caused by the window.
+ */
+public class LossRateWindowController extends AimdWindowController {
+	/**
+	 * Default loss rate above the baseline that is considered congestion
+	 */
+	public static final double DEFAULT_TOLERANCE = 0.05;
+
+	// rounds shorter than this give too coarse loss rates
+	private static final int MIN_ROUND = 16;
+
+	private final double tolerance;
+
+	private int roundSize = MIN_ROUND;
+	private int acknowledged = 0;
+	private int lost = 0;
+	private long rounds = 0;
+	private double smoothedLossRate = 0;
+	private double baselineLossRate = 0;
+
+	/**
+	 * Constructs a controller with the default initial window, decrease factor and tolerance
+	 * @param maxWindow the largest window, usually the receive window
+	 */
+	public LossRateWindowController(int maxWindow) {
+		this(Math.min(DEFAULT_INITIAL_WINDOW, maxWindow), maxWindow, DEFAULT_DECREASE, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * Constructs a controller
+	 * @param initialWindow the window at the start of the transfer
+	 * @param maxWindow the largest window, usually the receive window
+	 * @param decrease the factor the window is multiplied with on congestion, between 0 and 1
+	 * @param tolerance the loss rate above the baseline that is considered congestion
+	 */
+	public LossRateWindowController(int initialWindow, int maxWindow, double decrease, double tolerance) {
+		super(initialWindow, maxWindow, decrease);
+		if (tolerance < 0 || tolerance >= 1) {
+			throw new IllegalArgumentException("tolerance must be between 0 and 1");
+		}
+		this.tolerance = tolerance;
+	}
+
+	@Override
+	public synchronized void onAcknowledged(int packets) {
+		super.onAcknowledged(packets);
+		acknowledged += packets;
+		endRound();
+	}
+
+	@Override
+	protected boolean isCongestion(int seqNumber) {
+		lost++;
+		endRound();
+		return false;
+	}
+
+	/**
+	 * Updates the loss rates if the round is complete, and decreases the window if the loss rate of the round is
+	 * too high. Must be called while holding the lock of this controller.
+	 */
+	private void endRound() {
+		int packets = acknowledged + lost;
+		if (packets < roundSize) {
+			return;
+		}
+		double lossRate = (double) lost / packets;
+		if (rounds == 0) {
+			smoothedLossRate = lossRate;
+			baselineLossRate = lossRate;
+		} else {
+			smoothedLossRate += (lossRate - smoothedLossRate) / 4;
+			// follow decreases at once and increases slowly, so a few congested rounds do not raise the baseline
+			baselineLossRate += smoothedLossRate < baselineLossRate ? smoothedLossRate - baselineLossRate
+					: (smoothedLossRate - baselineLossRate) / 16;
+		}
+		if (rounds > 0 && lossRate > baselineLossRate + tolerance) {
+			decreaseWindow(false);
+		}
+		rounds++;
+		acknowledged = 0;
+		lost = 0;
+		roundSize = Math.max(MIN_ROUND, getWindow());
+	}
+
+	/**
+	 * @return the smoothed loss rate per round
+	 */
+	public synchronized double getLossRate() {
+		return smoothedLossRate;
+	}
+
+	/**
+	 * @return the loss rate that is not considered congestion
+	 */
+	public synchronized double getBaselineLossRate() {
+		return baselineLossRate;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s, loss rate %.3f, baseline %.3f", super.toString(), smoothedLossRate,
+				baselineLossRate);
+	}
+}
@@ -0,0 +1,140 @@
+package protocol;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Systematic LT code (Luby Transform, a rateless fountain code) over a file of k source symbols.
+ *
+ * Encoded symbol i for i < k is source symbol i. Every later symbol is the XOR of a number of source symbols, its
+ * degree, that is drawn from the robust soliton distribution, with neighbours drawn uniformly. Both are drawn from a
+ * random generator seeded with the symbol ID, so the receiver derives the neighbours of a symbol from its ID alone.
+ * Any set of slightly more than k symbols decodes the file with high probability, whichever symbols were lost.
+ */
+public final class LtCode {
+	/**
+	 * Default constant c of the robust soliton distribution
+	 */
+	public static final double DEFAULT_C = 0.1;
+	/**
+	 * Default failure probability bound delta of the robust soliton distribution
+	 */
+	public static final double DEFAULT_DELTA = 0.5;
+
+	private final int sourceSymbols;
+	// cumulative distribution of the degree, cdf[d - 1] is the probability of a degree of at most d
+	private final double[] cdf;
+
+	/**
+	 * Constructs a code with the default parameters
+	 * @param sourceSymbols the number of source symbols k
+	 */
+	public LtCode(int sourceSymbols) {
+		this(sourceSymbols, DEFAULT_C, DEFAULT_DELTA);
+	}
+
+	/**
+	 * Constructs a code
+	 * @param sourceSymbols the number of source symbols k
+	 * @param c the constant c of the robust soliton distribution
+	 * @param delta the bound on the probability that k(1 + epsilon) symbols do not decode the file
+	 */
+	public LtCode(int sourceSymbols, double c, double delta) {
+		if (sourceSymbols < 0) {
+			throw new IllegalArgumentException("sourceSymbols < 0");
+		}
+		this.sourceSymbols = sourceSymbols;
+		this.cdf = robustSoliton(sourceSymbols, c, delta);
+	}
+
+	/**
+	 * Computes the cumulative robust soliton distribution: the ideal soliton rho(1) = 1/k, rho(d) = 1/(d(d-1)), plus
+	 * tau(d) = R/(dk) below k/R and R ln(R/delta)/k at k/R, with R = c ln(k/delta) sqrt(k), normalized
+	 */
+	private static double[] robustSoliton(int k, double c, double delta) {
+		if (k <= 1) {
+			return new double[] {1};
+		}
+		double r = c * Math.log(k / delta) * Math.sqrt(k);
+		int spike = Math.max(1, Math.min(k, (int) Math.round(k / r)));
+		double[] weights = new double[k];
+		for (int d = 1; d <= k; d++) {
+			double rho = d == 1 ? 1.0 / k : 1.0 / ((double) d * (d - 1));
+			double tau = d < spike ? r / ((double) d * k) : d == spike ? r * Math.log(r / delta) / k : 0;
+			weights[d - 1] = rho + Math.max(0, tau);
+		}
+		double total = 0;
+		for (double weight : weights) {
+			total += weight;
+		}
+		double[] cdf = new double[k];
+		double sum = 0;
+		for (int d = 0; d < k; d++) {
+			sum += weights[d];
+			cdf[d] = sum / total;
+		}
+		cdf[k - 1] = 1;
+		return cdf;
+	}
+
+	/**
+	 * @param symbolId the ID of an encoded symbol
+	 * @return the indices of the source symbols that are XORed into the symbol, without duplicates
+	 */
+	public int[] neighbours(int symbolId) {
+		if (symbolId >= 0 && symbolId < sourceSymbols) {
+			return new int[] {symbolId};
+		}
+		if (sourceSymbols == 0) {
+			return new int[0];
+		}
+		Random random = new Random(symbolId * 0x9E3779B97F4A7C15L);
+		int degree = Arrays.binarySearch(cdf, random.nextDouble());
+		degree = (degree < 0 ? -degree - 1 : degree) + 1;
+		degree = Math.min(degree, sourceSymbols);
+		int[] neighbours = new int[degree];
+		for (int n = 0; n < degree; n++) {
+			int candidate;
+			do {
+				candidate = random.nextInt(sourceSymbols);
+			} while (contains(neighbours, n, candidate));
+			neighbours[n] = candidate;
+		}
+		return neighbours;
+	}
+
+	private static boolean contains(int[] array, int length, int value) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Encodes a symbol
+	 * @param symbolId the ID of the symbol
+	 * @param source the file
+	 * @param symbolSize the number of bytes per symbol, the last source symbol is padded with zeros
+	 * @return the symbol
+	 */
+	public byte[] encode(int symbolId, byte[] source, int symbolSize) {
+		byte[] symbol = new byte[symbolSize];
+		for (int neighbour : neighbours(symbolId)) {
+			int offset = neighbour * symbolSize;
+			int length = Math.min(symbolSize, source.length - offset);
+			for (int b = 0; b < length; b++) {
+				symbol[b] ^= source[offset + b];
+			}
+		}
+		return symbol;
+	}
+
+	/**
+	 * @return the number of source symbols k
+	 */
+	public int getSourceSymbols() {
+		return sourceSymbols;
+	}
+}
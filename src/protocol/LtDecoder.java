@@ -0,0 +1,191 @@
+package protocol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental peeling decoder of an {@link LtCode}.
+ *
+ * Every arriving symbol is XORed with the source symbols of its neighbours that are already known. If one neighbour
+ * is left, that source symbol is now known, and it is removed in turn from the waiting symbols that have it as a
+ * neighbour, which may release further source symbols. The decoding work is therefore done as symbols arrive, and the
+ * file is complete as soon as the last source symbol is released, without a decoding step at the end.
+ */
+public class LtDecoder {
+	private final LtCode code;
+	private final int fileLength;
+	private final int symbolSize;
+	// the known source symbols, null for the unknown ones
+	private final byte[][] source;
+	// the waiting symbols that have each source symbol as a neighbour
+	private final List<List<Symbol>> waiting;
+	private final ArrayDeque<Integer> released = new ArrayDeque<>();
+	private int known = 0;
+	private long symbolsReceived = 0;
+	private long symbolsUseless = 0;
+
+	/**
+	 * Encoded symbol with more than one unknown neighbour
+	 */
+	private static class Symbol {
+		private final byte[] data;
+		private final List<Integer> unknown;
+
+		private Symbol(byte[] data, List<Integer> unknown) {
+			this.data = data;
+			this.unknown = unknown;
+		}
+	}
+
+	/**
+	 * Constructs a decoder
+	 * @param fileLength the length of the file
+	 * @param symbolSize the number of bytes per symbol
+	 */
+	public LtDecoder(int fileLength, int symbolSize) {
+		if (fileLength < 0 || symbolSize <= 0) {
+			throw new IllegalArgumentException("Invalid file length or symbol size");
+		}
+		this.fileLength = fileLength;
+		this.symbolSize = symbolSize;
+		int sourceSymbols = (fileLength + symbolSize - 1) / symbolSize;
+		this.code = new LtCode(sourceSymbols);
+		this.source = new byte[sourceSymbols][];
+		this.waiting = new ArrayList<>(sourceSymbols);
+		for (int i = 0; i < sourceSymbols; i++) {
+			waiting.add(new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Adds an encoded symbol
+	 * @param symbolId the ID of the symbol
+	 * @param packet the array holding the symbol
+	 * @param offset the start of the symbol in the array, which holds {@link #getSymbolSize()} bytes from there
+	 * @return true if the file is complete
+	 */
+	public boolean addSymbol(int symbolId, byte[] packet, int offset) {
+		symbolsReceived++;
+		if (isComplete()) {
+			return true;
+		}
+		byte[] data = new byte[symbolSize];
+		System.arraycopy(packet, offset, data, 0, symbolSize);
+		List<Integer> unknown = new ArrayList<>();
+		for (int neighbour : code.neighbours(symbolId)) {
+			if (source[neighbour] != null) {
+				xor(data, source[neighbour]);
+			} else {
+				unknown.add(neighbour);
+			}
+		}
+		if (unknown.isEmpty()) {
+			symbolsUseless++;
+		} else if (unknown.size() == 1) {
+			release(unknown.get(0), data);
+		} else {
+			Symbol symbol = new Symbol(data, unknown);
+			for (int neighbour : unknown) {
+				waiting.get(neighbour).add(symbol);
+			}
+		}
+		peel();
+		return isComplete();
+	}
+
+	/**
+	 * Removes the released source symbols from the waiting symbols until no symbol is left with one unknown neighbour
+	 */
+	private void peel() {
+		while (!released.isEmpty()) {
+			int index = released.poll();
+			List<Symbol> symbols = waiting.get(index);
+			waiting.set(index, null);
+			for (Symbol symbol : symbols) {
+				if (symbol.unknown.remove((Integer) index)) {
+					xor(symbol.data, source[index]);
+					if (symbol.unknown.size() == 1) {
+						int last = symbol.unknown.get(0);
+						symbol.unknown.clear();
+						if (source[last] == null) {
+							release(last, symbol.data);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void release(int index, byte[] data) {
+		if (source[index] == null) {
+			source[index] = data;
+			known++;
+			released.add(index);
+		}
+	}
+
+	private static void xor(byte[] target, byte[] other) {
+		for (int b = 0; b < target.length; b++) {
+			target[b] ^= other[b];
+		}
+	}
+
+	/**
+	 * @return whether all source symbols are known
+	 */
+	public boolean isComplete() {
+		return known == source.length;
+	}
+
+	/**
+	 * @return the decoded file
+	 * @throws IllegalStateException if the file is not complete
+	 */
+	public byte[] getData() {
+		if (!isComplete()) {
+			throw new IllegalStateException("File not complete");
+		}
+		byte[] data = new byte[fileLength];
+		for (int i = 0; i < source.length; i++) {
+			int offset = i * symbolSize;
+			System.arraycopy(source[i], 0, data, offset, Math.min(symbolSize, fileLength - offset));
+		}
+		return data;
+	}
+
+	/**
+	 * @return the number of bytes per symbol
+	 */
+	public int getSymbolSize() {
+		return symbolSize;
+	}
+
+	/**
+	 * @return the number of source symbols
+	 */
+	public int getSourceSymbols() {
+		return source.length;
+	}
+
+	/**
+	 * @return the number of known source symbols
+	 */
+	public int getKnownSymbols() {
+		return known;
+	}
+
+	/**
+	 * @return the number of symbols added
+	 */
+	public long getSymbolsReceived() {
+		return symbolsReceived;
+	}
+
+	/**
+	 * @return the number of symbols added whose neighbours were all known already
+	 */
+	public long getSymbolsUseless() {
+		return symbolsUseless;
+	}
+}
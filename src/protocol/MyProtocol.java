@@ -1,6 +1,6 @@
 package protocol;
 
-import java.util.Arrays;
+import java.io.IOException;
 import client.*;
 
 public class MyProtocol extends IRDTProtocol {
@@ -15,8 +15,14 @@ public class MyProtocol extends IRDTProtocol {
 	public void sender() {
 		System.out.println("Sending...");
 
-		// read from the input file
-		Integer[] fileContents = Utils.getFileContents(getFileID());
+		// map the input file, packets are read from it as they are sent
+		SegmentSource fileContents;
+		try {
+			fileContents = SegmentSource.open(getFileID(), DATASIZE);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
 
 		// keep track of where we are in the data
 		int filePointer = 0;
@@ -25,9 +31,9 @@ public class MyProtocol extends IRDTProtocol {
 		double packetCounter = 0;
 
 		// create a new packet of appropriate size
-		double datalen = Math.min(DATASIZE, (fileContents.length - filePointer));
+		double datalen = Math.min(DATASIZE, (fileContents.getLength() - filePointer));
 		//		System.out.println("datalen =  " + datalen);
-		double totalLength = fileContents.length; 
+		double totalLength = fileContents.getLength(); 
 		//		System.out.println("TotalLength = " + totalLength);
 		//Integer[] totalPkt = new Integer[HEADERSIZE + totalLength];
 		packetCounter = (double)Math.ceil(((double)HEADERSIZE + (double)totalLength) / (double)datalen);
@@ -44,7 +50,7 @@ public class MyProtocol extends IRDTProtocol {
 			smallCopy[0] = firstArr;
 
 
-			System.arraycopy(fileContents, filePointer, smallCopy, 1, (int)datalen);
+			fileContents.get(filePointer, smallCopy, 1, (int)datalen);
 			filePointer = filePointer+(int)datalen;
 
 
@@ -52,13 +58,13 @@ public class MyProtocol extends IRDTProtocol {
 			getNetworkLayer().sendPacket(smallCopy);
 			recCopy=1;
 			copySmallCopy = smallCopy;
-			client.Utils.Timeout.SetTimeout(5000, this, 28);
+			setTimeout(5000, 28);
 
 			Integer[] recPacket = getNetworkLayer().receivePacket();
 			while(recPacket == null || !recPacket[0].equals(123)){
 				recPacket = getNetworkLayer().receivePacket();
 				try {
-					Thread.sleep(10);
+					Utils.getClock().sleep(10);
 					
 				} catch (InterruptedException e) {
 					System.out.println("package recieved!!");
@@ -74,11 +80,15 @@ public class MyProtocol extends IRDTProtocol {
 
 
 		// schedule a timer for 1000 ms into the future, just to show how that works:
-		client.Utils.Timeout.SetTimeout(5000, this, 28);
+		setTimeout(5000, 28);
 
 		// and loop and sleep; you may use this loop to check for incoming acks...
 
-
+		try {
+			fileContents.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
 	}
 
 	@Override
@@ -96,10 +106,15 @@ public class MyProtocol extends IRDTProtocol {
 	public void receiver() {
 		System.out.println("Receiving...");
 
-		// create the array that will contain the file contents
-		// note: we don't know yet how large the file will be, so the easiest (but not most efficient)
-		//   is to reallocate the array every time we find out there's more data
-		Integer[] fileContents = new Integer[0];
+		// write the file contents straight into the output file, each packet at its offset
+		ReassemblySink fileContents;
+		try {
+			fileContents = new ReassemblySink(getFileID(), getNetworkLayer().getOutputChecksum());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		long filePointer = 0;
 
 		// loop until we are done receiving the file
 		boolean stop = false;
@@ -114,11 +129,15 @@ public class MyProtocol extends IRDTProtocol {
 				// tell the user
 				System.out.println("Received packet, length="+packet.length+"  first byte="+packet[0] );
 
-				// append the packet's data part (excluding the header) to the fileContents array, first making it larger
-				int oldlength=fileContents.length;
+				// write the packet's data part (excluding the header) after the data received so far
 				int datalen= packet.length - HEADERSIZE;
-				fileContents = Arrays.copyOf(fileContents, oldlength+datalen);
-				System.arraycopy(packet, HEADERSIZE, fileContents, oldlength, datalen);
+				try {
+					fileContents.write(filePointer, packet, HEADERSIZE, datalen);
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+					break;
+				}
+				filePointer += datalen;
 				System.out.println(packet[0]);
 				Integer [] ackPacket = new Integer[1];
 				System.arraycopy(packet, 0, ackPacket, 0, 1);
@@ -140,15 +159,19 @@ public class MyProtocol extends IRDTProtocol {
 			}else{
 				// wait ~10ms (or however long the OS makes us wait) before trying again
 				try {
-					Thread.sleep(10);
+					Utils.getClock().sleep(10);
 				} catch (InterruptedException e) {
 					stop = true;
 				}
 			}
 		}
 
-		// write to the output file
-		Utils.setFileContents(fileContents, getFileID());
+		// close the output file
+		try {
+			fileContents.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
 
 	}
 }
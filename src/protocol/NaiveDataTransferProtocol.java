@@ -1,6 +1,6 @@
 package protocol;
 
-import java.util.Arrays;
+import java.io.IOException;
 import client.*;
 
 public class NaiveDataTransferProtocol extends IRDTProtocol {
@@ -13,37 +13,48 @@ public class NaiveDataTransferProtocol extends IRDTProtocol {
 	public void sender() {
 		System.out.println("Sending...");
 
-		// read from the input file
-		Integer[] fileContents = Utils.getFileContents(getFileID());
+		// map the input file, packets are read from it as they are sent
+		SegmentSource fileContents;
+		try {
+			fileContents = SegmentSource.open(getFileID(), DATASIZE);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
 
 		// keep track of where we are in the data
-		int filePointer = 0;
+		long filePointer = 0;
 
 		// create a new packet of appropriate size
-		int datalen = Math.min(DATASIZE, fileContents.length - filePointer);
+		int datalen = (int) Math.min(DATASIZE, fileContents.getLength() - filePointer);
 		Integer[] pkt = new Integer[HEADERSIZE + datalen];
 		// write something random into the header byte
 		pkt[0] = 123;    
 		// copy databytes from the input file into data part of the packet, i.e., after the header
-		System.arraycopy(fileContents, filePointer, pkt, HEADERSIZE, datalen);
+		fileContents.get(filePointer, pkt, HEADERSIZE, datalen);
 
 		// send the packet to the network layer
 		getNetworkLayer().sendPacket(pkt);
 		System.out.println("Sent one packet with header="+pkt[0]);
 
 		// schedule a timer for 1000 ms into the future, just to show how that works:
-		client.Utils.Timeout.SetTimeout(1000, this, 28);
+		setTimeout(1000, 28);
 
 		// and loop and sleep; you may use this loop to check for incoming acks...
 		boolean stop = false;
 		while (!stop) {
 			try {
-				Thread.sleep(10);
+				Utils.getClock().sleep(10);
 			} catch (InterruptedException e) {
 				stop = true;
 			}
 		}
 
+		try {
+			fileContents.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
 	}
 
 	@Override
@@ -57,10 +68,15 @@ public class NaiveDataTransferProtocol extends IRDTProtocol {
 	public void receiver() {
 		System.out.println("Receiving...");
 
-		// create the array that will contain the file contents
-		// note: we don't know yet how large the file will be, so the easiest (but not most efficient)
-		//   is to reallocate the array every time we find out there's more data
-		Integer[] fileContents = new Integer[0];
+		// write the file contents straight into the output file, each packet at its offset
+		ReassemblySink fileContents;
+		try {
+			fileContents = new ReassemblySink(getFileID(), getNetworkLayer().getOutputChecksum());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		long filePointer = 0;
 
 		// loop until we are done receiving the file
 		boolean stop = false;
@@ -75,11 +91,15 @@ public class NaiveDataTransferProtocol extends IRDTProtocol {
 				// tell the user
 				System.out.println("Received packet, length="+packet.length+"  first byte="+packet[0] );
 
-				// append the packet's data part (excluding the header) to the fileContents array, first making it larger
-				int oldlength=fileContents.length;
+				// write the packet's data part (excluding the header) after the data received so far
 				int datalen= packet.length - HEADERSIZE;
-				fileContents = Arrays.copyOf(fileContents, oldlength+datalen);
-				System.arraycopy(packet, HEADERSIZE, fileContents, oldlength, datalen);
+				try {
+					fileContents.write(filePointer, packet, HEADERSIZE, datalen);
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+					break;
+				}
+				filePointer += datalen;
 
 				// and let's just hope the file is now complete
 				stop=true;
@@ -87,14 +107,18 @@ public class NaiveDataTransferProtocol extends IRDTProtocol {
 			}else{
 				// wait ~10ms (or however long the OS makes us wait) before trying again
 				try {
-					Thread.sleep(10);
+					Utils.getClock().sleep(10);
 				} catch (InterruptedException e) {
 					stop = true;
 				}
 			}
 		}
 
-		// write to the output file
-		Utils.setFileContents(fileContents, getFileID());
+		// close the output file
+		try {
+			fileContents.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
 	}
 }
@@ -0,0 +1,230 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary header in front of every packet of the sliding window protocol.
+ *
+ * The header consists of a version byte, a packet type byte, a flags byte and a 32-bit sequence number in
+ * network byte order. Sequence numbers wrap around after 2^32 packets, so they must only be compared with
+ * {@link #compare(int, int)}, which orders them by their distance modulo 2^32 (serial number arithmetic, RFC 1982).
+ * That is correct as long as the compared numbers are less than 2^31 apart, which holds for any window that fits
+ * in memory.
+ *
+ * With {@link #FLAG_CHECKSUM} set, the header is followed by a CRC-32C of the whole packet, so {@link #getSize()}
+ * bytes precede the payload. The receiver checks it with {@link #verify(byte[])} before it trusts any other field.
+ */
+public final class PacketHeader {
+	/**
+	 * Version of the header format, packets of other versions are dropped
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * Number of bytes of the header
+	 */
+	public static final int SIZE = 7;
+
+	/**
+	 * Data packet, the payload is the next part of the file
+	 */
+	public static final int TYPE_DATA = 0;
+	/**
+	 * End of file, the sequence number is the one after the last data packet
+	 */
+	public static final int TYPE_EOF = 1;
+	/**
+	 * Acknowledgement of the packet with the sequence number
+	 */
+	public static final int TYPE_ACK = 2;
+	/**
+	 * Selective acknowledgement, the sequence number is the next expected one and the payload a bitmap of the
+	 * packets received after it
+	 */
+	public static final int TYPE_SACK = 3;
+	/**
+	 * Probe of the payload size the channel carries, the sequence number identifies the probe
+	 */
+	public static final int TYPE_PROBE = 4;
+	/**
+	 * Answer to a probe, with the sequence number of the probe
+	 */
+	public static final int TYPE_PROBE_ACK = 5;
+	/**
+	 * Encoded symbol of a fountain code, the sequence number is the symbol ID
+	 */
+	public static final int TYPE_SYMBOL = 6;
+	/**
+	 * The receiver has decoded the file and the sender can stop
+	 */
+	public static final int TYPE_DONE = 7;
+	/**
+	 * Negative acknowledgement, a packet that claimed the sequence number arrived corrupted
+	 */
+	public static final int TYPE_NACK = 8;
+
+	/**
+	 * Mask of the flags of a DATA packet that holds the ID of the {@link IPayloadCodec} of the payload, 0 if the
+	 * payload is raw file bytes
+	 */
+	public static final int FLAGS_CODEC = 0x0f;
+	/**
+	 * Flag of a packet whose header ends with a CRC-32C of the packet, computed with that field left out
+	 */
+	public static final int FLAG_CHECKSUM = 0x10;
+	/**
+	 * Number of bytes of the checksum field
+	 */
+	public static final int CHECKSUM_SIZE = 4;
+
+	private final int type;
+	private final int flags;
+	private final int sequenceNumber;
+
+	/**
+	 * Constructs a header
+	 * @param type the packet type
+	 * @param flags the flags, 0 if none
+	 * @param sequenceNumber the sequence number, modulo 2^32
+	 */
+	public PacketHeader(int type, int flags, int sequenceNumber) {
+		if (type < 0 || type > 0xff || flags < 0 || flags > 0xff) {
+			throw new IllegalArgumentException("Invalid type or flags");
+		}
+		this.type = type;
+		this.flags = flags;
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	/**
+	 * Reads the header at the start of a packet
+	 * @param packet the content of the packet
+	 * @return the header, or null if the packet is too short or has another version
+	 */
+	public static PacketHeader read(byte[] packet) {
+		if (packet == null || packet.length < SIZE || (packet[0] & 0xff) != VERSION) {
+			return null;
+		}
+		return new PacketHeader(packet[1] & 0xff, packet[2] & 0xff, ByteBuffer.wrap(packet, 3, 4).getInt());
+	}
+
+	/**
+	 * Creates a packet with this header and the given payload
+	 * @param payload the array holding the payload
+	 * @param offset the start of the payload in the array
+	 * @param length the length of the payload
+	 * @return the content of the packet
+	 */
+	public byte[] toPacket(byte[] payload, int offset, int length) {
+		byte[] packet = new byte[getSize() + length];
+		write(packet);
+		System.arraycopy(payload, offset, packet, getSize(), length);
+		seal(packet);
+		return packet;
+	}
+
+	/**
+	 * Creates a packet with only this header
+	 * @return the content of the packet
+	 */
+	public byte[] toPacket() {
+		byte[] packet = new byte[getSize()];
+		write(packet);
+		seal(packet);
+		return packet;
+	}
+
+	/**
+	 * Writes this header at the start of a packet, without the checksum, which {@link #seal(byte[])} writes once the
+	 * payload is complete
+	 * @param packet the array to write to, at least {@link #getSize()} bytes long
+	 */
+	public void write(byte[] packet) {
+		packet[0] = (byte) VERSION;
+		packet[1] = (byte) type;
+		packet[2] = (byte) flags;
+		ByteBuffer.wrap(packet, 3, 4).putInt(sequenceNumber);
+	}
+
+	/**
+	 * Writes the checksum of a packet that was written with this header and its payload, if the header has
+	 * {@link #FLAG_CHECKSUM}
+	 * @param packet the complete packet
+	 */
+	public void seal(byte[] packet) {
+		if (hasChecksum()) {
+			ByteBuffer.wrap(packet, SIZE, CHECKSUM_SIZE).putInt(checksum(packet));
+		}
+	}
+
+	/**
+	 * Checks the checksum of a packet
+	 * @param packet the content of the packet, may be null
+	 * @return false if the packet has a header with {@link #FLAG_CHECKSUM} and its checksum does not match, true
+	 * otherwise, also for packets without checksum
+	 */
+	public static boolean verify(byte[] packet) {
+		if (packet == null || packet.length < SIZE || (packet[2] & FLAG_CHECKSUM) == 0) {
+			return true;
+		}
+		return packet.length >= SIZE + CHECKSUM_SIZE
+				&& ByteBuffer.wrap(packet, SIZE, CHECKSUM_SIZE).getInt() == checksum(packet);
+	}
+
+	/**
+	 * @return the CRC-32C of the packet without its checksum field
+	 */
+	private static int checksum(byte[] packet) {
+		Crc32c crc = new Crc32c();
+		crc.update(packet, 0, SIZE);
+		crc.update(packet, SIZE + CHECKSUM_SIZE, packet.length - SIZE - CHECKSUM_SIZE);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Compares two sequence numbers modulo 2^32
+	 * @return a negative number if a comes before b, 0 if they are equal, and a positive number if a comes after b
+	 */
+	public static int compare(int a, int b) {
+		return a - b;
+	}
+
+	/**
+	 * @return the packet type
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return the flags
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * @return whether the header has {@link #FLAG_CHECKSUM}
+	 */
+	public boolean hasChecksum() {
+		return (flags & FLAG_CHECKSUM) != 0;
+	}
+
+	/**
+	 * @return the number of bytes in front of the payload, {@link #SIZE} plus the checksum field if there is one
+	 */
+	public int getSize() {
+		return hasChecksum() ? SIZE + CHECKSUM_SIZE : SIZE;
+	}
+
+	/**
+	 * @return the sequence number
+	 */
+	public int getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	@Override
+	public String toString() {
+		return "v" + VERSION + " type " + type + " flags " + flags + " seq " + Integer.toUnsignedString(sequenceNumber);
+	}
+}
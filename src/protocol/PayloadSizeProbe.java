@@ -0,0 +1,263 @@
+package protocol;
+
+import client.Log;
+import client.NetworkLayer;
+import client.PacketClass;
+import client.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the largest payload the channel carries, before the transfer starts.
+ *
+ * Every slot carries one packet whatever its size, so the payload size sets the ceiling on goodput. The sender
+ * sends probe packets of several candidate sizes at once and the receiver answers each with a small probe ACK. A
+ * size is accepted if any of its copies is answered, so random loss rarely rejects a size. The first round probes
+ * halving sizes from the largest size that is useful, usually the size of the file, down to {@link #MIN_PAYLOAD}, and
+ * every next round probes evenly spaced sizes between the largest accepted size and the smallest rejected one above
+ * it. Every round costs a round trip, so this needs far fewer rounds than a binary search. The search stops once a
+ * larger size would not save packets, or is within an eighth of the accepted size.
+ *
+ * A channel may also lose large packets more often than small ones. The probe therefore sends, in one more round,
+ * probes of the found size, of its half and of its quarter, and of a sixteenth of it that is rarely lost because of
+ * its size. It uses the largest of these sizes whose probes are lost at most once more than the small ones. Every loss
+ * costs the protocol a retransmission after a delay, so a somewhat smaller payload that is lost less often is better
+ * even if it carries fewer bytes per slot on average.
+ *
+ * The answers also give the first RTT samples of the protocol. The receiver answers probes with
+ * {@link #answer(NetworkLayer, PacketHeader)}.
+ */
+public class PayloadSizeProbe {
+	/**
+	 * Smallest payload that is probed, and the result if no size is accepted
+	 */
+	public static final int MIN_PAYLOAD = 16;
+	/**
+	 * Largest payload that is probed
+	 */
+	public static final int MAX_PAYLOAD = 16384;
+
+	// copies of a candidate size, it is accepted if any of them is answered
+	private static final int COPIES = 2;
+	// a round after the first probes the sizes that split the remaining range in this many parts
+	private static final int STEPS = 8;
+	// probes of each size that is compared to find a loss that depends on the size
+	private static final int CHECK_PROBES = 8;
+	// sizes, each half the one before, that are compared with the small size
+	private static final int CHECK_SIZES = 3;
+	// a size is too large if more than this many more of its probes are lost than of the small ones
+	private static final int EXTRA_LOSSES = 1;
+	// the sizes are compared with this fraction of the found size, which is rarely lost because of its size
+	private static final int SMALL_FRACTION = 16;
+
+	private final NetworkLayer networkLayer;
+	private final RttEstimator rttEstimator;
+
+	// payload size and send time of each unanswered probe
+	private final Map<Integer, Integer> probeSizes = new HashMap<>();
+	private final Map<Integer, Long> probeSendTimes = new HashMap<>();
+	private int nextProbe = 0;
+	private int rounds = 0;
+	private int answered = 0;
+
+	/**
+	 * Constructs a probe
+	 * @param networkLayer the network layer of the sender, the probe receives all packets until it is done
+	 * @param rttEstimator the estimator to add the RTT of the answers to, and that determines how long to wait
+	 */
+	public PayloadSizeProbe(NetworkLayer networkLayer, RttEstimator rttEstimator) {
+		this.networkLayer = networkLayer;
+		this.rttEstimator = rttEstimator;
+	}
+
+	/**
+	 * Answers a probe, to be called by the receiver for every packet of type {@link PacketHeader#TYPE_PROBE}
+	 * @param networkLayer the network layer of the receiver
+	 * @param probe the header of the probe
+	 */
+	public static void answer(NetworkLayer networkLayer, PacketHeader probe) {
+		networkLayer.sendPacket(new PacketHeader(PacketHeader.TYPE_PROBE_ACK, 0, probe.getSequenceNumber()).toPacket(),
+				PacketClass.CONTROL);
+	}
+
+	/**
+	 * Finds the largest payload the channel carries
+	 * @param largestUseful the largest payload that would be used, the size of the file to send
+	 * @return the payload size, between {@link #MIN_PAYLOAD} and {@link #MAX_PAYLOAD}
+	 * @throws InterruptedException if the thread was interrupted while waiting for answers
+	 */
+	public int probe(int largestUseful) throws InterruptedException {
+		int accepted = MIN_PAYLOAD;
+		int rejected = Math.min(MAX_PAYLOAD, Math.max(MIN_PAYLOAD, largestUseful)) + 1;
+		// the smallest size is part of the first round, so its answer gives an RTT sample even if all larger ones are
+		// rejected
+		int[] sizes = halvingSizes(rejected - 1);
+		while (sizes.length > 0) {
+			int[] answers = exchange(sizes, COPIES, true);
+			// the sizes are in decreasing order, so the first answered one is the largest
+			for (int i = 0; i < sizes.length; i++) {
+				if (answers[i] > 0) {
+					accepted = Math.max(accepted, sizes[i]);
+					break;
+				}
+				rejected = Math.min(rejected, sizes[i]);
+			}
+			if (rejected - accepted <= accepted / 8 || packets(largestUseful, accepted) == packets(largestUseful,
+					rejected - 1)) {
+				break;
+			}
+			sizes = splitSizes(accepted, rejected);
+		}
+		Log.info("Probed payload size " + accepted + " bytes, " + rounds + " rounds");
+
+		// a file that fits in one packet is not worth the check
+		if (accepted >= 2 * MIN_PAYLOAD && accepted < largestUseful) {
+			int small = Math.max(MIN_PAYLOAD, accepted / SMALL_FRACTION);
+			List<Integer> candidates = new ArrayList<>();
+			for (int size = accepted; size > small && candidates.size() < CHECK_SIZES; size /= 2) {
+				candidates.add(size);
+			}
+			candidates.add(small);
+			int[] checkSizes = toArray(candidates);
+			int[] answers = exchange(checkSizes, CHECK_PROBES, false);
+			int smallLost = CHECK_PROBES - answers[checkSizes.length - 1];
+			for (int i = 0; i < checkSizes.length; i++) {
+				Log.info("Answered probes of " + checkSizes[i] + " bytes: " + answers[i] + "/" + CHECK_PROBES);
+				accepted = checkSizes[i];
+				if (CHECK_PROBES - answers[i] <= smallLost + EXTRA_LOSSES) {
+					break;
+				}
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Sends copies of a probe for every given size, and waits for the answers until none has arrived for the
+	 * retransmission timeout, or the last probe was answered. The copies are interleaved, so a burst of losses does
+	 * not hit all copies of one size.
+	 * @param sizes the different payload sizes of the probes
+	 * @param copies the number of probes of every size
+	 * @param untilFirst whether to stop waiting at the first answer to a probe of the first size
+	 * @return the number of answered probes of every size
+	 */
+	private int[] exchange(int[] sizes, int copies, boolean untilFirst) throws InterruptedException {
+		rounds++;
+		int first = nextProbe;
+		for (int copy = 0; copy < copies; copy++) {
+			for (int size : sizes) {
+				int probe = nextProbe++;
+				probeSizes.put(probe, size);
+				probeSendTimes.put(probe, Utils.getClock().nanoTime());
+				networkLayer.sendPacket(new PacketHeader(PacketHeader.TYPE_PROBE, 0, probe).toPacket(new byte[size], 0,
+						size));
+			}
+		}
+
+		int last = nextProbe - 1;
+		int[] answers = new int[sizes.length];
+		int answeredThisRound = 0;
+		long lastAnswer = Utils.getClock().currentTimeMillis();
+		long deadline = Long.MAX_VALUE;
+		while (answeredThisRound < sizes.length * copies) {
+			// the timeout shrinks as soon as the first answer gives an RTT sample, and restarts at every answer
+			// because the probes leave one slot after the other
+			long wait = Math.min(deadline, lastAnswer + rttEstimator.getTimeoutMillis())
+					- Utils.getClock().currentTimeMillis();
+			if (wait <= 0) {
+				break;
+			}
+			PacketHeader header = PacketHeader.read(networkLayer.receivePacketBytes(wait, TimeUnit.MILLISECONDS));
+			if (header == null || header.getType() != PacketHeader.TYPE_PROBE_ACK) {
+				continue;
+			}
+			int probe = header.getSequenceNumber();
+			Long sendTime = probeSendTimes.remove(probe);
+			Integer size = probeSizes.remove(probe);
+			if (sendTime == null) {
+				continue;
+			}
+			answered++;
+			lastAnswer = Utils.getClock().currentTimeMillis();
+			rttEstimator.addSample(Utils.getClock().nanoTime() - sendTime);
+			// answers to probes of earlier rounds still give RTT samples, but do not count
+			if (PacketHeader.compare(probe, first) >= 0) {
+				answeredThisRound++;
+				int index = (probe - first) % sizes.length;
+				answers[index]++;
+				if (untilFirst && index == 0) {
+					break;
+				}
+				// once the last probe is answered the others are lost, unless they were only delayed by jitter
+				if (probe == last) {
+					deadline = lastAnswer + (long) Math.ceil(rttEstimator.getRttVariationMillis());
+				}
+			}
+		}
+		return answers;
+	}
+
+	/**
+	 * @return the sizes from the given one down to {@link #MIN_PAYLOAD}, each half the one before
+	 */
+	private static int[] halvingSizes(int largest) {
+		List<Integer> sizes = new ArrayList<>();
+		for (int size = largest; size > MIN_PAYLOAD; size /= 2) {
+			sizes.add(size);
+		}
+		sizes.add(MIN_PAYLOAD);
+		return toArray(sizes);
+	}
+
+	/**
+	 * @return the different sizes that split the range between the accepted and rejected size in {@link #STEPS}
+	 * parts, in decreasing order
+	 */
+	private static int[] splitSizes(int accepted, int rejected) {
+		List<Integer> sizes = new ArrayList<>();
+		for (int step = STEPS - 1; step > 0; step--) {
+			int size = accepted + (int) ((long) (rejected - accepted) * step / STEPS);
+			if (size > accepted && size < rejected && !sizes.contains(size)) {
+				sizes.add(size);
+			}
+		}
+		return toArray(sizes);
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	private static int packets(int length, int payloadSize) {
+		return (length + payloadSize - 1) / payloadSize;
+	}
+
+	/**
+	 * @return the number of probes sent
+	 */
+	public int getProbes() {
+		return nextProbe;
+	}
+
+	/**
+	 * @return the number of probes that were answered
+	 */
+	public int getAnswered() {
+		return answered;
+	}
+
+	/**
+	 * @return the number of times probes were sent and answers awaited
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+}
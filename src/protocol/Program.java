@@ -1,6 +1,8 @@
 package protocol;
 
 import client.DRDTChallengeClient;
+import client.FecNetworkLayer;
+import client.Log;
 import client.NetworkLayer;
 
 import java.io.BufferedInputStream;
@@ -31,11 +33,33 @@ public class Program {
 	//private static IRDTProtocol protocolImpl = new SecondHighlyEfficientDataTransferProtocol();
 	private static IRDTProtocol protocolImpl = new SlidingWindowDataTransferProtocol();
 	// Challenge server address
+	// (use "localhost" to run against server.LocalChallengeServer)
 	private static String serverAddress = "netsys.student.utwente.nl";
 
 	// Challenge server port
 	private static int serverPort = 8003;
 
+	// Whether to talk to the server over the non-blocking NIO transport instead
+	// of the blocking socket streams
+	private static boolean useNio = false;
+
+	// Whether the timeout handlers of the protocol run on virtual threads
+	// (only on a JVM that has them, Java 21 or later)
+	private static boolean virtualTimerThreads = false;
+
+	// Number of packets per block of forward error correction, with parity
+	// adapted to the loss rate (0 to disable, both clients of the group must
+	// use the same value)
+	private static int fecBlockSize = 0;
+
+	// Port of the local endpoint serving the metrics of the client at /metrics
+	// in the Prometheus text format (0 to disable, the MBean is always there)
+	private static int metricsPort = 0;
+
+	// Most verbose messages of the protocol that are logged, DEBUG or TRACE
+	// for every packet (slows the protocol down)
+	private static Log.Level logLevel = Log.Level.INFO;
+
 	/*
 	 *
 	 *
@@ -48,6 +72,7 @@ public class Program {
 	 */
 	public static void main(String[] args) {
 		int group = groupId;
+		Log.setLevel(logLevel);
 
 		if (args.length > 0) {
 			group = Integer.parseInt(args[0]);
@@ -58,7 +83,11 @@ public class Program {
 			System.out.print("[FRAMEWORK] Starting client... ");
 
 			// Create the client
-			client = new DRDTChallengeClient(serverAddress, serverPort, group, password);
+			client = new DRDTChallengeClient(serverAddress, serverPort, group, password, useNio,
+					virtualTimerThreads);
+			if (metricsPort > 0) {
+				client.startMetricsServer(metricsPort);
+			}
 
 			System.out.println("Done.");
 
@@ -79,7 +108,11 @@ public class Program {
 
 			System.out.println("[FRAMEWORK] Simulation started!");
 
-			protocolImpl.setNetworkLayer(new NetworkLayer(client));
+			NetworkLayer networkLayer = new NetworkLayer(client);
+			if (fecBlockSize > 0) {
+				networkLayer = new FecNetworkLayer(networkLayer, fecBlockSize, -1);
+			}
+			protocolImpl.setNetworkLayer(networkLayer);
 			protocolImpl.setFileID(client.getFileID());
 			if (startRequested) {
 				System.out.println("[FRAMEWORK] Running protocol implementation as sender...");
@@ -0,0 +1,128 @@
+package protocol;
+
+/**
+ * Estimates the round-trip time and the retransmission timeout from RTT samples, after Jacobson and Karels
+ * (RFC 6298).
+ *
+ * The smoothed RTT and the RTT variation are updated with gains of 1/8 and 1/4, and the timeout is the smoothed
+ * RTT plus four times the variation. Samples must only be taken from packets that were not retransmitted
+ * (Karn's rule), because an acknowledgement of a retransmitted packet may belong to any of its copies. Every
+ * timeout doubles the retransmission timeout until the next valid sample.
+ */
+public class RttEstimator {
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private final long minTimeoutNanos;
+	private final long maxTimeoutNanos;
+
+	private long smoothedRttNanos = 0;
+	private long rttVariationNanos = 0;
+	private long lastRttNanos = 0;
+	private long timeoutNanos;
+	private int backoff = 0;
+	private long samples = 0;
+	private long timeouts = 0;
+
+	/**
+	 * Constructs an estimator without samples
+	 * @param initialTimeoutMillis the timeout until the first sample
+	 * @param minTimeoutMillis the lower bound of the timeout
+	 * @param maxTimeoutMillis the upper bound of the timeout, also with backoff
+	 */
+	public RttEstimator(long initialTimeoutMillis, long minTimeoutMillis, long maxTimeoutMillis) {
+		if (minTimeoutMillis <= 0 || minTimeoutMillis > maxTimeoutMillis) {
+			throw new IllegalArgumentException("Invalid timeout bounds");
+		}
+		this.minTimeoutNanos = minTimeoutMillis * NANOS_PER_MILLI;
+		this.maxTimeoutNanos = maxTimeoutMillis * NANOS_PER_MILLI;
+		this.timeoutNanos = clamp(initialTimeoutMillis * NANOS_PER_MILLI);
+	}
+
+	/**
+	 * Adds an RTT sample and ends the backoff
+	 * @param rttNanos the time between sending a packet that was sent once and receiving its acknowledgement
+	 */
+	public synchronized void addSample(long rttNanos) {
+		rttNanos = Math.max(0, rttNanos);
+		if (samples == 0) {
+			smoothedRttNanos = rttNanos;
+			rttVariationNanos = rttNanos / 2;
+		} else {
+			rttVariationNanos += (Math.abs(smoothedRttNanos - rttNanos) - rttVariationNanos) / 4;
+			smoothedRttNanos += (rttNanos - smoothedRttNanos) / 8;
+		}
+		lastRttNanos = rttNanos;
+		samples++;
+		backoff = 0;
+		// the clock granularity is a millisecond
+		timeoutNanos = clamp(smoothedRttNanos + Math.max(NANOS_PER_MILLI, 4 * rttVariationNanos));
+	}
+
+	/**
+	 * Doubles the timeout, because a timeout elapsed
+	 */
+	public synchronized void onTimeout() {
+		timeouts++;
+		backoff++;
+		timeoutNanos = clamp(timeoutNanos * 2);
+	}
+
+	/**
+	 * @return the retransmission timeout in milliseconds, including backoff
+	 */
+	public synchronized long getTimeoutMillis() {
+		return (timeoutNanos + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return the smoothed RTT in milliseconds, 0 if there are no samples
+	 */
+	public synchronized double getSmoothedRttMillis() {
+		return (double) smoothedRttNanos / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return the RTT variation in milliseconds, 0 if there are no samples
+	 */
+	public synchronized double getRttVariationMillis() {
+		return (double) rttVariationNanos / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return the last RTT sample in milliseconds, 0 if there are no samples
+	 */
+	public synchronized double getLastRttMillis() {
+		return (double) lastRttNanos / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return the number of timeouts since the last sample
+	 */
+	public synchronized int getBackoff() {
+		return backoff;
+	}
+
+	/**
+	 * @return the number of samples
+	 */
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return the number of timeouts
+	 */
+	public synchronized long getTimeouts() {
+		return timeouts;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("SRTT %.1f ms, RTTVAR %.1f ms, RTO %d ms (backoff %d), %d samples, %d timeouts",
+				getSmoothedRttMillis(), getRttVariationMillis(), getTimeoutMillis(), backoff, samples, timeouts);
+	}
+
+	private long clamp(long nanos) {
+		return Math.max(minTimeoutNanos, Math.min(maxTimeoutNanos, nanos));
+	}
+}
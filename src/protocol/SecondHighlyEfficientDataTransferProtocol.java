@@ -1,6 +1,9 @@
 package protocol;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import client.*;
 
@@ -11,17 +14,24 @@ public class SecondHighlyEfficientDataTransferProtocol extends IRDTProtocol {
     private static final int DATASIZE = 512;   // max. number of user data bytes in each packet
     private static final int WINDOWSIZE = 15;
     private static final int DELAYTIME = 10000;
-    private static final int NUMBEROFACKCHECKS = 100;
 
     @Override
     public void sender() {
         System.out.println("Sending...");
 
-        // read from the input file
-        Integer[] fileContents = Utils.getFileContents(getFileID());
-        int filePointer = 0;
+        // map the input file, fragment n is segment n - 1 of it, read again for every retransmission
+        SegmentSource fileContents;
+        try {
+            fileContents = SegmentSource.open(getFileID(), DATASIZE);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
         Set<Integer> receivedAcks = new HashSet<>();
-        int numberOfFragments = fileContents.length / DATASIZE + 1;
+        // fragments sent at least once, the window is sent again on every pass without evidence of loss, so those
+        // copies go out after new data
+        Set<Integer> sentFragments = new HashSet<>();
+        int numberOfFragments = (int) (fileContents.getLength() / DATASIZE + 1);
         System.out.println("Number of packets to send in total = " + numberOfFragments);
 
 
@@ -45,33 +55,42 @@ public class SecondHighlyEfficientDataTransferProtocol extends IRDTProtocol {
             // create and send a new packet of appropriate size
             for (fragmentCounter = lowerbound; fragmentCounter <= upperbound; fragmentCounter++) {
                 if (!receivedAcks.contains(fragmentCounter)) {
-                    filePointer = DATASIZE * (fragmentCounter - 1);
-                    Integer[] pkt = createPacket(fragmentCounter, fileContents, filePointer);
-                    getNetworkLayer().sendPacket(pkt);
+                    Integer[] pkt = createPacket(fragmentCounter, fileContents);
+                    getNetworkLayer().sendPacket(pkt,
+                            sentFragments.add(fragmentCounter) ? PacketClass.NEW_DATA : PacketClass.SPECULATIVE);
                     System.out.println("Sent one packet with header=" + pkt[0]);
                 }
             }
 
 
             // schedule a timer for 1000 ms into the future, just to show how that works:
-//        client.Utils.Timeout.SetTimeout(DELAYTIME, this, 28);
+//        setTimeout(DELAYTIME, 28);
 
             // and loop and sleep; you may use this loop to check for incoming acks...
             receivedAcks = checkForAcks(receivedAcks);
         }
+
+        try {
+            fileContents.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
     }
 
     @Override
     public void receiver() {
         System.out.println("Receiving...");
 
-        // create the array that will contain the file contents
-        // note: we don't know yet how large the file will be, so the easiest (but not most efficient)
-        //   is to reallocate the array every time we find out there's more data
-        Integer[] fileContents = new Integer[0];
+        // write the file contents straight into the output file, each packet at its offset as it arrives
+        ReassemblySink fileContents;
+        try {
+            fileContents = new ReassemblySink(getFileID(), getNetworkLayer().getOutputChecksum());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
         int highestPacket = 0;
-        Map<Integer, Integer[]> packetMap = new HashMap<>();
-        int newPacketPosition = 0;
+        Set<Integer> receivedPackets = new HashSet<>();
 
         // loop until we are done receiving the file
         boolean stop = false;
@@ -88,61 +107,61 @@ public class SecondHighlyEfficientDataTransferProtocol extends IRDTProtocol {
                 // tell the user
                 System.out.println("Received packet, length="+packet.length+"  first byte="+packetIndex );
 
-                // append the packet's data part (excluding the header) to the fileContents array, first making it larger
+                // write the packet's data part (excluding the header) at its offset in the file
                 if(packetIndex > highestPacket) highestPacket = packetIndex;
 
-                if (!packetMap.keySet().contains(packetIndex)) {
-                    Integer[] packetData = Arrays.copyOfRange(packet, 1, packet.length);
-                    packetMap.put(packetIndex, packetData);
+                if (receivedPackets.add(packetIndex)) {
+                    int datalen = packet.length - HEADERSIZE;
+                    try {
+                        fileContents.write((long) DATASIZE * (packetIndex - 1), packet, HEADERSIZE, datalen);
+                    } catch (IOException e) {
+                        System.err.println(e.getMessage());
+                        break;
+                    }
+                    // only the last packet is not full, so it tells the length of the file
+                    if (datalen < DATASIZE) {
+                        fileContents.setLength((long) DATASIZE * (packetIndex - 1) + datalen);
+                    }
                     sendAck(packet);
                 }
 
-                if (packetIndex == Collections.max(packetMap.keySet()) - WINDOWSIZE) {
+                if (packetIndex == highestPacket - WINDOWSIZE) {
                     sendAck(packet);
                 }
 
-                if (!allPacketsReceived(packetMap, highestPacket) && packetMap.keySet().size() == Collections.max(packetMap.keySet())) stop = true;
+                if (fileContents.isComplete()) stop = true;
 
 
             } else {
                 // wait ~10ms (or however long the OS makes us wait) before trying again
                 try {
-                    Thread.sleep(10);
+                    Utils.getClock().sleep(10);
                 } catch (InterruptedException e) {
                     stop = true;
                 }
             }
         }
 
-        for (int index = 1; index <= packetMap.size(); index++) {
-            int datalen = packetMap.get(index).length;
-            fileContents = Arrays.copyOf(fileContents, newPacketPosition + datalen);
-            System.arraycopy(packetMap.get(index), 0, fileContents, newPacketPosition, datalen);
-            newPacketPosition = newPacketPosition + packetMap.get(index).length;
-        }
-
-        // write to the output file
-        Utils.setFileContents(fileContents, getFileID());
-    }
-
-    private boolean allPacketsReceived(Map<Integer, Integer[]> packetMap, int highestPacket) {
-        boolean allPacketsReceived = true;
-        for (int i = 0; i < highestPacket; i++) {
-            if (!packetMap.keySet().contains(i) && packetMap.get(highestPacket).length < DATASIZE) {
-                allPacketsReceived = false;
-            }
+        // close the output file
+        try {
+            fileContents.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
         }
-        return allPacketsReceived;
     }
 
-    // create a new packet of appropriate size
-    private Integer[] createPacket(int i, Integer[] fileContents, int filePointer) {
+    // create a new packet of appropriate size, the last fragment is empty if the file is a multiple of DATASIZE
+    private Integer[] createPacket(int i, SegmentSource fileContents) {
         Integer[] pkt = null;
-        int datalen = Math.min(DATASIZE, fileContents.length - filePointer);
-        if (datalen > -1) {
-            pkt = new Integer[HEADERSIZE + datalen];
+        if (i - 1 < fileContents.getSegmentCount()) {
+            ByteBuffer payload = fileContents.getSegment(i - 1);
+            pkt = new Integer[HEADERSIZE + payload.remaining()];
             pkt[0] = i;
-            System.arraycopy(fileContents, filePointer, pkt, HEADERSIZE, datalen);
+            for (int b = HEADERSIZE; b < pkt.length; b++) {
+                pkt[b] = payload.get() & 0xff;
+            }
+        } else if ((long) DATASIZE * (i - 1) == fileContents.getLength()) {
+            pkt = createEmptyPacket(i);
         }
         return pkt;
     }
@@ -154,7 +173,7 @@ public class SecondHighlyEfficientDataTransferProtocol extends IRDTProtocol {
 
     private void sendAck(Integer[] packet) {
         Integer[] ackPacket = createEmptyPacket(packet[0]);
-        getNetworkLayer().sendPacket(ackPacket);
+        getNetworkLayer().sendPacket(ackPacket, PacketClass.CONTROL);
         System.out.println("Send ACK packet for fragmented packet with header = " + packet[0]);
     }
 
@@ -188,19 +207,14 @@ public class SecondHighlyEfficientDataTransferProtocol extends IRDTProtocol {
     }
 
     private Set<Integer> checkForAcks(Set<Integer> receivedAcks) {
-        for (int i = 1; i <= NUMBEROFACKCHECKS; i++) {
-            try {
-                Thread.sleep(DELAYTIME / NUMBEROFACKCHECKS);
-                Integer[] ackPacket = getNetworkLayer().receivePacket();
-                if (ackPacket != null) {
-                    System.out.println("Received ACK packet with header= " + ackPacket[0]);
-                    receivedAcks.add(ackPacket[0]);
-                    return receivedAcks;
-                }
-            } catch (InterruptedException e) {
-                System.out.print("Mag niet gebeuren.");
-                break;
+        try {
+            Integer[] ackPacket = getNetworkLayer().receivePacket(DELAYTIME, TimeUnit.MILLISECONDS);
+            if (ackPacket != null) {
+                System.out.println("Received ACK packet with header= " + ackPacket[0]);
+                receivedAcks.add(ackPacket[0]);
             }
+        } catch (InterruptedException e) {
+            System.out.print("Mag niet gebeuren.");
         }
         return receivedAcks;
     }
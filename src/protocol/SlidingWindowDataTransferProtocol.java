@@ -1,32 +1,128 @@
 package protocol;
 
+import client.Log;
+import client.MetricsRegistry;
+import client.PacketClass;
+import client.ReassemblySink;
+import client.TransmitFrame;
 import client.Utils;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.OutputStream;
 //import java.util.ConcurrentModificationException;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 //import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
 
 //CODE entire class
-public class SlidingWindowDataTransferProtocol extends IRDTProtocol {
-	static final int HEADERSIZE=1;   // number of header bytes in each packet
-	static final int DATASIZE= 512;   // max. number of user data bytes in each packet
-	static final int END_HEADER = 166;
-	static final int ACK_HEADER = 42;
-	static final int NACK_HEADER = 255;
-	private int LastAckReceived = -1;
-	private int SendWindowSize = 4;
-	private int ReceiveWindowSize = 4;
-	private int LastFrameSend = 0;
-	private int LastFrameReceived = -1;
+public class SlidingWindowDataTransferProtocol extends ByteRDTProtocol {
+	static final int HEADERSIZE = PacketHeader.SIZE;   // number of header bytes in each packet
+	static final int DATASIZE= 512;   // max. number of user data bytes in each packet, unless the payload size is probed
+	static final int PROBE_MIN_PACKETS = 64;   // probing costs about this many packets, smaller files are not probed
+	static final int DEFAULT_WINDOW_SIZE = 256;   // largest send window, and the receive window
+	static final int FIRST_SEQUENCE_NUMBER = 0;
+	private volatile int LastAckReceived = FIRST_SEQUENCE_NUMBER - 1;
+	private final int SendWindowSize;
+	private final IWindowController windowController;
+	private final int ReceiveWindowSize;
+	private int LastFrameSend = FIRST_SEQUENCE_NUMBER;
+	private int LastFrameReceived = FIRST_SEQUENCE_NUMBER - 1;
 	static final int TIMEOUT = 8000;
-	static final int RECEIVER_TIMEOUT = TIMEOUT/4;
-	private Map<Integer, Integer[]> bufferedPackets;
-	private ConcurrentHashMap<Integer, Integer[]> unAcknowledgedPackets = new ConcurrentHashMap<>();
-	private ConcurrentSkipListSet<Integer> receivedAcks = new ConcurrentSkipListSet<>();
+	static final int INITIAL_RTO = 1000;   // retransmission timeout until the first RTT sample
+	static final int MIN_RTO = 20;
+	static final int MAX_RTO = 60000;
+	static final int EOF_RETRIES = 5;   // EOF retransmissions after which the receiver is assumed to be done
+	static final int EOF_ACKS = 3;   // copies of the EOF ACK
+	private Map<Integer, byte[]> bufferedPackets;
+	// frame of every unacknowledged packet, which is also the tag of its timeout, so it is only encoded once however
+	// often it is resent
+	private ConcurrentHashMap<Integer, TransmitFrame> unAcknowledgedPackets = new ConcurrentHashMap<>();
+	private Set<Integer> receivedAcks = ConcurrentHashMap.newKeySet();
+	private Thread ackListener;
+
+	// RTT estimate of the sender from data packets to their SACKs, or of the receiver from SACKs to the requested packets
+	private final RttEstimator rttEstimator = new RttEstimator(INITIAL_RTO, MIN_RTO, MAX_RTO);
+	// time of the last transmission of every unacknowledged packet
+	private ConcurrentHashMap<Integer, Long> sendTimes = new ConcurrentHashMap<>();
+	// packets that were sent more than once, their ACKs are no RTT samples (Karn's rule)
+	private Set<Integer> retransmitted = ConcurrentHashMap.newKeySet();
+	private volatile boolean eofDone = false;
+	private volatile int eofRetransmissions = 0;
+	private boolean probePayloadSize = true;
+	private int dataSize = DATASIZE;
+	private IPayloadCodec payloadCodec = new DeflatePayloadCodec();
+	private boolean packetChecksum = false;
+	// packets dropped because their checksum did not match
+	private volatile int corruptedPackets = 0;
+	// time of the last backoff of the retransmission timeout
+	private volatile long lastBackoff = Utils.getClock().nanoTime();
+
+	// metrics of the sender and the receiver, see MetricsRegistry
+	private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+	private static final MetricsRegistry.Counter dataPacketsSent = METRICS.counter(
+			"rdtc_sw_data_packets_sent_total", "DATA packets sent for the first time");
+	private static final MetricsRegistry.Counter timeoutRetransmits = METRICS.counter(
+			"rdtc_sw_retransmits_total", "DATA packets sent again, by cause", "cause", "timeout");
+	private static final MetricsRegistry.Counter sackRetransmits = METRICS.counter(
+			"rdtc_sw_retransmits_total", "DATA packets sent again, by cause", "cause", "sack");
+	private static final MetricsRegistry.Counter nackRetransmits = METRICS.counter(
+			"rdtc_sw_retransmits_total", "DATA packets sent again, by cause", "cause", "nack");
+	private static final MetricsRegistry.Counter duplicateSacks = METRICS.counter(
+			"rdtc_sw_duplicate_sacks_total", "SACKs that acknowledged no new packet");
+	private static final MetricsRegistry.Counter acknowledgedBytes = METRICS.counter(
+			"rdtc_sw_acknowledged_bytes_total", "Payload bytes of the acknowledged DATA packets");
+	private static final MetricsRegistry.Histogram rttSeconds = METRICS.histogram(
+			"rdtc_sw_rtt_seconds", "RTT samples of the sender, from DATA packets to their SACKs", 1e-9);
+	private static final MetricsRegistry.Counter dataPacketsReceived = METRICS.counter(
+			"rdtc_sw_data_packets_received_total", "DATA packets received");
+	private static final MetricsRegistry.Counter duplicatePackets = METRICS.counter(
+			"rdtc_sw_duplicate_packets_total", "DATA packets received that were buffered or appended already");
+	private static final MetricsRegistry.Counter outOfOrderPackets = METRICS.counter(
+			"rdtc_sw_out_of_order_packets_total", "DATA packets buffered until the packets before them arrive");
+	private static final MetricsRegistry.Counter corruptedPacketsDropped = METRICS.counter(
+			"rdtc_sw_corrupted_packets_total", "Packets dropped because their checksum did not match");
+	private static final MetricsRegistry.Counter deliveredBytes = METRICS.counter(
+			"rdtc_sw_delivered_bytes_total", "Payload bytes of the DATA packets appended to the file in order");
+	private static final MetricsRegistry.Counter packetSacks = METRICS.counter(
+			"rdtc_sw_sacks_sent_total", "SACKs sent, by cause", "cause", "packet");
+	private static final MetricsRegistry.Counter timeoutSacks = METRICS.counter(
+			"rdtc_sw_sacks_sent_total", "SACKs sent, by cause", "cause", "timeout");
+
+	/**
+	 * Constructs the protocol with a receive window of {@link #DEFAULT_WINDOW_SIZE} packets, and a send window that
+	 * is controlled by a {@link LossRateWindowController}
+	 */
+	public SlidingWindowDataTransferProtocol() {
+		this(DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructs the protocol with a send window that is controlled by a {@link LossRateWindowController}
+	 * @param windowSize the number of packets in the receive window, and the largest send window
+	 */
+	public SlidingWindowDataTransferProtocol(int windowSize) {
+		this(windowSize, new LossRateWindowController(windowSize));
+	}
+
+	/**
+	 * Constructs the protocol
+	 * @param windowSize the number of packets in the receive window, and the largest send window
+	 * @param windowController decides the send window within the largest send window
+	 */
+	public SlidingWindowDataTransferProtocol(int windowSize, IWindowController windowController) {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("windowSize <= 0");
+		}
+		this.SendWindowSize = windowSize;
+		this.ReceiveWindowSize = windowSize;
+		this.windowController = windowController;
+	}
 
 	private class receivePackets implements Runnable {
 
@@ -34,54 +130,108 @@ public class SlidingWindowDataTransferProtocol extends IRDTProtocol {
 		public void run() {
 			boolean stop = false;
 			while(!stop) {
-				// Get packet from server
-				Integer[] receivedPkt = getNetworkLayer().receivePacket();
-				if (receivedPkt != null) {
-					int header = receivedPkt[0];
-					int ackNumber = receivedPkt[1];
-					if(header == ACK_HEADER && isInSlidingWindow(
-						ackNumber)) {
-
-						System.out.println("Received ACK " + ackNumber);
-						receivedAcks.add(new Integer(ackNumber));
-
-						// Stop time out of ackNumber
-						acknowledgePacket(ackNumber);
-						System.out.println("Still unack: " + unAcknowledgedPackets);
-
-					} else if(header == NACK_HEADER
-							&& isInSlidingWindow(ackNumber)
-							&& unAcknowledgedPackets.containsKey(new Integer(ackNumber)))
-					{
-						System.out.println("Received NACK " + ackNumber);
-						//Resend given packet.
-						TimeoutElapsed(unAcknowledgedPackets.get(new Integer(ackNumber)));
-
-						// Stop time out of packets with sequence number < ackNumber
-						stopTimeOuts(ackNumber - 1);
-						System.out.println("Still unack: " + unAcknowledgedPackets);
-
-					}
-				}
-
+				// Wait for a packet from server
+				byte[] receivedPkt;
 				try {
-					Thread.sleep(10);
+					receivedPkt = getNetworkLayer().receivePacketBytes(TIMEOUT, TimeUnit.MILLISECONDS);
 				} catch (InterruptedException e) {
-					stop = true;
+					break;
+				}
+				PacketHeader header = PacketHeader.read(receivedPkt);
+				if (header == null) {
+					continue;
+				}
+				if (!isIntact(receivedPkt, header)) {
+					corruptedPackets++;
+					corruptedPacketsDropped.increment();
+					Log.debug(() -> "Dropped corrupted packet, header=" + header);
+				} else if (header.getType() == PacketHeader.TYPE_SACK) {
+					handleSack(header.getSequenceNumber(), receivedPkt);
+				} else if (header.getType() == PacketHeader.TYPE_NACK) {
+					handleNack(header.getSequenceNumber());
 				}
 			}
 		}
 	}
 
 	/**
-	 * Stop time out for all packets with a sequence number <= ackNumber
+	 * Acknowledge all packets that the given SACK reports as received, and resend the packets that it reports as
+	 * missing.
+	 *
+	 * Everything before the next expected sequence number has been received, and bit i of the bitmap tells
+	 * whether packet next + 1 + i has been received. New data is sent in order, so a hole is lost once a later packet
+	 * has been received, even if it is the next expected packet: a SACK that reports nothing after it is only a
+	 * cumulative ACK. A hole is resent this way once, a resent packet waits for a slot ahead of the new data, so
+	 * later packets say nothing about it and a lost resend is left to the retransmission timeout.
 	 */
-	public void stopTimeOuts(int ackNumber) {
-		for(Integer seqNumber: unAcknowledgedPackets.keySet()) {
-      if(seqNumber <= ackNumber) {
+	public void handleSack(int next, byte[] sack) {
+		int bitmap = PacketHeader.read(sack).getSize();
+		int highestSacked = next - 1;
+		for (int bit = 0; bit < (sack.length - bitmap) * 8; bit++) {
+			if (isSacked(sack, bitmap, next, next + 1 + bit)) {
+				highestSacked = next + 1 + bit;
+			}
+		}
+		int sacked = highestSacked;
+		Log.debug(() -> "Received SACK " + next + (sacked != next - 1 ? " up to " + sacked : ""));
+
+		// the smallest RTT of the newly acknowledged packets is the one of the packet that was sent last
+		long now = Utils.getClock().nanoTime();
+		long rtt = Long.MAX_VALUE;
+		int acknowledged = 0;
+		for (Integer seqNumber : unAcknowledgedPackets.keySet()) {
+			if (PacketHeader.compare(seqNumber, next) < 0 || isSacked(sack, bitmap, next, seqNumber)) {
+				Long sendTime = sendTimes.get(seqNumber);
+				if (sendTime != null && !retransmitted.contains(seqNumber)) {
+					rtt = Math.min(rtt, now - sendTime);
+				}
+				receivedAcks.add(seqNumber);
 				acknowledgePacket(seqNumber);
-      }
-    }
+				acknowledged++;
+			}
+		}
+		if (rtt != Long.MAX_VALUE) {
+			rttEstimator.addSample(rtt);
+			rttSeconds.record(rtt);
+		}
+		if (acknowledged > 0) {
+			windowController.onAcknowledged(acknowledged);
+		} else {
+			duplicateSacks.increment();
+		}
+
+		for (Map.Entry<Integer, TransmitFrame> unacknowledged : unAcknowledgedPackets.entrySet()) {
+			int seqNumber = unacknowledged.getKey();
+			if (PacketHeader.compare(seqNumber, highestSacked) < 0 && !retransmitted.contains(seqNumber)) {
+				windowController.onLoss(seqNumber);
+				sackRetransmits.increment();
+				retransmit(unacknowledged.getValue());
+			}
+		}
+		Log.debug(() -> "Still unack: " + unAcknowledgedPackets.size() + " packets");
+	}
+
+	/**
+	 * Resend the packet the receiver got corrupted at once, without counting it as a loss: the channel delivered it,
+	 * so corruption says nothing about congestion. The sequence number came from a corrupted header, so it may be
+	 * wrong, then the packet is already acknowledged or at worst resent once too often.
+	 */
+	public void handleNack(int seqNumber) {
+		Log.debug(() -> "Received NACK " + seqNumber);
+		TransmitFrame frame = unAcknowledgedPackets.get(seqNumber);
+		if (frame != null) {
+			nackRetransmits.increment();
+			retransmit(frame);
+		}
+	}
+
+	/**
+	 * Check if the bitmap of the given SACK, which starts at the given offset, reports the given packet as received.
+	 */
+	public boolean isSacked(byte[] sack, int bitmap, int next, int seqNumber) {
+		int bit = PacketHeader.compare(seqNumber, next) - 1;
+		return bit >= 0 && bit < (sack.length - bitmap) * 8
+				&& (sack[bitmap + bit / 8] & (1 << (bit % 8))) != 0;
 	}
 
 	/**
@@ -89,44 +239,167 @@ public class SlidingWindowDataTransferProtocol extends IRDTProtocol {
 	 * @param seqNumber
 	 */
 	public void acknowledgePacket(Integer seqNumber) {
-		Utils.Timeout.stopTimeOut(unAcknowledgedPackets.get(seqNumber));
+		TransmitFrame frame = unAcknowledgedPackets.get(seqNumber);
+		stopTimeout(frame);
+		if (frame != null) {
+			byte[] pkt = frame.getPacket();
+			acknowledgedBytes.add(pkt.length - PacketHeader.read(pkt).getSize());
+		}
 		unAcknowledgedPackets.remove(seqNumber);
+		sendTimes.remove(seqNumber);
+	}
+
+	/**
+	 * @return the controller of the send window
+	 */
+	public IWindowController getWindowController() {
+		return windowController;
+	}
+
+	/**
+	 * @return the current send window in packets
+	 */
+	public int getCongestionWindow() {
+		return Math.min(SendWindowSize, windowController.getWindow());
+	}
+
+	/**
+	 * Sets whether the sender probes the largest payload size the channel carries before sending the file, instead of
+	 * using {@link #DATASIZE}. Enabled by default, but only used for files of more than {@link #PROBE_MIN_PACKETS}
+	 * packets of {@link #DATASIZE}.
+	 */
+	public void setProbePayloadSize(boolean probePayloadSize) {
+		this.probePayloadSize = probePayloadSize;
+	}
+
+	/**
+	 * Sets the codec that compresses the file in chunks before it is sent, chunks it does not shrink are sent raw.
+	 * The receiver decodes the payloads with the codec in their flags, so it must know the codec the sender uses.
+	 * {@link DeflatePayloadCodec} by default.
+	 * @param payloadCodec the codec, or null to send the file raw
+	 */
+	public void setPayloadCodec(IPayloadCodec payloadCodec) {
+		this.payloadCodec = payloadCodec;
+	}
+
+	/**
+	 * Sets whether every packet carries a CRC-32C of its contents, see {@link PacketHeader#FLAG_CHECKSUM}. Both
+	 * sides then drop packets whose checksum does not match, or that lack one, instead of trusting them, and the
+	 * receiver answers a corrupted DATA packet with a NACK so the sender resends it without waiting for a timeout.
+	 * Both sides must use the same setting. Disabled by default, the channel of the challenge loses packets but
+	 * does not corrupt them.
+	 */
+	public void setPacketChecksum(boolean packetChecksum) {
+		this.packetChecksum = packetChecksum;
+	}
+
+	/**
+	 * @return the number of packets dropped because their checksum did not match
+	 */
+	public int getCorruptedPackets() {
+		return corruptedPackets;
+	}
+
+	/**
+	 * @return the number of user data bytes in each packet
+	 */
+	public int getDataSize() {
+		return dataSize;
+	}
+
+	/**
+	 * @return the RTT estimate, which determines the retransmission timeout of the sender and the SACK timeout of
+	 * the receiver
+	 */
+	public RttEstimator getRttEstimator() {
+		return rttEstimator;
 	}
 
 	@Override
 	public void sender() {
-		System.out.println("Sending...");
+		Log.info("Sending...");
 
 		// read from the input file
-		Integer[] fileContents = Utils.getFileContents(getFileID());
+		byte[] fileContents = getFileContents();
 
-		// keep track of where we are in the data
-		int filePointer = 0;
+		// compress the file in chunks on the ForkJoin pool, meanwhile the payload size is probed
+		ForkJoinTask<List<ChunkedPayloadEncoder.Segment>> encoding = null;
+		if (payloadCodec != null) {
+			encoding = new ChunkedPayloadEncoder(payloadCodec).submit(fileContents, ForkJoinPool.commonPool());
+		}
 
-		// start listening for acks
-		(new Thread(new receivePackets())).start();
+		// find the largest packet the channel carries, and use it for all packets
+		if (probePayloadSize && fileContents.length > PROBE_MIN_PACKETS * DATASIZE) {
+			try {
+				dataSize = new PayloadSizeProbe(getNetworkLayer(), rttEstimator).probe(fileContents.length);
+				// the probes carry no checksum, so it takes its bytes from the payload
+				if (packetChecksum) {
+					dataSize -= PacketHeader.CHECKSUM_SIZE;
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
 
-		// send packets
-		while(filePointer < fileContents.length) {
-			// create a new packet of appropriate size
-			assert(isInSlidingWindow(LastFrameSend));
-			Integer[] pkt = createPacket(filePointer, fileContents, LastFrameSend);
+		// the packets of a segment carry its codec in their flags, so a packet never spans two segments
+		List<ChunkedPayloadEncoder.Segment> segments;
+		if (encoding != null) {
+			segments = encoding.join();
+			int encodedLength = 0;
+			for (ChunkedPayloadEncoder.Segment segment : segments) {
+				encodedLength += segment.getData().length;
+			}
+			Log.info("Encoded " + fileContents.length + " bytes into " + encodedLength + " bytes in "
+					+ segments.size() + " segments");
+		} else {
+			segments = Collections.singletonList(new ChunkedPayloadEncoder.Segment(0, fileContents));
+		}
 
-			// send the packet to the network layer
-			getNetworkLayer().sendPacket(pkt);
-			System.out.println("Sent one packet with header=" + pkt[0]);
+		// the state of the latest sender
+		METRICS.gauge("rdtc_sw_send_window", "Send window of the sender in packets", this::getCongestionWindow);
+		METRICS.gauge("rdtc_sw_unacknowledged_packets", "DATA packets sent and not yet acknowledged",
+				unAcknowledgedPackets::size);
 
-			// Set time out and wait for ack
-			unAcknowledgedPackets.put(pkt[0], pkt);
-			waitForAck(pkt);
+		// start listening for acks
+		ackListener = Utils.getClock().newThread(new receivePackets(), "ACK Listener");
+		ackListener.start();
 
-			//Update filePointer
-			filePointer += DATASIZE;
-			LastFrameSend++;
+		// send packets
+		for (ChunkedPayloadEncoder.Segment segment : segments) {
+			byte[] data = segment.getData();
+
+			// keep track of where we are in the data
+			int filePointer = 0;
+			while(filePointer < data.length) {
+				// create a new packet of appropriate size
+				assert(isInSlidingWindow(LastFrameSend));
+				TransmitFrame frame = new TransmitFrame(createPacket(filePointer, data, segment.getCodecId(), LastFrameSend));
+
+				// send the packet to the network layer
+				unAcknowledgedPackets.put(LastFrameSend, frame);
+				sendTimes.put(LastFrameSend, Utils.getClock().nanoTime());
+				windowController.onSent(LastFrameSend);
+				sendFrame(frame, PacketClass.NEW_DATA);
+				dataPacketsSent.increment();
+				Log.debug(() -> "Sent one packet with seq=" + LastFrameSend);
+
+				// Set time out and wait for ack
+				setTimeout(rttEstimator.getTimeoutMillis(), frame);
+				waitForAck(LastFrameSend);
+
+				//Update filePointer
+				filePointer += dataSize;
+				LastFrameSend++;
+			}
 		}
 
 		// Send end of file header
 		sendEOF();
+		Log.info("Sender RTT estimate: " + rttEstimator);
+		Log.info("Sender window: " + windowController);
+		if (packetChecksum) {
+			Log.info("Sender dropped " + corruptedPackets + " corrupted packets");
+		}
 	}
 
 	/**
@@ -134,7 +407,7 @@ public class SlidingWindowDataTransferProtocol extends IRDTProtocol {
 	 */
 	public void doWait() {
 		try {
-			Thread.sleep(10);
+			Utils.getClock().sleep(10);
 		} catch (InterruptedException e) {
 			return;
 		}
@@ -145,29 +418,25 @@ public class SlidingWindowDataTransferProtocol extends IRDTProtocol {
 	 * Check if packet with given sequence number is in the Sliding Window
 	 */
 	public boolean isInSlidingWindow(int seqNumber) {
-		return (seqNumber > LastAckReceived && seqNumber <= LastAckReceived + SendWindowSize);
+		int offset = PacketHeader.compare(seqNumber, LastAckReceived + 1);
+		return offset >= 0 && offset < getCongestionWindow();
 	}
 
 	/**
-   * Wait for acknowledgment of given packet, if received stop the timeout of that
-	 * given packet.
-	 * @param sendPacket Packet that is send.
+	 * Wait until the sliding window has room for the packet after the given packet.
+	 * @param seqSendPacket Sequence number of the packet that is send.
 	 */
-	public void waitForAck(Integer[] sendPacket) {
-		// schedule a timer for 1000 ms into the future, just to show how that works:
-		Utils.Timeout.SetTimeout(TIMEOUT, this, sendPacket);
-		int seqSendPacket = sendPacket[0];
-
+	public void waitForAck(int seqSendPacket) {
 		// Check if a new ack has arrived
 		if(!receivedAcks.isEmpty()) {
 			updateLAR();
 		}
 
-		// Wait for new ack if we have reached the end of the sliding window
-		if (isInSlidingWindow(seqSendPacket) && !isInSlidingWindow(seqSendPacket + 1)) {
-			System.out.println("Wait for new ack, LAR " + LastAckReceived);
+		// Wait for new ack if we have reached the end of the sliding window, which may have shrunk below this packet
+		if (!isInSlidingWindow(seqSendPacket + 1)) {
+			Log.debug(() -> "Wait for new ack, LAR " + LastAckReceived);
 		}
-		while (isInSlidingWindow(seqSendPacket) && !isInSlidingWindow(seqSendPacket + 1)) {
+		while (!isInSlidingWindow(seqSendPacket + 1)) {
 			doWait();
 			updateLAR();
 		}
@@ -177,29 +446,14 @@ public class SlidingWindowDataTransferProtocol extends IRDTProtocol {
 	 * Update LAR by checking if any acks have been received.
 	 */
 	public void updateLAR() {
-		if(receivedAcks.isEmpty()) {
-			return;
-		}
-
-		//System.out.println("Received acks: ");
-		boolean updated = true;
 		int oldLAR = LastAckReceived;
-		while(updated) {
-			updated = false;
-			for (Integer ackNumber : receivedAcks) {
-				System.out.println(ackNumber + ", ");
-				if (ackNumber == LastAckReceived + 1) {
-					LastAckReceived++;
-					receivedAcks.remove(ackNumber);
-					updated = true;
-				}
-			}
+		while (receivedAcks.remove(LastAckReceived + 1)) {
+			LastAckReceived++;
 		}
 
-		//System.out.println("Updated LAR to " + LastAckReceived);
-		if(LastAckReceived > oldLAR) {
-			System.out.println("New sliding window " + (LastAckReceived + 1) + " - " + (LastAckReceived
-					+ SendWindowSize));
+		if(LastAckReceived != oldLAR) {
+			Log.debug(() -> "New sliding window " + (LastAckReceived + 1) + " - " + (LastAckReceived
+					+ getCongestionWindow()));
 		}
 	}
 
@@ -207,19 +461,33 @@ public class SlidingWindowDataTransferProtocol extends IRDTProtocol {
 	 * Check if in receiver window
 	 */
 	public boolean isInReceiverWindow(int seqNumber) {
-		return (seqNumber > LastFrameReceived && seqNumber - LastFrameReceived <= ReceiveWindowSize);
+		int offset = PacketHeader.compare(seqNumber, LastFrameReceived + 1);
+		return offset >= 0 && offset < ReceiveWindowSize;
 	}
 
-	public Integer[] createPacket(int filePointer, Integer[] fileContents, int header) {
+	public byte[] createPacket(int filePointer, byte[] fileContents, int flags, int seqNumber) {
 		// create a new packet of appropriate size
-		int datalen = Math.min(DATASIZE, fileContents.length - filePointer);
-		Integer[] pkt = new Integer[HEADERSIZE + datalen];
-		// create header
-		pkt[0] = header;
-		// copy databytes from the input file into data part of the packet, i.e., after the header
-		System.arraycopy(fileContents, filePointer, pkt, HEADERSIZE, datalen);
+		int datalen = Math.min(dataSize, fileContents.length - filePointer);
+		// create the header and copy databytes from the input file into data part of the packet, i.e., after the header
+		return newHeader(PacketHeader.TYPE_DATA, flags, seqNumber).toPacket(fileContents, filePointer, datalen);
+	}
 
-		return pkt;
+	/**
+	 * Create a header, with {@link PacketHeader#FLAG_CHECKSUM} if packets carry a checksum.
+	 */
+	private PacketHeader newHeader(int type, int flags, int seqNumber) {
+		return new PacketHeader(type, packetChecksum ? flags | PacketHeader.FLAG_CHECKSUM : flags, seqNumber);
+	}
+
+	/**
+	 * Check if a packet arrived intact: its checksum matches, and if packets carry a checksum it has one, since the
+	 * flag itself may have been corrupted. Probes do not carry a checksum.
+	 */
+	private boolean isIntact(byte[] packet, PacketHeader header) {
+		if (!PacketHeader.verify(packet)) {
+			return false;
+		}
+		return !packetChecksum || header.hasChecksum() || header.getType() == PacketHeader.TYPE_PROBE;
 	}
 
 	public void sendEOF() {
@@ -228,160 +496,309 @@ public class SlidingWindowDataTransferProtocol extends IRDTProtocol {
 			doWait();
 		}
 
-		Integer[] pkt = {END_HEADER};
-		getNetworkLayer().sendPacket(pkt);
-		System.out.println("Sent EOF header");
+		// Stop listening for acks, so the EOF ack is not consumed by the listener
+		ackListener.interrupt();
+		try {
+			ackListener.join();
+		} catch (InterruptedException e) {
+			return;
+		}
+
+		TransmitFrame eof = new TransmitFrame(newHeader(PacketHeader.TYPE_EOF, 0, LastFrameSend).toPacket());
+		sendFrame(eof, PacketClass.CONTROL);
+		Log.info("Sent EOF header");
 
-		// schedule a timer for 1000 ms into the future, just to show how that works:
-		Utils.Timeout.SetTimeout(TIMEOUT, this, pkt);
+		setTimeout(rttEstimator.getTimeoutMillis(), eof);
 
 		// Wait for EOF ack
 		boolean stop = false;
 		while (!stop) {
-			// Get packet from server
-			Integer[] receivedPkt = getNetworkLayer().receivePacket();
-
-			if(receivedPkt != null && receivedPkt[0] == ACK_HEADER && receivedPkt[1] == END_HEADER) {
-				System.out.println("Received EOF ack " + receivedPkt[1]);
-				stop = true;
-			}
-
+			// Wait for a packet from server
+			byte[] receivedPkt;
 			try {
-				Thread.sleep(10);
+				receivedPkt = getNetworkLayer().receivePacketBytes(rttEstimator.getTimeoutMillis(), TimeUnit.MILLISECONDS);
 			} catch (InterruptedException e) {
+				break;
+			}
+
+			PacketHeader header = PacketHeader.read(receivedPkt);
+			if(header != null && isIntact(receivedPkt, header) && header.getType() == PacketHeader.TYPE_ACK
+					&& header.getSequenceNumber() == LastFrameSend) {
+				Log.info("Received EOF ack " + header.getSequenceNumber());
+				stop = true;
+			} else if (eofRetransmissions >= EOF_RETRIES) {
+				// the receiver stops after acknowledging the first EOF, so that ACK may have been lost
+				Log.info("No EOF ack after " + eofRetransmissions + " retransmissions, assuming the receiver is done");
 				stop = true;
 			}
 		}
+		eofDone = true;
+		stopTimeout(eof);
 
 	}
 
 	public void sendAck(int seqNumber) {
-		Integer[] pkt = {ACK_HEADER, seqNumber};
-		getNetworkLayer().sendPacket(pkt);
-		System.out.println("Send ACK " + seqNumber);
+		sendPacket(newHeader(PacketHeader.TYPE_ACK, 0, seqNumber).toPacket(), PacketClass.CONTROL);
+		Log.debug(() -> "Send ACK " + seqNumber);
 	}
 
 	public void sendNack(int seqNumber) {
-		Integer[] pkt = {NACK_HEADER, seqNumber};
-		getNetworkLayer().sendPacket(pkt);
-		System.out.println("Send NACK " + seqNumber);
+		sendPacket(newHeader(PacketHeader.TYPE_NACK, 0, seqNumber).toPacket(), PacketClass.CONTROL);
+		Log.debug(() -> "Send NACK " + seqNumber);
+	}
+
+	/**
+	 * Send a SACK with the next expected sequence number, and a bitmap of the buffered packets after it.
+	 */
+	public void sendSack() {
+		int next = LastFrameReceived + 1;
+		PacketHeader header = newHeader(PacketHeader.TYPE_SACK, 0, next);
+		byte[] pkt = new byte[header.getSize() + (ReceiveWindowSize + 7) / 8];
+		header.write(pkt);
+		for (Integer seqNumber : bufferedPackets.keySet()) {
+			int bit = PacketHeader.compare(seqNumber, next) - 1;
+			if (bit >= 0 && bit < ReceiveWindowSize) {
+				pkt[header.getSize() + bit / 8] |= 1 << (bit % 8);
+			}
+		}
+		header.seal(pkt);
+		sendPacket(pkt, PacketClass.CONTROL);
+		Log.debug(() -> "Send SACK " + next + ", " + bufferedPackets.size() + " buffered");
 	}
 
 	@Override
 	public void TimeoutElapsed(Object tag) {
-		if(tag instanceof Integer[]) {
-			Integer[] pkt = (Integer[])tag;
-			//resend
-			getNetworkLayer().sendPacket(pkt);
-			System.out.println("Resend packet with header=" + pkt[0]);
+		if(tag instanceof TransmitFrame) {
+			TransmitFrame frame = (TransmitFrame) tag;
+			PacketHeader header = PacketHeader.read(frame.getPacket());
+			boolean eof = header.getType() == PacketHeader.TYPE_EOF;
+			// ignore packets that were acknowledged in the meantime
+			if (eof ? eofDone : unAcknowledgedPackets.get(header.getSequenceNumber()) != frame) {
+				return;
+			}
+			if (eof) {
+				eofRetransmissions++;
+			} else if (!isOldestUnacknowledged(header.getSequenceNumber())) {
+				// the oldest packet is resent first, the SACKs of the receiver then tell which of the others are lost
+				setTimeout(rttEstimator.getTimeoutMillis(), frame);
+				return;
+			} else {
+				windowController.onTimeout(header.getSequenceNumber());
+				timeoutRetransmits.increment();
+			}
+			// back off once for the packets that were sent with the same timeout, not once for each of them
+			Long lastSend = sendTimes.get(header.getSequenceNumber());
+			long now = Utils.getClock().nanoTime();
+			if (lastSend == null || lastSend - lastBackoff >= 0) {
+				rttEstimator.onTimeout();
+				lastBackoff = now;
+			}
+			retransmit(frame);
+		}
+	}
 
-			waitForAck(pkt);
+	/**
+	 * Check if no packet before the given packet is unacknowledged.
+	 */
+	public boolean isOldestUnacknowledged(int seqNumber) {
+		for (Integer unacknowledged : unAcknowledgedPackets.keySet()) {
+			if (PacketHeader.compare(unacknowledged, seqNumber) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Resend the frame of the given packet, as it was encoded for the first transmission, and restart its timer.
+	 * It is sent as a {@link PacketClass#RETRANSMIT}, ahead of the new data that is waiting for a slot.
+	 * Does not wait, so it can be called from the ACK listener.
+	 */
+	public void retransmit(TransmitFrame frame) {
+		if (frame == null) {
+			return;
 		}
+		int seqNumber = PacketHeader.read(frame.getPacket()).getSequenceNumber();
+		retransmitted.add(seqNumber);
+		sendTimes.put(seqNumber, Utils.getClock().nanoTime());
+		sendFrame(frame, PacketClass.RETRANSMIT);
+		Log.debug(() -> "Resend packet with seq=" + seqNumber);
+		setTimeout(rttEstimator.getTimeoutMillis(), frame);
 	}
 
 	@Override
 	public void receiver() {
-		System.out.println("Receiving...");
+		Log.info("Receiving...");
 
-		// create the array that will contain the file contents
-		// note: we don't know yet how large the file will be, so the easiest (but not most efficient)
-		//   is to reallocate the array every time we find out there's more data
-		Integer[] fileContents = new Integer[0];
+		// the file contents, written to the output file in order
+		ReassemblySink sink;
+		try {
+			sink = openFileSink();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		OutputStream fileContents = sink.asOutputStream();
+		ChunkedPayloadDecoder decoder = payloadCodec != null ? new ChunkedPayloadDecoder(payloadCodec)
+				: new ChunkedPayloadDecoder();
 		bufferedPackets = new HashMap<>();
 
 		// loop until we are done receiving the file
 		boolean stop = false;
-		Date timeOut = new Date();
-		timeOut.setTime(timeOut.getTime() + RECEIVER_TIMEOUT);
+		long timeOut = Utils.getClock().currentTimeMillis() + rttEstimator.getTimeoutMillis();
+		// packet requested by the last SACK sent because the SACK timer expired, and when that SACK was sent
+		int timedSack = LastFrameReceived;
+		long timedSackSent = 0;
+		boolean timedSackRepeated = false;
 		while (!stop) {
 
-			// try to receive a packet from the network layer
-			Integer[] packet = getNetworkLayer().receivePacket();
+			// wait for a packet from the network layer until the SACK timer expires
+			byte[] packet;
+			try {
+				long wait = timeOut - Utils.getClock().currentTimeMillis();
+				packet = getNetworkLayer().receivePacketBytes(Math.max(1, wait), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			}
 
+			PacketHeader header = PacketHeader.read(packet);
+			// Drop a corrupted packet, and ask for a data packet at once if its sequence number is still missing
+			if (header != null && !isIntact(packet, header)) {
+				corruptedPackets++;
+				corruptedPacketsDropped.increment();
+				Log.debug(() -> "Dropped corrupted packet, header=" + header);
+				int seqNumber = header.getSequenceNumber();
+				if (header.getType() == PacketHeader.TYPE_DATA && isInReceiverWindow(seqNumber)
+						&& !bufferedPackets.containsKey(seqNumber)) {
+					sendNack(seqNumber);
+				}
+				continue;
+			}
 			// if we indeed received a packet
-			if (packet != null) {
+			if (header != null) {
+				// Answer probes of the payload size, they are not part of the file
+				if (header.getType() == PacketHeader.TYPE_PROBE) {
+					PayloadSizeProbe.answer(getNetworkLayer(), header);
+					// the sender is still probing, so a SACK sent in the meantime does not give an RTT sample
+					timedSackSent = 0;
+					timeOut = Utils.getClock().currentTimeMillis() + rttEstimator.getTimeoutMillis();
+					continue;
+				}
+
 				// Get header (seq number)
-				int seqNumber = packet[0];
+				int seqNumber = header.getSequenceNumber();
 
 				// tell the user
-				System.out.println("Received packet, length=" + packet.length + "  first byte=" + seqNumber);
+				int length = packet.length;
+				Log.debug(() -> "Received packet, length=" + length + "  header=" + header);
+
+				// The packet requested after the SACK timer expired is an RTT sample, if it was requested once
+				if (seqNumber == timedSack && timedSackSent != 0) {
+					if (!timedSackRepeated) {
+						rttEstimator.addSample(Utils.getClock().nanoTime() - timedSackSent);
+					}
+					timedSackSent = 0;
+				}
 
 				// Check if packet only contains the EOF header
-				if (packet.length == HEADERSIZE) {
-					// Send ACK back
-					sendAck(seqNumber);
+				if (header.getType() == PacketHeader.TYPE_EOF) {
+					// Send ACK back, several times because the receiver stops and cannot acknowledge a retransmitted EOF
+					for (int i = 0; i < EOF_ACKS; i++) {
+						sendAck(seqNumber);
+					}
 					break;
 				}
 
 				// Check if sequence number is expected
-				if(isInReceiverWindow(seqNumber)) {
-					System.out.println("Current buffer: " + bufferedPackets);
-
+				if(header.getType() != PacketHeader.TYPE_DATA) {
+					Log.debug(() -> "Dropped packet of type " + header.getType());
+				} else if(isInReceiverWindow(seqNumber)) {
+					dataPacketsReceived.increment();
 					// Check if this packet can directly be appended (eg its sequence number equals LFR + 1)
 					if(seqNumber == LastFrameReceived + 1) {
 
 						// Append this packet (and possibly some from buffer) to the file
-						do {
-							LastFrameReceived++;
-							// Send ACK back
-							sendAck(LastFrameReceived);
-							fileContents = appendToFile(fileContents, packet);
-							//System.out.println("Current buffer: " + bufferedPackets + ", LFR " + LastFrameReceived);
-							packet = bufferedPackets.remove(LastFrameReceived + 1);
-						} while(packet != null);
+						try {
+							do {
+								LastFrameReceived++;
+								appendToFile(fileContents, decoder, packet);
+								packet = bufferedPackets.remove(LastFrameReceived + 1);
+							} while(packet != null);
+						} catch (IOException e) {
+							Log.error("Could not write packet " + LastFrameReceived + ": " + e.getMessage());
+							closeSink(sink);
+							return;
+						}
 
 					} else {
 						// Check if this packet is already buffered.
 						if(bufferedPackets.containsKey(seqNumber)) {
-							System.out.println("Already buffered packet " + seqNumber + " -> Dropped packet.");
+							duplicatePackets.increment();
+							Log.debug(() -> "Already buffered packet " + seqNumber + " -> Dropped packet.");
 						} else {
-							System.out.println("Still need packet " + (LastFrameReceived + 1) + " hence packet " + seqNumber + " will be buffered.");
+							Log.debug(() -> "Still need packet " + (LastFrameReceived + 1) + " hence packet " + seqNumber + " will be buffered.");
+							outOfOrderPackets.increment();
 							bufferedPackets.put(seqNumber, packet);
 						}
-						sendAck(seqNumber);
 					}
 				} else {
-					System.out.println(String.format("Received packet not in window [%d,%d]", LastFrameReceived + 1, LastFrameReceived + ReceiveWindowSize));
-					System.out.println("Dropped packet " + seqNumber);
-				}
-
-				//Tell which file is expected next
-				sendNack(LastFrameReceived+1);
-				timeOut.setTime(timeOut.getTime() + RECEIVER_TIMEOUT);
-			}else{
-				// wait ~10ms (or however long the OS makes us wait) before trying again
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					stop = true;
+					dataPacketsReceived.increment();
+					if (PacketHeader.compare(seqNumber, LastFrameReceived) <= 0) {
+						duplicatePackets.increment();
+					}
+					Log.debug(() -> String.format("Received packet not in window [%d,%d], dropped packet %d",
+							LastFrameReceived + 1, LastFrameReceived + ReceiveWindowSize, seqNumber));
 				}
 
+				// Acknowledge everything received so far and tell which packets are still missing
+				sendSack();
+				packetSacks.increment();
+				timeOut = Utils.getClock().currentTimeMillis() + rttEstimator.getTimeoutMillis();
 			}
 
-			//Check if timer is done, if so resend NACK for LFR + 1
-			if(timeOut.before(new Date())) {
-				System.out.println("NACK timeout expired, send NACK " + (LastFrameReceived + 1));
-				sendNack(LastFrameReceived + 1);
-				timeOut.setTime(timeOut.getTime() + RECEIVER_TIMEOUT);
+			//Check if timer is done, if so resend the SACK, which asks for LFR + 1
+			if(timeOut <= Utils.getClock().currentTimeMillis()) {
+				Log.debug(() -> "SACK timeout expired, send SACK " + (LastFrameReceived + 1));
+				rttEstimator.onTimeout();
+				if (timedSackSent != 0 && timedSack == LastFrameReceived + 1) {
+					timedSackRepeated = true;
+				} else {
+					timedSack = LastFrameReceived + 1;
+					timedSackRepeated = false;
+				}
+				timedSackSent = Utils.getClock().nanoTime();
+				sendSack();
+				timeoutSacks.increment();
+				timeOut = Utils.getClock().currentTimeMillis() + rttEstimator.getTimeoutMillis();
 			}
 		}
 
-		// write to the output file
-		Utils.setFileContents(fileContents, getFileID());
+		// close the output file
+		closeSink(sink);
+		Log.info("Receiver RTT estimate: " + rttEstimator);
+		if (packetChecksum) {
+			Log.info("Receiver dropped " + corruptedPackets + " corrupted packets");
+		}
 	}
 
 	/**
-	 * append the packet's data part (excluding the header) to the fileContents array, first making it larger
+	 * append the packet's data part (excluding the header and its checksum), decoded with the codec in its flags, to the fileContents
 	 * @param fileContents
+	 * @param decoder
 	 * @param packet
-	 * @return
 	 */
-	public Integer[] appendToFile(Integer[] fileContents, Integer[] packet) {
-		System.out.println("APPEND packet " + packet[0] + " to file");
-		int oldlength = fileContents.length;
-		int datalen = packet.length - HEADERSIZE;
-		fileContents = Arrays.copyOf(fileContents, oldlength + datalen);
-		System.arraycopy(packet, HEADERSIZE, fileContents, oldlength, datalen);
-		return fileContents;
-	}
-}
\ No newline at end of file
+	public void appendToFile(OutputStream fileContents, ChunkedPayloadDecoder decoder, byte[] packet)
+			throws IOException {
+		PacketHeader header = PacketHeader.read(packet);
+		decoder.decode(header.getFlags(), packet, header.getSize(), packet.length - header.getSize(), fileContents);
+		deliveredBytes.add(packet.length - header.getSize());
+	}
+
+	private void closeSink(ReassemblySink sink) {
+		try {
+			sink.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+}
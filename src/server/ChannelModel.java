@@ -0,0 +1,321 @@
+package server;
+
+import java.util.Random;
+
+/**
+ * Configurable model of the unreliable channel between the two clients of a session.
+ *
+ * Loss is modelled as a two-state (Gilbert) channel: in the good state every packet is lost with
+ * probability lossRate, once the channel enters the bad state (with probability burstRate per packet)
+ * every packet is lost until it leaves the bad state again, which takes burstLength packets on average.
+ * Packets that survive are delayed by delayMs plus a uniform jitter of at most jitterMs, and with
+ * probability reorderRate they are held back an extra reorderDelayMs so they overtake each other.
+ * Packets larger than maxPacketSize bytes are always lost, and every byte of a packet is lost with probability
+ * byteLossRate, so larger packets are lost more often. A packet that survives has one random bit flipped with
+ * probability corruptRate.
+ */
+public class ChannelModel {
+	/**
+	 * Return value of {@link Link#transmit()} for a packet that is lost
+	 */
+	public static final long LOST = -1;
+
+	// time between two slots offered to a client, 0 offers the next slot as soon as the previous one is answered
+	private long slotIntervalMs = 10;
+
+	// probability that a packet is lost in the good state
+	private double lossRate = 0.0;
+
+	// probability that the channel enters the bad state
+	private double burstRate = 0.0;
+
+	// mean number of packets lost in a row while in the bad state
+	private double burstLength = 1.0;
+
+	// fixed propagation delay
+	private long delayMs = 0;
+
+	// maximum additional random delay
+	private long jitterMs = 0;
+
+	// probability that a packet is held back
+	private double reorderRate = 0.0;
+
+	// time a held back packet is delayed additionally
+	private long reorderDelayMs = 50;
+
+	// largest packet the channel carries, 0 for no limit
+	private int maxPacketSize = 0;
+
+	// probability that a byte is lost, which loses its packet
+	private double byteLossRate = 0.0;
+
+	// probability that a delivered packet has a bit flipped
+	private double corruptRate = 0.0;
+
+	// seed for the random generators of the links
+	private long seed = 0;
+
+	/**
+	 * Parses a channel model from arguments of the form key=value.
+	 * Known keys: slot, loss, burst, burstlen, delay, jitter, reorder, reorderdelay, maxsize, byteloss, corrupt, seed.
+	 * @param args the arguments; arguments with other keys are ignored
+	 * @return the channel model
+	 * @throws IllegalArgumentException if a value is invalid
+	 */
+	public static ChannelModel parse(String[] args) {
+		ChannelModel model = new ChannelModel();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index < 1) {
+				continue;
+			}
+			String key = arg.substring(0, index);
+			String value = arg.substring(index + 1);
+			try {
+				switch (key) {
+				case "slot":
+					model.setSlotIntervalMs(Long.parseLong(value));
+					break;
+				case "loss":
+					model.setLossRate(Double.parseDouble(value));
+					break;
+				case "burst":
+					model.setBurstRate(Double.parseDouble(value));
+					break;
+				case "burstlen":
+					model.setBurstLength(Double.parseDouble(value));
+					break;
+				case "delay":
+					model.setDelayMs(Long.parseLong(value));
+					break;
+				case "jitter":
+					model.setJitterMs(Long.parseLong(value));
+					break;
+				case "reorder":
+					model.setReorderRate(Double.parseDouble(value));
+					break;
+				case "reorderdelay":
+					model.setReorderDelayMs(Long.parseLong(value));
+					break;
+				case "maxsize":
+					model.setMaxPacketSize(Integer.parseInt(value));
+					break;
+				case "byteloss":
+					model.setByteLossRate(Double.parseDouble(value));
+					break;
+				case "corrupt":
+					model.setCorruptRate(Double.parseDouble(value));
+					break;
+				case "seed":
+					model.setSeed(Long.parseLong(value));
+					break;
+				default:
+					break;
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Creates the state for one direction of the channel.
+	 * @param direction index of the direction, links with different indices draw independent random numbers
+	 * @return a new link using this model
+	 */
+	public Link newLink(int direction) {
+		return new Link(new Random(seed * 31 + direction));
+	}
+
+	public long getSlotIntervalMs() {
+		return slotIntervalMs;
+	}
+
+	public void setSlotIntervalMs(long slotIntervalMs) {
+		if (slotIntervalMs < 0) {
+			throw new IllegalArgumentException("slotIntervalMs < 0");
+		}
+		this.slotIntervalMs = slotIntervalMs;
+	}
+
+	public double getLossRate() {
+		return lossRate;
+	}
+
+	public void setLossRate(double lossRate) {
+		this.lossRate = checkProbability(lossRate, "lossRate");
+	}
+
+	public double getBurstRate() {
+		return burstRate;
+	}
+
+	public void setBurstRate(double burstRate) {
+		this.burstRate = checkProbability(burstRate, "burstRate");
+	}
+
+	public double getBurstLength() {
+		return burstLength;
+	}
+
+	public void setBurstLength(double burstLength) {
+		if (burstLength < 1.0) {
+			throw new IllegalArgumentException("burstLength < 1");
+		}
+		this.burstLength = burstLength;
+	}
+
+	public long getDelayMs() {
+		return delayMs;
+	}
+
+	public void setDelayMs(long delayMs) {
+		if (delayMs < 0) {
+			throw new IllegalArgumentException("delayMs < 0");
+		}
+		this.delayMs = delayMs;
+	}
+
+	public long getJitterMs() {
+		return jitterMs;
+	}
+
+	public void setJitterMs(long jitterMs) {
+		if (jitterMs < 0) {
+			throw new IllegalArgumentException("jitterMs < 0");
+		}
+		this.jitterMs = jitterMs;
+	}
+
+	public double getReorderRate() {
+		return reorderRate;
+	}
+
+	public void setReorderRate(double reorderRate) {
+		this.reorderRate = checkProbability(reorderRate, "reorderRate");
+	}
+
+	public long getReorderDelayMs() {
+		return reorderDelayMs;
+	}
+
+	public void setReorderDelayMs(long reorderDelayMs) {
+		if (reorderDelayMs < 0) {
+			throw new IllegalArgumentException("reorderDelayMs < 0");
+		}
+		this.reorderDelayMs = reorderDelayMs;
+	}
+
+	public int getMaxPacketSize() {
+		return maxPacketSize;
+	}
+
+	public void setMaxPacketSize(int maxPacketSize) {
+		if (maxPacketSize < 0) {
+			throw new IllegalArgumentException("maxPacketSize < 0");
+		}
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	public double getByteLossRate() {
+		return byteLossRate;
+	}
+
+	public void setByteLossRate(double byteLossRate) {
+		this.byteLossRate = checkProbability(byteLossRate, "byteLossRate");
+	}
+
+	public double getCorruptRate() {
+		return corruptRate;
+	}
+
+	public void setCorruptRate(double corruptRate) {
+		this.corruptRate = checkProbability(corruptRate, "corruptRate");
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("slot=%d loss=%.3f burst=%.3f burstlen=%.1f delay=%d jitter=%d reorder=%.3f reorderdelay=%d maxsize=%d byteloss=%.6f corrupt=%.3f seed=%d",
+				slotIntervalMs, lossRate, burstRate, burstLength, delayMs, jitterMs, reorderRate, reorderDelayMs,
+				maxPacketSize, byteLossRate, corruptRate, seed);
+	}
+
+	private static double checkProbability(double value, String name) {
+		if (value < 0.0 || value > 1.0) {
+			throw new IllegalArgumentException(name + " must be between 0 and 1");
+		}
+		return value;
+	}
+
+	/**
+	 * One direction of the channel. Not thread safe.
+	 */
+	public class Link {
+		private final Random random;
+		private boolean inBurst = false;
+
+		private Link(Random random) {
+			this.random = random;
+		}
+
+		/**
+		 * Decides the fate of the next packet on this link.
+		 * @param length the number of bytes of the packet
+		 * @return the delay in milliseconds after which the packet is delivered, or {@link #LOST}
+		 */
+		public long transmit(int length) {
+			if (inBurst) {
+				if (random.nextDouble() < 1.0 / burstLength) {
+					inBurst = false;
+				}
+			} else if (burstRate > 0 && random.nextDouble() < burstRate) {
+				inBurst = true;
+			}
+
+			if (inBurst || random.nextDouble() < lossRate) {
+				return LOST;
+			}
+			if (maxPacketSize > 0 && length > maxPacketSize) {
+				return LOST;
+			}
+			if (byteLossRate > 0 && random.nextDouble() >= Math.pow(1.0 - byteLossRate, length)) {
+				return LOST;
+			}
+
+			long delay = delayMs;
+			if (jitterMs > 0) {
+				delay += (long) (random.nextDouble() * (jitterMs + 1));
+			}
+			if (reorderRate > 0 && random.nextDouble() < reorderRate) {
+				delay += reorderDelayMs;
+			}
+			return delay;
+		}
+
+		/**
+		 * Decides whether a packet that is delivered arrives corrupted. Call after {@link #transmit(int)}, for the
+		 * packets that are not lost.
+		 * @param packet the content of the packet, not modified
+		 * @return a copy of the packet with one random bit flipped, or the packet itself
+		 */
+		public byte[] corrupt(byte[] packet) {
+			if (corruptRate == 0 || packet.length == 0 || random.nextDouble() >= corruptRate) {
+				return packet;
+			}
+			byte[] corrupted = packet.clone();
+			int bit = random.nextInt(packet.length * 8);
+			corrupted[bit / 8] ^= 1 << (bit % 8);
+			return corrupted;
+		}
+	}
+}
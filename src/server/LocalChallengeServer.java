@@ -0,0 +1,447 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * Local stand-in for the challenge server. Speaks the RDTCHALLENGE/3.0 line protocol, pairs the two clients
+ * of a group and forwards their packets through a {@link ChannelModel}.
+ *
+ * Usage: java server.LocalChallengeServer [port=8003] [timeout=600] [channel model options]
+ * and set the server address in Program to "localhost".
+ */
+public class LocalChallengeServer implements Runnable {
+	public static final int DEFAULT_PORT = 8003;
+	private static final String protocolString = "RDTCHALLENGE/3.0";
+
+	private final ServerSocket serverSocket;
+	private final ChannelModel model;
+	private final long sessionTimeoutMs;
+	private final Map<Integer, Session> sessions = new HashMap<>();
+
+	/**
+	 * Constructs the server and binds it to the given port.
+	 * @param port the port to listen on, 0 picks a free port
+	 * @param model the channel model applied to all sessions
+	 * @param sessionTimeoutMs time after which a started session is aborted, 0 for no limit
+	 * @throws IOException if the port could not be bound
+	 */
+	public LocalChallengeServer(int port, ChannelModel model, long sessionTimeoutMs) throws IOException {
+		this.serverSocket = new ServerSocket(port);
+		this.model = model;
+		this.sessionTimeoutMs = sessionTimeoutMs;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		long timeout = 600;
+		for (String arg : args) {
+			if (arg.startsWith("port=")) {
+				port = Integer.parseInt(arg.substring(5));
+			} else if (arg.startsWith("timeout=")) {
+				timeout = Long.parseLong(arg.substring(8));
+			}
+		}
+
+		LocalChallengeServer server = new LocalChallengeServer(port, ChannelModel.parse(args), timeout * 1000);
+		System.out.println("[SERVER] Listening on port " + server.getPort() + " with " + server.model);
+		server.run();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Starts the server in a background thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "Local Challenge Server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops accepting new connections.
+	 */
+	public void close() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Accepts connections until the server socket is closed
+	 */
+	@Override
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Connection connection = new Connection(socket);
+				Thread thread = new Thread(connection, "Connection " + socket.getRemoteSocketAddress());
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds or creates the session of a group and adds the connection to it
+	 * @return the session, or null if the group already has two clients
+	 */
+	private synchronized Session join(int groupId, Connection connection) {
+		Session session = sessions.get(groupId);
+		if (session == null || session.isOver()) {
+			session = new Session(groupId);
+			sessions.put(groupId, session);
+		}
+		return session.add(connection) ? session : null;
+	}
+
+	/**
+	 * Connection with a single client
+	 */
+	private class Connection implements Runnable {
+		private final Socket socket;
+		private final PrintStream outputStream;
+		private Session session;
+
+		// whether a slot was offered that was not answered yet
+		private boolean slotPending = false;
+
+		// whether the client has closed the connection
+		private boolean closed = false;
+
+		private Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.outputStream = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		@Override
+		public void run() {
+			try (Scanner inputScanner = new Scanner(new BufferedInputStream(socket.getInputStream()))) {
+				send("REGISTER");
+				while (inputScanner.hasNextLine()) {
+					String line = inputScanner.nextLine();
+					if (!line.startsWith(protocolString + " ")) {
+						send("FAIL Protocol mismatch");
+						break;
+					}
+					if (!handle(line.substring(protocolString.length() + 1))) {
+						break;
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				if (session != null) {
+					session.closed(this);
+				}
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		/**
+		 * Handles a message from the client
+		 * @return whether the connection should stay open
+		 */
+		private boolean handle(String message) {
+			String[] splitMessage = message.split(" ");
+			switch (splitMessage[0]) {
+			case "REGISTER":
+				if (session != null || splitMessage.length < 3) {
+					send("FAIL Invalid registration");
+					return false;
+				}
+				try {
+					session = join(Integer.parseInt(splitMessage[1]), this);
+				} catch (NumberFormatException e) {
+					send("FAIL Invalid group id");
+					return false;
+				}
+				if (session == null) {
+					send("FAIL Group already has two clients");
+					return false;
+				}
+				send("OK");
+				return true;
+			case "START":
+				if (session == null || splitMessage.length < 2) {
+					send("FAIL Not registered");
+					return false;
+				}
+				try {
+					session.start(this, Integer.parseInt(splitMessage[1]));
+				} catch (NumberFormatException e) {
+					send("FAIL Invalid file id");
+					return false;
+				}
+				return true;
+			case "TRANSMIT":
+			case "NOTRANSMIT":
+				if (session != null) {
+					byte[] packet = null;
+					if (splitMessage[0].equals("TRANSMIT")) {
+						try {
+							packet = splitMessage.length > 1 ? Base64.getDecoder().decode(splitMessage[1]) : new byte[0];
+						} catch (IllegalArgumentException e) {
+							send("FAIL Invalid packet encoding");
+							return false;
+						}
+					}
+					session.slotAnswered(this, packet);
+				}
+				return true;
+			case "CHECKSUM":
+				if (session != null && splitMessage.length > 2) {
+					session.checksum(this, splitMessage[1], splitMessage[2]);
+				}
+				return true;
+			case "CLOSED":
+				return false;
+			default:
+				send("FAIL Unknown command " + splitMessage[0]);
+				return false;
+			}
+		}
+
+		private synchronized void send(String message) {
+			if (!closed) {
+				outputStream.print(protocolString + " " + message + "\n");
+				outputStream.flush();
+			}
+		}
+	}
+
+	/**
+	 * Packet travelling through the channel
+	 */
+	private static class Delivery implements Comparable<Delivery> {
+		private final long deliveryTime;
+		private final long sequence;
+		private final Connection destination;
+		private final String encodedPacket;
+
+		private Delivery(long deliveryTime, long sequence, Connection destination, String encodedPacket) {
+			this.deliveryTime = deliveryTime;
+			this.sequence = sequence;
+			this.destination = destination;
+			this.encodedPacket = encodedPacket;
+		}
+
+		@Override
+		public int compareTo(Delivery other) {
+			if (deliveryTime != other.deliveryTime) {
+				return Long.compare(deliveryTime, other.deliveryTime);
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * Simulation between the two clients of a group
+	 */
+	private class Session implements Runnable {
+		private final int groupId;
+		private Connection first;
+		private Connection second;
+		private Connection sender;
+		private Connection receiver;
+		private ChannelModel.Link senderToReceiver;
+		private ChannelModel.Link receiverToSender;
+		private final PriorityQueue<Delivery> inFlight = new PriorityQueue<>();
+		private long deliverySequence = 0;
+		private boolean started = false;
+		private boolean over = false;
+		private long startTime;
+		private String checksumIn;
+		private String checksumOut;
+
+		// statistics
+		private long slotsOffered = 0;
+		private long packetsTransmitted = 0;
+		private long packetsLost = 0;
+		private long bytesTransmitted = 0;
+
+		private Session(int groupId) {
+			this.groupId = groupId;
+		}
+
+		private synchronized boolean add(Connection connection) {
+			if (first == null) {
+				first = connection;
+			} else if (second == null && !started) {
+				second = connection;
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		private synchronized boolean isOver() {
+			return over;
+		}
+
+		private synchronized void start(Connection connection, int fileId) {
+			if (started) {
+				connection.send("FAIL Simulation already started");
+				return;
+			}
+			if (first == null || second == null) {
+				connection.send("FAIL The other client of group " + groupId + " is not connected");
+				return;
+			}
+			sender = connection;
+			receiver = connection == first ? second : first;
+			senderToReceiver = model.newLink(0);
+			receiverToSender = model.newLink(1);
+
+			byte[] challenge = new byte[16];
+			new Random(model.getSeed() ^ System.nanoTime()).nextBytes(challenge);
+			String message = "START " + fileId + " " + Base64.getEncoder().encodeToString(challenge);
+			started = true;
+			startTime = System.currentTimeMillis();
+			sender.send(message);
+			receiver.send(message);
+			System.out.println("[SERVER] Group " + groupId + " started transfer of file " + fileId);
+
+			Thread thread = new Thread(this, "Session " + groupId);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private synchronized void slotAnswered(Connection connection, byte[] packet) {
+			if (!started || !connection.slotPending) {
+				return;
+			}
+			connection.slotPending = false;
+			if (packet != null) {
+				packetsTransmitted++;
+				bytesTransmitted += packet.length;
+				boolean fromSender = connection == sender;
+				ChannelModel.Link link = fromSender ? senderToReceiver : receiverToSender;
+				long delay = link.transmit(packet.length);
+				if (delay == ChannelModel.LOST) {
+					packetsLost++;
+				} else {
+					packet = link.corrupt(packet);
+					String encodedPacket = packet.length > 0 ? " " + Base64.getEncoder().encodeToString(packet) : "";
+					inFlight.add(new Delivery(System.currentTimeMillis() + delay, deliverySequence++,
+							fromSender ? receiver : sender, encodedPacket));
+				}
+			}
+			notifyAll();
+		}
+
+		private synchronized void checksum(Connection connection, String type, String value) {
+			if (type.equals("IN")) {
+				checksumIn = value;
+			} else if (type.equals("OUT")) {
+				checksumOut = value;
+				System.out.println("[SERVER] Group " + groupId + " checksum "
+						+ (value.equals(checksumIn) ? "correct" : "INCORRECT"));
+				connection.send("FINISH");
+			}
+		}
+
+		private synchronized void closed(Connection connection) {
+			connection.closed = true;
+			if (!started) {
+				if (connection == first) {
+					first = second;
+				}
+				second = null;
+				over = first == null;
+				return;
+			}
+			if (sender.closed && receiver.closed && !over) {
+				over = true;
+				report();
+			}
+			notifyAll();
+		}
+
+		private void report() {
+			long duration = System.currentTimeMillis() - startTime;
+			System.out.println(String.format("[SERVER] Group %d finished in %d ms: %d slots offered, %d packets transmitted (%d bytes), %d lost, checksum %s",
+					groupId, duration, slotsOffered, packetsTransmitted, bytesTransmitted, packetsLost,
+					checksumOut == null ? "missing" : checksumOut.equals(checksumIn) ? "correct" : "incorrect"));
+		}
+
+		/**
+		 * Offers slots and delivers packets until both clients have closed their connection
+		 */
+		@Override
+		public synchronized void run() {
+			long nextSlot = System.currentTimeMillis();
+			try {
+				while (!over) {
+					long now = System.currentTimeMillis();
+
+					if (sessionTimeoutMs > 0 && now - startTime > sessionTimeoutMs) {
+						sender.send("CLOSED Session timeout");
+						receiver.send("CLOSED Session timeout");
+						over = true;
+						report();
+						break;
+					}
+
+					// deliver packets that have arrived
+					while (!inFlight.isEmpty() && inFlight.peek().deliveryTime <= now) {
+						Delivery delivery = inFlight.poll();
+						delivery.destination.send("PACKET" + delivery.encodedPacket);
+					}
+
+					// offer slots to clients that answered the previous one
+					if (now >= nextSlot) {
+						offerSlot(sender);
+						offerSlot(receiver);
+						nextSlot = model.getSlotIntervalMs() > 0 ? now + model.getSlotIntervalMs() : now;
+					}
+
+					long wakeup = model.getSlotIntervalMs() > 0 ? nextSlot : now + 10;
+					if (!inFlight.isEmpty()) {
+						wakeup = Math.min(wakeup, inFlight.peek().deliveryTime);
+					}
+					if (wakeup > now) {
+						wait(wakeup - now);
+					}
+				}
+			} catch (InterruptedException e) {
+				over = true;
+			}
+		}
+
+		private void offerSlot(Connection connection) {
+			if (!connection.closed && !connection.slotPending) {
+				connection.slotPending = true;
+				slotsOffered++;
+				connection.send("SLOT");
+			}
+		}
+	}
+}
@@ -0,0 +1,407 @@
+package server;
+
+import client.Clock;
+import client.FecNetworkLayer;
+import client.IPacketListener;
+import client.Log;
+import client.NetworkLayer;
+import client.PacketClass;
+import client.PacketScheduler;
+import client.TimingWheel;
+import client.Utils;
+import client.VirtualClock;
+import protocol.IRDTProtocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs a sender and a receiver protocol in one JVM on virtual time, connected through a {@link ChannelModel}.
+ * Because all threads are scheduled by a {@link VirtualClock}, a transfer takes as little wall-clock time as the
+ * protocol code needs to run and gives the same result for the same channel model seed on every run.
+ *
+ * Usage: java server.Simulation [protocol=SlidingWindowDataTransferProtocol] [file=1] [limit=3600]
+ * [fec=block size] [parity=parity packets per block, adaptive if left out] [log=INFO, DEBUG for every packet]
+ * [channel model options]
+ */
+public class Simulation {
+	private final Supplier<? extends IRDTProtocol> protocolFactory;
+	private final ChannelModel model;
+	private final int fileId;
+	private final long limitMs;
+	private UnaryOperator<NetworkLayer> networkLayerDecorator = UnaryOperator.identity();
+
+	/**
+	 * Outcome of a simulated transfer
+	 */
+	public static class Result {
+		public boolean completed;
+		public boolean correct;
+		public long virtualMillis;
+		public long wallMillis;
+		public long slots;
+		public long packetsTransmitted;
+		// packets transmitted by the receiver, included in packetsTransmitted
+		public long receiverPackets;
+		public long packetsLost;
+		// packets delivered with a bit flipped by the channel
+		public long packetsCorrupted;
+		public long bytesTransmitted;
+
+		@Override
+		public String toString() {
+			return String.format("%s in %d ms virtual time (%d ms wall-clock): %d slots, %d packets transmitted (%d bytes, %d packets by the receiver), %d lost, %d corrupted, output %s",
+					completed ? "Completed" : "Aborted", virtualMillis, wallMillis, slots, packetsTransmitted,
+					bytesTransmitted, receiverPackets, packetsLost, packetsCorrupted, correct ? "correct" : "INCORRECT");
+		}
+	}
+
+	/**
+	 * Constructs a simulation
+	 * @param protocolFactory creates the protocol instances of the sender and the receiver
+	 * @param model the channel model
+	 * @param fileId the ID of the file to transfer
+	 * @param limitMs the virtual time after which the transfer is aborted
+	 */
+	public Simulation(Supplier<? extends IRDTProtocol> protocolFactory, ChannelModel model, int fileId, long limitMs) {
+		this.protocolFactory = protocolFactory;
+		this.model = model;
+		this.fileId = fileId;
+		this.limitMs = limitMs;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String protocolName = "SlidingWindowDataTransferProtocol";
+		int fileId = 1;
+		long limit = 3600;
+		int fecBlockSize = 0;
+		int parity = -1;
+		for (String arg : args) {
+			if (arg.startsWith("protocol=")) {
+				protocolName = arg.substring(9);
+			} else if (arg.startsWith("file=")) {
+				fileId = Integer.parseInt(arg.substring(5));
+			} else if (arg.startsWith("limit=")) {
+				limit = Long.parseLong(arg.substring(6));
+			} else if (arg.startsWith("fec=")) {
+				fecBlockSize = Integer.parseInt(arg.substring(4));
+			} else if (arg.startsWith("parity=")) {
+				parity = Integer.parseInt(arg.substring(7));
+			} else if (arg.startsWith("log=")) {
+				Log.setLevel(Log.Level.valueOf(arg.substring(4).toUpperCase()));
+			}
+		}
+
+		Simulation simulation = new Simulation(protocolFactory(protocolName), ChannelModel.parse(args), fileId, limit * 1000);
+		List<FecNetworkLayer> fecLayers = new CopyOnWriteArrayList<>();
+		if (fecBlockSize > 0) {
+			int blockSize = fecBlockSize;
+			int parityPackets = parity;
+			simulation.setNetworkLayerDecorator(networkLayer -> {
+				FecNetworkLayer fecLayer = new FecNetworkLayer(networkLayer, blockSize, parityPackets);
+				fecLayers.add(fecLayer);
+				return fecLayer;
+			});
+		}
+		Simulation.Result result = simulation.run();
+		Log.flush();
+		System.out.println("[SIMULATION] " + result);
+		for (FecNetworkLayer fecLayer : fecLayers) {
+			System.out.println("[SIMULATION] " + fecLayer);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Sets a function that wraps the network layer of each side before it is given to the protocol, for example in a
+	 * {@link FecNetworkLayer}
+	 * @param networkLayerDecorator the function, the identity by default
+	 */
+	public void setNetworkLayerDecorator(UnaryOperator<NetworkLayer> networkLayerDecorator) {
+		this.networkLayerDecorator = networkLayerDecorator;
+	}
+
+	/**
+	 * Creates a factory for a protocol implementation.
+	 * @param protocolName class name of the protocol, without package if it is in the protocol package
+	 * @return factory creating new instances of the protocol
+	 * @throws ClassNotFoundException if there is no such class
+	 */
+	public static Supplier<IRDTProtocol> protocolFactory(String protocolName) throws ClassNotFoundException {
+		String className = protocolName.contains(".") ? protocolName : "protocol." + protocolName;
+		Class<? extends IRDTProtocol> protocolClass = Class.forName(className).asSubclass(IRDTProtocol.class);
+		return () -> {
+			try {
+				return protocolClass.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Cannot instantiate " + protocolClass.getName(), e);
+			}
+		};
+	}
+
+	/**
+	 * Runs the transfer. Uses the global clock of the framework, so simulations must not run concurrently.
+	 * @return the outcome
+	 * @throws InterruptedException if the calling thread was interrupted
+	 */
+	public Result run() throws InterruptedException {
+		Result result = new Result();
+		File outputFile = new File(String.format("rdtcOutput%d.%d.png", fileId, Utils.getProcessId()));
+		outputFile.delete();
+
+		long wallStart = System.currentTimeMillis();
+		VirtualClock clock = new VirtualClock();
+		Clock previousClock = Utils.getClock();
+		Utils.setClock(clock);
+
+		Endpoint senderEndpoint = new Endpoint(clock, "Sender Timer");
+		Endpoint receiverEndpoint = new Endpoint(clock, "Receiver Timer");
+		IRDTProtocol senderProtocol = protocolFactory.get();
+		IRDTProtocol receiverProtocol = protocolFactory.get();
+		NetworkLayer senderLayer = networkLayerDecorator.apply(senderEndpoint);
+		NetworkLayer receiverLayer = networkLayerDecorator.apply(receiverEndpoint);
+		senderProtocol.setNetworkLayer(senderLayer);
+		senderProtocol.setFileID(fileId);
+		receiverProtocol.setNetworkLayer(receiverLayer);
+		receiverProtocol.setFileID(fileId);
+
+		CountDownLatch finished = new CountDownLatch(1);
+		Thread senderThread = clock.newThread(() -> runEndpoint(senderEndpoint, senderProtocol::sender), "Sender");
+		Thread receiverThread = clock.newThread(() -> runEndpoint(receiverEndpoint, receiverProtocol::receiver), "Receiver");
+		Thread channelThread = clock.newThread(() -> {
+			try {
+				runChannel(senderEndpoint, receiverEndpoint, result);
+			} catch (InterruptedException e) {
+				// clock shut down
+			} finally {
+				result.virtualMillis = clock.currentTimeMillis();
+				finished.countDown();
+			}
+		}, "Channel");
+		senderThread.start();
+		receiverThread.start();
+		channelThread.start();
+		clock.start();
+
+		try {
+			finished.await();
+		} finally {
+			clock.shutdown();
+			senderEndpoint.timer.stop();
+			receiverEndpoint.timer.stop();
+			Utils.setClock(previousClock);
+		}
+		result.wallMillis = System.currentTimeMillis() - wallStart;
+		result.correct = result.completed && sameContents(new File(String.format("rdtcInput%d.png", fileId)), outputFile);
+		return result;
+	}
+
+	/**
+	 * Runs one side of the protocol and waits until its output has been transmitted
+	 */
+	private void runEndpoint(Endpoint endpoint, Runnable side) {
+		try {
+			side.run();
+			while (!endpoint.isOutputEmpty()) {
+				Utils.getClock().sleep(10);
+			}
+		} catch (InterruptedException e) {
+			// clock shut down
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			endpoint.done = true;
+		}
+	}
+
+	/**
+	 * Offers slots to both endpoints and delivers the packets that survive the channel
+	 */
+	private void runChannel(Endpoint sender, Endpoint receiver, Result result) throws InterruptedException {
+		Clock clock = Utils.getClock();
+		ChannelModel.Link senderToReceiver = model.newLink(0);
+		ChannelModel.Link receiverToSender = model.newLink(1);
+		PriorityQueue<Delivery> inFlight = new PriorityQueue<>();
+		long interval = Math.max(1, model.getSlotIntervalMs());
+		long sequence = 0;
+
+		while (!(sender.done && receiver.done)) {
+			long now = clock.currentTimeMillis();
+			if (now >= limitMs) {
+				return;
+			}
+
+			while (!inFlight.isEmpty() && inFlight.peek().deliveryTime <= now) {
+				Delivery delivery = inFlight.poll();
+				delivery.destination.deliver(delivery.packet);
+			}
+
+			for (int direction = 0; direction < 2; direction++) {
+				Endpoint source = direction == 0 ? sender : receiver;
+				Endpoint destination = direction == 0 ? receiver : sender;
+				result.slots++;
+				byte[] packet = source.takeOutput();
+				if (packet != null) {
+					result.packetsTransmitted++;
+					if (direction == 1) {
+						result.receiverPackets++;
+					}
+					result.bytesTransmitted += packet.length;
+					ChannelModel.Link link = direction == 0 ? senderToReceiver : receiverToSender;
+					long delay = link.transmit(packet.length);
+					if (delay == ChannelModel.LOST) {
+						result.packetsLost++;
+					} else {
+						byte[] delivered = link.corrupt(packet);
+						if (delivered != packet) {
+							result.packetsCorrupted++;
+						}
+						packet = delivered;
+						inFlight.add(new Delivery(now + delay, sequence++, destination, packet));
+					}
+				}
+			}
+
+			clock.sleep(interval);
+		}
+		result.completed = true;
+	}
+
+	private static boolean sameContents(File expected, File actual) {
+		try {
+			return actual.exists() && Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Packet travelling through the channel
+	 */
+	private static class Delivery implements Comparable<Delivery> {
+		private final long deliveryTime;
+		private final long sequence;
+		private final Endpoint destination;
+		private final byte[] packet;
+
+		private Delivery(long deliveryTime, long sequence, Endpoint destination, byte[] packet) {
+			this.deliveryTime = deliveryTime;
+			this.sequence = sequence;
+			this.destination = destination;
+			this.packet = packet;
+		}
+
+		@Override
+		public int compareTo(Delivery other) {
+			if (deliveryTime != other.deliveryTime) {
+				return Long.compare(deliveryTime, other.deliveryTime);
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * Network layer of one side of the simulated transfer
+	 */
+	private static class Endpoint extends NetworkLayer {
+		// as large as the output buffer of the challenge client, and scheduled the same way
+		private static final int OUTPUT_CAPACITY = 4096;
+
+		private final PacketScheduler<byte[]> outputPacketBuffer = new PacketScheduler<>(OUTPUT_CAPACITY);
+		private final ArrayDeque<byte[]> inputPacketBuffer = new ArrayDeque<>();
+		private final List<IPacketListener> packetListeners = new CopyOnWriteArrayList<>();
+		private final TimingWheel timer;
+		private volatile boolean done = false;
+
+		private Endpoint(Clock clock, String timerName) {
+			timer = new TimingWheel(clock, timerName);
+			timer.start();
+		}
+
+		/**
+		 * Waits a virtual millisecond at a time while the queue of the class is full, like the challenge client
+		 */
+		@Override
+		public void sendPacket(byte[] packet, PacketClass packetClass) throws IllegalArgumentException {
+			if (packet == null) {
+				throw new IllegalArgumentException("packet == null");
+			}
+			while (!outputPacketBuffer.offer(packetClass, packet)) {
+				try {
+					Utils.getClock().sleep(1);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException("Interrupted while the output packet buffer was full");
+				}
+			}
+		}
+
+		@Override
+		public synchronized byte[] receivePacketBytes() {
+			return inputPacketBuffer.poll();
+		}
+
+		/**
+		 * Polls every virtual millisecond, which costs no wall-clock time while other threads are idle
+		 */
+		@Override
+		public byte[] receivePacketBytes(long timeout, TimeUnit unit) throws InterruptedException {
+			Clock clock = Utils.getClock();
+			long deadline = clock.currentTimeMillis() + unit.toMillis(timeout);
+			byte[] packet = receivePacketBytes();
+			while (packet == null && clock.currentTimeMillis() < deadline) {
+				clock.sleep(1);
+				packet = receivePacketBytes();
+			}
+			return packet;
+		}
+
+		@Override
+		public TimingWheel getTimer() {
+			return timer;
+		}
+
+		@Override
+		public void addPacketListener(IPacketListener listener) {
+			packetListeners.add(listener);
+		}
+
+		@Override
+		public void removePacketListener(IPacketListener listener) {
+			packetListeners.remove(listener);
+		}
+
+		private boolean isOutputEmpty() {
+			return outputPacketBuffer.isEmpty();
+		}
+
+		/**
+		 * Takes the packet for the current slot, only called by the channel thread
+		 */
+		private byte[] takeOutput() {
+			return outputPacketBuffer.poll();
+		}
+
+		private void deliver(byte[] packet) {
+			if (!packetListeners.isEmpty()) {
+				for (IPacketListener listener : packetListeners) {
+					listener.onPacket(packet);
+				}
+				return;
+			}
+			synchronized (this) {
+				inputPacketBuffer.add(packet);
+			}
+		}
+	}
+}